@@ -0,0 +1,74 @@
+package ca.islandora.syn.settings;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.islandora.syn.token.SiteVerifier;
+
+/**
+ * Parsing large settings files and building their site verifiers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettingsParserBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int sites;
+
+    private byte[] settings;
+
+    @Setup
+    public void setUp() {
+        settings = createSettings(sites, sites);
+    }
+
+    /**
+     * Build a settings file with inline HMAC keyed sites and static tokens.
+     *
+     * @param siteCount
+     *        number of sites
+     * @param tokenCount
+     *        number of static tokens
+     * @return the settings file contents
+     */
+    static byte[] createSettings(final int siteCount, final int tokenCount) {
+        final StringBuilder xml = new StringBuilder("<config version='1' header='X-Islandora-Roles'>\n");
+        for (int i = 0; i < siteCount; i++) {
+            xml.append("  <site url='https://site").append(i).append(".example.org' algorithm='HS256'")
+                .append(" encoding='plain' anonymous='").append(i % 2 == 0).append("'>\n")
+                .append("secret for site ").append(i).append("\n  </site>\n");
+        }
+        for (int i = 0; i < tokenCount; i++) {
+            xml.append("  <token user='service").append(i).append("' roles='role1,role2'>\n")
+                .append("static token ").append(i).append("\n  </token>\n");
+        }
+        return xml.append("</config>\n").toString().getBytes();
+    }
+
+    @Benchmark
+    public Config getSites() {
+        return SettingsParser.getSites(new ByteArrayInputStream(settings));
+    }
+
+    @Benchmark
+    public Map<String, SiteVerifier> getSiteVerifiers() {
+        return SettingsParser.getSiteVerifiers(SettingsParser.getSites(new ByteArrayInputStream(settings)));
+    }
+}
@@ -0,0 +1,72 @@
+package ca.islandora.syn.settings;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.tomcat.util.digester.Digester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Reading large settings files with the StAX reader, against the Digester
+ * rules it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettingsReaderBenchmark {
+
+    @Param({"1000", "10000"})
+    private int sites;
+
+    private byte[] settings;
+    private Digester digester;
+
+    @Setup
+    public void setUp() {
+        settings = SettingsParserBenchmark.createSettings(sites, sites);
+        digester = new Digester();
+        digester.setValidating(false);
+        digester.addObjectCreate("config", "ca.islandora.syn.settings.Config");
+        digester.addSetProperties("config");
+        digester.addObjectCreate("config/site", "ca.islandora.syn.settings.Site");
+        digester.addSetProperties("config/site");
+        digester.addCallMethod("config/site", "setKey", 0);
+        digester.addSetNext("config/site", "addSite", "ca.islandora.syn.settings.Site");
+        digester.addObjectCreate("config/site/key", "ca.islandora.syn.settings.SiteKey");
+        digester.addSetProperties("config/site/key");
+        digester.addCallMethod("config/site/key", "setKey", 0);
+        digester.addSetNext("config/site/key", "addKey", "ca.islandora.syn.settings.SiteKey");
+        digester.addObjectCreate("config/token", "ca.islandora.syn.settings.Token");
+        digester.addSetProperties("config/token");
+        digester.addCallMethod("config/token", "setToken", 0);
+        digester.addSetNext("config/token", "addToken", "ca.islandora.syn.settings.Token");
+    }
+
+    @Benchmark
+    public Config digester() throws IOException, SAXException {
+        digester.clear();
+        return (Config) digester.parse(new ByteArrayInputStream(settings));
+    }
+
+    @Benchmark
+    public Config stax() throws XMLStreamException {
+        return SettingsReader.read(new ByteArrayInputStream(settings));
+    }
+}
@@ -0,0 +1,105 @@
+package ca.islandora.syn.settings;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.SecureRandom;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.auth0.jwt.algorithms.Algorithm;
+
+import ca.islandora.syn.token.SiteVerifier;
+
+/**
+ * Loading a 10,000 site configuration at startup, each site with its own PEM
+ * key file, one key at a time, on several threads, and with keys left to be
+ * loaded on first use.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettingsStartupBenchmark {
+
+    @Param({"10000"})
+    private int sites;
+
+    @Param({"1", "4", "8"})
+    private int keyLoadThreads;
+
+    @Param({"false", "true"})
+    private boolean lazyKeys;
+
+    private Path keyDirectory;
+    private byte[] settings;
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        keyDirectory = Files.createTempDirectory("syn-keys");
+        final KeyFactory factory = KeyFactory.getInstance("RSA");
+        final SecureRandom random = new SecureRandom();
+        final StringBuilder xml = new StringBuilder("<config version='1' keyLoadThreads='")
+            .append(keyLoadThreads).append("' lazyKeys='").append(lazyKeys).append("'>\n");
+        for (int i = 0; i < sites; i++) {
+            // Only the public key is needed, and parsing does not check the
+            // modulus, so a random odd one stands in for a generated key pair.
+            final BigInteger modulus = new BigInteger(2048, random).setBit(2047).setBit(0);
+            final RSAPublicKeySpec spec = new RSAPublicKeySpec(modulus, BigInteger.valueOf(65537));
+            final File key = keyDirectory.resolve("site" + i + ".pem").toFile();
+            final StringWriter pem = new StringWriter();
+            try (final PemWriter writer = new PemWriter(pem)) {
+                writer.writeObject(new PemObject("PUBLIC KEY", factory.generatePublic(spec).getEncoded()));
+            }
+            Files.write(key.toPath(), pem.toString().getBytes());
+            xml.append("  <site url='https://site").append(i).append(".example.org' algorithm='RS256'")
+                .append(" encoding='PEM' path='").append(key.getAbsolutePath()).append("'/>\n");
+        }
+        settings = xml.append("</config>\n").toString().getBytes();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        final File[] keys = keyDirectory.toFile().listFiles();
+        if (keys != null) {
+            for (final File key : keys) {
+                Files.delete(key.toPath());
+            }
+        }
+        Files.delete(keyDirectory);
+    }
+
+    @Benchmark
+    public Map<String, SiteVerifier> getSiteVerifiers() {
+        return SettingsParser.getSiteVerifiers(SettingsParser.getSites(new ByteArrayInputStream(settings)));
+    }
+
+    @Benchmark
+    public Map<String, Algorithm> getSiteAlgorithms() {
+        return SettingsParser.getSiteAlgorithms(SettingsParser.getSites(new ByteArrayInputStream(settings)));
+    }
+}
@@ -0,0 +1,90 @@
+package ca.islandora.syn.token;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+/**
+ * Compares building a java-jwt JWTVerifier for every request with verifying
+ * through a precompiled {@link SiteVerifier}, both with the java-jwt algorithm
+ * and with a {@link CryptoContext} that reuses per-thread keyed crypto
+ * primitives. Run with -prof gc to see the allocation per request
+ * (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SiteVerifierBenchmark {
+
+    @Param({"HS256", "RS256"})
+    private String algorithmName;
+
+    private String token;
+    private Algorithm algorithm;
+    private CryptoContext context;
+    private SiteVerifier siteVerifier;
+    private SiteVerifier wrappedSiteVerifier;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Algorithm signer;
+        if (algorithmName.equals("RS256")) {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            final KeyPair pair = generator.generateKeyPair();
+            signer = Algorithm.RSA256((RSAKey) pair.getPrivate());
+            algorithm = Algorithm.RSA256((RSAKey) pair.getPublic());
+            context = CryptoContext.rsa(algorithmName, (RSAPublicKey) pair.getPublic());
+        } else {
+            signer = Algorithm.HMAC256("secret");
+            algorithm = signer;
+            context = CryptoContext.hmac(algorithmName, "secret".getBytes());
+        }
+        token = JWT.create()
+                .withArrayClaim("roles", new String[] { "role1", "role2" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://test.com")
+                .withIssuedAt(new Date())
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+                .sign(signer);
+        siteVerifier = new SiteVerifier("http://test.com", context);
+        wrappedSiteVerifier = new SiteVerifier("http://test.com", CryptoContext.wrap(algorithm));
+    }
+
+    @Benchmark
+    public Object perRequestJwtVerifier() {
+        return JWT.require(algorithm).build().verify(token);
+    }
+
+    @Benchmark
+    public boolean precompiledSiteVerifierJwtAlgorithm() {
+        return wrappedSiteVerifier.verify(Verifier.create(token));
+    }
+
+    @Benchmark
+    public boolean precompiledSiteVerifier() {
+        return siteVerifier.verify(Verifier.create(token));
+    }
+}
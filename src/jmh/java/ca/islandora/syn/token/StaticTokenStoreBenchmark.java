@@ -0,0 +1,78 @@
+package ca.islandora.syn.token;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up known and unknown tokens in a large static token file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StaticTokenStoreBenchmark {
+
+    @Param({"500000"})
+    private int tokens;
+
+    private File file;
+    private StaticTokenStore store;
+    private TokenDigest[] known;
+    private TokenDigest[] unknown;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Map<TokenDigest, StaticTokenStore.Record> records = new HashMap<>();
+        for (int i = 0; i < tokens; i++) {
+            records.put(TokenDigest.of("service-token-" + i),
+                new StaticTokenStore.Record("service" + (i % 100), Arrays.asList("fedoraAdmin")));
+        }
+        file = File.createTempFile("syn-tokens", ".bin");
+        StaticTokenStore.write(file.toPath(), records);
+        store = StaticTokenStore.open(file);
+        known = new TokenDigest[1024];
+        unknown = new TokenDigest[1024];
+        for (int i = 0; i < known.length; i++) {
+            known[i] = TokenDigest.of("service-token-" + (i * 487 % tokens));
+            unknown[i] = TokenDigest.of("unknown-token-" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public StaticTokenStore.Record known() {
+        next = (next + 1) & 1023;
+        return store.find(known[next]);
+    }
+
+    @Benchmark
+    public StaticTokenStore.Record unknown() {
+        next = (next + 1) & 1023;
+        return store.find(unknown[next]);
+    }
+}
@@ -0,0 +1,89 @@
+package ca.islandora.syn.token;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+/**
+ * Decoding and verifying a JWT for each supported algorithm, and RSA key size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerifierBenchmark {
+
+    @Param({"HS256", "HS384", "HS512", "RS256-2048", "RS384-2048", "RS512-2048",
+        "RS256-4096", "RS384-4096", "RS512-4096"})
+    private String algorithm;
+
+    private String token;
+    private Verifier decoded;
+    private SiteVerifier siteVerifier;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String name = algorithm.substring(0, 5);
+        final Algorithm signer;
+        final CryptoContext context;
+        if (name.startsWith("RS")) {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(Integer.parseInt(algorithm.substring(6)));
+            final KeyPair pair = generator.generateKeyPair();
+            final RSAKey privateKey = (RSAKey) pair.getPrivate();
+            signer = name.equals("RS256") ? Algorithm.RSA256(privateKey)
+                : name.equals("RS384") ? Algorithm.RSA384(privateKey) : Algorithm.RSA512(privateKey);
+            context = CryptoContext.rsa(name, (RSAPublicKey) pair.getPublic());
+        } else {
+            final byte[] secret = "a reasonably long shared secret for hmac".getBytes();
+            signer = name.equals("HS256") ? Algorithm.HMAC256(secret)
+                : name.equals("HS384") ? Algorithm.HMAC384(secret) : Algorithm.HMAC512(secret);
+            context = CryptoContext.hmac(name, secret);
+        }
+        token = JWT.create()
+                .withArrayClaim("roles", new String[] { "fedoraAdmin", "administrator", "islandora" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://test.com")
+                .withIssuedAt(new Date())
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+                .sign(signer);
+        decoded = Verifier.create(token);
+        siteVerifier = new SiteVerifier("http://test.com", context);
+    }
+
+    @Benchmark
+    public Verifier create() {
+        return Verifier.create(token);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return siteVerifier.verify(decoded);
+    }
+
+    @Benchmark
+    public boolean createAndVerify() {
+        return siteVerifier.verify(Verifier.create(token));
+    }
+}
@@ -0,0 +1,173 @@
+package ca.islandora.syn.valve;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.realm.NullRealm;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.tomcat.util.descriptor.web.SecurityCollection;
+import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+/**
+ * End-to-end {@link SynValve#invoke(Request, Response)} against a real Tomcat
+ * request, context and security constraint, without a running server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SynValveBenchmark {
+
+    private static final String roleHeader = "X-Islandora-Roles";
+
+    // Held so the level set below is not lost when the logger is collected.
+    private static final Logger synLogger = Logger.getLogger("ca.islandora.syn");
+
+    /**
+     * jwt: a JWT, served from the verified-token cache after the first request.
+     * jwtUncached: a JWT with the verified-token cache disabled.
+     * staticToken: a configured static token.
+     * anonymousGet: a GET with no token to a site allowing anonymous access.
+     * anonymousRule: a GET with no token to a path one of a site's anonymous rules allows.
+     * rejected: a JWT with a bad signature.
+     */
+    @Param({"jwt", "jwtUncached", "staticToken", "anonymousGet", "anonymousRule", "rejected"})
+    private String scenario;
+
+    private SynValve valve;
+    private Request request;
+    private Response response;
+    private File settings;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Per-request info messages would otherwise measure the console handler.
+        synLogger.setLevel(Level.WARNING);
+
+        settings = File.createTempFile("syn-settings", ".xml");
+        Files.write(settings.toPath(), String.join("\n"
+                , "<config version='1' header='" + roleHeader + "'"
+                    + (scenario.equals("jwtUncached") ? " cacheSize='0'" : "") + ">"
+                , "  <site url='http://localhost:8080' algorithm='HS256' encoding='plain'"
+                    + " anonymous='" + scenario.equals("anonymousGet") + "'>"
+                , "    <anonymous path='/fcrepo/rest/private/upload' methods='POST'/>"
+                , "    <anonymous path='/fcrepo/rest/" + (scenario.equals("anonymousRule") ? "" : "public/") + "*'/>"
+                , "    <anonymous path='/fcrepo/static/*' methods='GET'/>"
+                , "secret"
+                , "  </site>"
+                , "  <token user='service' roles='fedoraAdmin'>"
+                , "static-token"
+                , "  </token>"
+                , "</config>"
+        ).getBytes());
+
+        final SecurityCollection collection = new SecurityCollection();
+        collection.addPattern("/*");
+        final SecurityConstraint constraint = new SecurityConstraint();
+        constraint.addCollection(collection);
+        constraint.setAuthConstraint(true);
+        constraint.addAuthRole("*");
+        final StandardContext context = new StandardContext();
+        context.setName("/fcrepo");
+        context.setPath("/fcrepo");
+        context.setRealm(new NullRealm());
+        context.addConstraint(constraint);
+
+        valve = new SynValve();
+        valve.setPathname(settings.getAbsolutePath());
+        valve.setContainer(context);
+        valve.setNext(new ValveBase() {
+            @Override
+            public void invoke(final Request request, final Response response) {
+                // The protected resource.
+            }
+        });
+        valve.start();
+
+        final org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+        coyoteRequest.scheme().setString("http");
+        coyoteRequest.serverName().setString("localhost");
+        coyoteRequest.setServerPort(8080);
+        final boolean anonymous = scenario.startsWith("anonymous");
+        coyoteRequest.method().setString(anonymous ? "GET" : "POST");
+        coyoteRequest.requestURI().setString("/fcrepo/rest/object");
+        coyoteRequest.decodedURI().setString("/fcrepo/rest/object");
+        if (!anonymous) {
+            final String token = scenario.equals("staticToken") ? "static-token" : createToken();
+            final byte[] header = ("Bearer " + token).getBytes();
+            coyoteRequest.getMimeHeaders().addValue("Authorization").setBytes(header, 0, header.length);
+        }
+        request = new Request();
+        request.setCoyoteRequest(coyoteRequest);
+        request.getMappingData().context = context;
+        request.getMappingData().requestPath.setString("/rest/object");
+        response = new Response() {
+            @Override
+            public void sendError(final int status, final String message) {
+                // Discard, there is no connection to write to.
+            }
+        };
+
+        valve.invoke(request, response);
+        final boolean authenticated = request.getPrincipal() != null;
+        if (authenticated == scenario.equals("rejected")) {
+            throw new IllegalStateException("Scenario " + scenario + " did not reach the expected outcome");
+        }
+        request.getCoyoteRequest().getMimeHeaders().removeHeader(roleHeader);
+        request.setUserPrincipal(null);
+    }
+
+    private String createToken() throws IOException {
+        final String token = JWT.create()
+                .withArrayClaim("roles", new String[] { "fedoraAdmin", "administrator" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://localhost:8080")
+                .withIssuedAt(new Date())
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+                .sign(Algorithm.HMAC256("secret"));
+        return scenario.equals("rejected") ? token + "x" : token;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        valve.stop();
+        Files.deleteIfExists(settings.toPath());
+    }
+
+    @Benchmark
+    public void invoke(final Blackhole blackhole) throws IOException, ServletException {
+        valve.invoke(request, response);
+        blackhole.consume(request.getPrincipal());
+        // Undo what the valve added so the request can be reused, as Tomcat recycles it.
+        request.getCoyoteRequest().getMimeHeaders().removeHeader(roleHeader);
+    }
+}
@@ -0,0 +1,454 @@
+package ca.islandora.syn.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.realm.NullRealm;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.SecurityCollection;
+import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+import ca.islandora.syn.valve.SynValve;
+
+/**
+ * Load test for {@link SynValve} in an embedded Tomcat.
+ *
+ * Boots Tomcat on loopback with the valve in front of a trivial servlet behind
+ * a security constraint, then drives it with a weighted mix of valid JWTs,
+ * static tokens, anonymous GETs and bad tokens from 1..N client threads. For
+ * each thread count it prints throughput and p50/p99/p99.9 latency, overall
+ * and per request kind.
+ *
+ * Options are given as name=value arguments:
+ * <ul>
+ * <li>threads: comma separated client thread counts (default 1,2,4,... up to twice the cores)</li>
+ * <li>duration: seconds measured per thread count (default 10)</li>
+ * <li>warmup: seconds of unmeasured load before the first step (default 5)</li>
+ * <li>mix: weights per kind (default jwt:70,static:10,anonymous:10,bad:10)</li>
+ * <li>tokens: distinct JWTs and bad tokens to cycle through (default 1000)</li>
+ * <li>algorithm: HS256 or RS256 (default HS256)</li>
+ * <li>logLevel: level for the Syn loggers (default WARNING, per-request INFO messages otherwise dominate)</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private static final String roleHeader = "X-Islandora-Roles";
+    private static final String staticToken = "load-test-static-token";
+    private static final String secret = "load-test-secret";
+
+    // Held so the configured level is not lost when the logger is collected.
+    private static final Logger synLogger = Logger.getLogger("ca.islandora.syn");
+
+    private final Map<String, String> options;
+    private final Map<RequestKind, Integer> mix = new LinkedHashMap<>();
+    private int totalWeight;
+    private URL url;
+    private List<String> validTokens;
+    private List<String> badTokens;
+
+    private LoadTest(final Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (final String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    private String option(final String name, final String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private void run() throws Exception {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final List<Integer> threadCounts = new ArrayList<>();
+        if (options.containsKey("threads")) {
+            for (final String count : option("threads", "").split(",")) {
+                threadCounts.add(Integer.parseInt(count.trim()));
+            }
+        } else {
+            for (int count = 1; count <= cores * 2; count *= 2) {
+                threadCounts.add(count);
+            }
+        }
+        final int maxThreads = threadCounts.stream().mapToInt(Integer::intValue).max().orElse(1);
+        final long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "10")));
+        final long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        for (final String weight : option("mix", "jwt:70,static:10,anonymous:10,bad:10").split(",")) {
+            final String[] parts = weight.split(":");
+            final int value = Integer.parseInt(parts[1].trim());
+            mix.put(RequestKind.valueOf(parts[0].trim().toUpperCase()), value);
+            totalWeight += value;
+        }
+        synLogger.setLevel(Level.parse(option("logLevel", "WARNING")));
+        // The JDK keeps only 5 idle connections per host by default, the rest would reconnect every request.
+        System.setProperty("http.maxConnections", String.valueOf(maxThreads));
+
+        final Path baseDir = Files.createTempDirectory("syn-loadtest");
+        final int port = freePort();
+        final Tomcat tomcat = startTomcat(baseDir, port);
+        try {
+            url = new URL("http://127.0.0.1:" + port + "/fcrepo/rest/resource");
+            System.out.println(String.format("Syn load test on %s, %d cores, %s, mix %s",
+                    url, cores, option("algorithm", "HS256"), mix));
+            drive(maxThreads, warmup, false);
+            System.out.println(String.format("%-10s %-8s %10s %12s %10s %10s %10s %8s",
+                    "threads", "kind", "requests", "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "errors"));
+            for (final int threads : threadCounts) {
+                drive(threads, duration, true);
+            }
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private Tomcat startTomcat(final Path baseDir, final int port) throws Exception {
+        final String site = "http://127.0.0.1:" + port;
+        final File settings = baseDir.resolve("syn-settings.xml").toFile();
+        Files.write(settings.toPath(), createSettings(site, baseDir).getBytes(StandardCharsets.UTF_8));
+
+        final Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.toString());
+        tomcat.setPort(port);
+        tomcat.getConnector().setAttribute("address", "127.0.0.1");
+
+        final Context context = tomcat.addContext("/fcrepo", baseDir.toString());
+        context.setRealm(new NullRealm());
+        Tomcat.addServlet(context, "resource", new ResourceServlet());
+        context.addServletMapping("/*", "resource");
+
+        final SecurityCollection collection = new SecurityCollection();
+        collection.addPattern("/*");
+        final SecurityConstraint constraint = new SecurityConstraint();
+        constraint.addCollection(collection);
+        constraint.setAuthConstraint(true);
+        constraint.addAuthRole("*");
+        context.addConstraint(constraint);
+        // "*" admits any declared role; these are the principal roles the valve assigns.
+        context.addSecurityRole("fedoraAdmin");
+        context.addSecurityRole("fedoraUser");
+
+        final SynValve valve = new SynValve();
+        valve.setPathname(settings.getAbsolutePath());
+        context.getPipeline().addValve(valve);
+
+        try {
+            tomcat.start();
+        } catch (final LifecycleException e) {
+            tomcat.destroy();
+            throw e;
+        }
+        return tomcat;
+    }
+
+    private String createSettings(final String site, final Path baseDir) throws Exception {
+        final int tokenCount = Integer.parseInt(option("tokens", "1000"));
+        final String anonymous = String.valueOf(mix.getOrDefault(RequestKind.ANONYMOUS, 0) > 0);
+        final Algorithm signing;
+        final Algorithm wrongKey;
+        final String siteElement;
+        if (option("algorithm", "HS256").equalsIgnoreCase("RS256")) {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            final KeyPair keyPair = generator.generateKeyPair();
+            final KeyPair otherPair = generator.generateKeyPair();
+            final Path keyFile = baseDir.resolve("public.pem");
+            Files.write(keyFile, ("-----BEGIN PUBLIC KEY-----\n"
+                    + Base64.getMimeEncoder().encodeToString(keyPair.getPublic().getEncoded())
+                    + "\n-----END PUBLIC KEY-----\n").getBytes(StandardCharsets.US_ASCII));
+            signing = Algorithm.RSA256((RSAPrivateKey) keyPair.getPrivate());
+            wrongKey = Algorithm.RSA256((RSAPrivateKey) otherPair.getPrivate());
+            siteElement = "<site url='" + site + "' algorithm='RS256' encoding='PEM' path='" + keyFile
+                    + "' anonymous='" + anonymous + "'/>";
+        } else {
+            signing = Algorithm.HMAC256(secret);
+            wrongKey = Algorithm.HMAC256(secret + "-wrong");
+            siteElement = "<site url='" + site + "' algorithm='HS256' encoding='plain' anonymous='"
+                    + anonymous + "'>" + secret + "</site>";
+        }
+
+        validTokens = new ArrayList<>(tokenCount);
+        badTokens = new ArrayList<>(tokenCount);
+        for (int i = 0; i < tokenCount; i++) {
+            validTokens.add(createToken(site, i, signing));
+            badTokens.add(createToken(site, i, wrongKey));
+        }
+
+        return String.join("\n"
+                , "<config version='1' header='" + roleHeader + "'>"
+                , "  " + siteElement
+                , "  <token user='loadtest' roles='fedoraAdmin'>" + staticToken + "</token>"
+                , "</config>"
+        );
+    }
+
+    private static String createToken(final String site, final int user, final Algorithm algorithm) {
+        return JWT.create()
+                .withArrayClaim("roles", new String[] { "fedoraAdmin", "administrator" })
+                .withClaim("webid", user)
+                .withClaim("sub", "user" + user)
+                .withClaim("iss", site)
+                .withIssuedAt(new Date())
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+                .sign(algorithm);
+    }
+
+    /**
+     * Run the request mix from a number of client threads for a fixed time.
+     */
+    private void drive(final int threads, final long nanos, final boolean report) throws InterruptedException {
+        final Client[] clients = new Client[threads];
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            final Client client = new Client();
+            clients[i] = client;
+            final Thread worker = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    client.run(System.nanoTime() + nanos);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "syn-loadtest-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final double seconds = (System.nanoTime() - begin) / 1e9;
+        if (!report) {
+            return;
+        }
+
+        final Latencies all = new Latencies();
+        final Map<RequestKind, Latencies> byKind = new LinkedHashMap<>();
+        for (final RequestKind kind : mix.keySet()) {
+            byKind.put(kind, new Latencies());
+        }
+        for (final Client client : clients) {
+            for (final Map.Entry<RequestKind, Latencies> entry : client.latencies.entrySet()) {
+                all.addAll(entry.getValue());
+                byKind.get(entry.getKey()).addAll(entry.getValue());
+            }
+        }
+        print(threads, "all", all, seconds);
+        for (final Map.Entry<RequestKind, Latencies> entry : byKind.entrySet()) {
+            print(threads, entry.getKey().name().toLowerCase(), entry.getValue(), seconds);
+        }
+    }
+
+    private static void print(final int threads, final String kind, final Latencies latencies, final double seconds) {
+        latencies.sort();
+        System.out.println(String.format("%-10d %-8s %10d %12.0f %10.3f %10.3f %10.3f %8d",
+                threads, kind, latencies.size(), latencies.size() / seconds,
+                latencies.percentile(0.5) / 1e6, latencies.percentile(0.99) / 1e6,
+                latencies.percentile(0.999) / 1e6, latencies.errors));
+    }
+
+    private RequestKind pick() {
+        int choice = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (final Map.Entry<RequestKind, Integer> entry : mix.entrySet()) {
+            choice -= entry.getValue();
+            if (choice < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty request mix");
+    }
+
+    /**
+     * One client thread, recording its own latencies so threads do not share state.
+     */
+    private final class Client {
+        private final Map<RequestKind, Latencies> latencies = new LinkedHashMap<>();
+
+        private Client() {
+            for (final RequestKind kind : mix.keySet()) {
+                latencies.put(kind, new Latencies());
+            }
+        }
+
+        private void run(final long deadline) {
+            final byte[] buffer = new byte[256];
+            while (System.nanoTime() < deadline) {
+                final RequestKind kind = pick();
+                final Latencies recorded = latencies.get(kind);
+                final String token = kind.token(LoadTest.this);
+                final long start = System.nanoTime();
+                try {
+                    final int status = send(kind.method, token, buffer);
+                    recorded.add(System.nanoTime() - start);
+                    if (status != kind.expectedStatus) {
+                        recorded.errors++;
+                    }
+                } catch (final IOException e) {
+                    recorded.add(System.nanoTime() - start);
+                    recorded.errors++;
+                }
+            }
+        }
+
+        private int send(final String method, final String token, final byte[] buffer) throws IOException {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(method);
+            if (token != null) {
+                connection.setRequestProperty("Authorization", "Bearer " + token);
+            }
+            if (method.equals("POST")) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(0);
+                connection.getOutputStream().close();
+            }
+            final int status = connection.getResponseCode();
+            // Read the body to the end so the connection goes back to the keep-alive pool.
+            try (final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    while (body.read(buffer) >= 0) {
+                        // Discard.
+                    }
+                }
+            }
+            return status;
+        }
+    }
+
+    /**
+     * The kinds of request in the mix.
+     */
+    private enum RequestKind {
+        JWT("POST", HttpServletResponse.SC_OK),
+        STATIC("POST", HttpServletResponse.SC_OK),
+        ANONYMOUS("GET", HttpServletResponse.SC_OK),
+        BAD("POST", HttpServletResponse.SC_UNAUTHORIZED);
+
+        private final String method;
+        private final int expectedStatus;
+
+        RequestKind(final String method, final int expectedStatus) {
+            this.method = method;
+            this.expectedStatus = expectedStatus;
+        }
+
+        private String token(final LoadTest test) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (this) {
+                case JWT:
+                    return test.validTokens.get(random.nextInt(test.validTokens.size()));
+                case STATIC:
+                    return staticToken;
+                case BAD:
+                    return test.badTokens.get(random.nextInt(test.badTokens.size()));
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * A growable array of latencies in nanoseconds.
+     */
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+        private int errors;
+
+        private void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void addAll(final Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+            errors += other.errors;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        /**
+         * Nearest-rank percentile of the sorted values.
+         */
+        private long percentile(final double fraction) {
+            if (size == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(fraction * size);
+            return values[Math.max(rank, 1) - 1];
+        }
+    }
+
+    /**
+     * The protected resource.
+     */
+    private static final class ResourceServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void service(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            response.setContentType("text/plain");
+            response.getWriter().write("ok");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ca.islandora.syn.settings;
+
+/**
+ * Requests a site lets through without a token, declared with an anonymous
+ * element.
+ *
+ * The path is either exact, like /favicon.ico, or a prefix ending in /*,
+ * like /fcrepo/rest/public/*, which matches the prefix itself and everything
+ * below it. The methods are a comma separated list, or * for any method.
+ */
+public class AnonymousRule {
+    private String path = "/*";
+    private String methods = "GET,HEAD";
+
+    public AnonymousRule() {
+    }
+
+    public AnonymousRule(final String path, final String methods) {
+        this.path = path;
+        this.methods = methods;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    public String getMethods() {
+        return this.methods;
+    }
+    public void setMethods(final String methods) {
+        this.methods = methods;
+    }
+}
@@ -7,6 +7,21 @@ public class Config {
     private int version = -1;
     private String header = "";
     private boolean disabled = false;
+    private int cacheSize = 1000;
+    private int cacheTtl = 300;
+    private int negativeCacheSize = 1000;
+    private int negativeCacheTtl = 30;
+    private int verifyWait = 5000;
+    private int maxTokenLength = 8192;
+    private int maxRoles = 100;
+    private int leeway = 0;
+    private int maxKeyAttempts = 2;
+    private int jwksRefresh = 300;
+    private int jwksMinRefresh = 30;
+    private boolean lazyKeys = false;
+    private int keyLoadThreads = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+    private String staticTokens = null;
+    private String cacheFile = null;
     private final List<Site> sites = new ArrayList<>();
     private final List<Token> tokens = new ArrayList<>();
 
@@ -46,4 +61,234 @@ public class Config {
     public boolean getDisabled() {
         return this.disabled;
     }
+
+    /**
+     * Maximum number of verified tokens to keep, zero disables the cache.
+     *
+     * @param cacheSize the number of tokens
+     */
+    public void setCacheSize(final int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * Maximum time in seconds to trust a verified token before checking it
+     * again, regardless of its expiry.
+     *
+     * @param cacheTtl the time in seconds
+     */
+    public void setCacheTtl(final int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public int getCacheTtl() {
+        return this.cacheTtl;
+    }
+
+    /**
+     * Maximum number of rejected tokens to remember, zero disables the cache.
+     *
+     * @param negativeCacheSize the number of tokens
+     */
+    public void setNegativeCacheSize(final int negativeCacheSize) {
+        this.negativeCacheSize = negativeCacheSize;
+    }
+
+    public int getNegativeCacheSize() {
+        return this.negativeCacheSize;
+    }
+
+    /**
+     * Time in seconds to keep rejecting a token without checking it again.
+     *
+     * @param negativeCacheTtl the time in seconds
+     */
+    public void setNegativeCacheTtl(final int negativeCacheTtl) {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    public int getNegativeCacheTtl() {
+        return this.negativeCacheTtl;
+    }
+
+    /**
+     * Maximum milliseconds a request waits for another request verifying the
+     * same token before verifying it itself; 0 verifies it in every request.
+     *
+     * @param verifyWait the time in milliseconds
+     */
+    public void setVerifyWait(final int verifyWait) {
+        this.verifyWait = verifyWait;
+    }
+
+    public int getVerifyWait() {
+        return this.verifyWait;
+    }
+
+    /**
+     * Maximum length in bytes of a bearer token; longer tokens are rejected unread.
+     *
+     * @param maxTokenLength the length in bytes
+     */
+    public void setMaxTokenLength(final int maxTokenLength) {
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    public int getMaxTokenLength() {
+        return this.maxTokenLength;
+    }
+
+    /**
+     * Maximum number of entries in a JWT roles claim.
+     *
+     * @param maxRoles the number of roles
+     */
+    public void setMaxRoles(final int maxRoles) {
+        this.maxRoles = maxRoles;
+    }
+
+    public int getMaxRoles() {
+        return this.maxRoles;
+    }
+
+    /**
+     * Seconds of clock skew to allow when checking a JWT's exp, iat and nbf claims.
+     *
+     * @param leeway the time in seconds
+     */
+    public void setLeeway(final int leeway) {
+        this.leeway = leeway;
+    }
+
+    public int getLeeway() {
+        return this.leeway;
+    }
+
+    /**
+     * Maximum number of a site's keys to try for a JWT without a known kid.
+     *
+     * @param maxKeyAttempts the number of keys
+     */
+    public void setMaxKeyAttempts(final int maxKeyAttempts) {
+        this.maxKeyAttempts = maxKeyAttempts;
+    }
+
+    public int getMaxKeyAttempts() {
+        return this.maxKeyAttempts;
+    }
+
+    /**
+     * Seconds between background refreshes of a site's JSON Web Key Set.
+     *
+     * @param jwksRefresh the time in seconds
+     */
+    public void setJwksRefresh(final int jwksRefresh) {
+        this.jwksRefresh = jwksRefresh;
+    }
+
+    public int getJwksRefresh() {
+        return this.jwksRefresh;
+    }
+
+    /**
+     * Minimum seconds between refreshes of a JSON Web Key Set prompted by
+     * tokens naming a key it does not have.
+     *
+     * @param jwksMinRefresh the time in seconds
+     */
+    public void setJwksMinRefresh(final int jwksMinRefresh) {
+        this.jwksMinRefresh = jwksMinRefresh;
+    }
+
+    public int getJwksMinRefresh() {
+        return this.jwksMinRefresh;
+    }
+
+    /**
+     * Number of threads to load site keys with; 1 loads them one by one.
+     *
+     * @param keyLoadThreads the number of threads
+     */
+    public void setKeyLoadThreads(final int keyLoadThreads) {
+        this.keyLoadThreads = keyLoadThreads;
+    }
+
+    public int getKeyLoadThreads() {
+        return this.keyLoadThreads;
+    }
+
+    /**
+     * Read and parse each site's keys when a token for the site first
+     * arrives, rather than when the settings are loaded.
+     *
+     * @param lazyKeys whether to load keys on first use
+     */
+    public void setLazyKeys(final boolean lazyKeys) {
+        this.lazyKeys = lazyKeys;
+    }
+
+    public boolean getLazyKeys() {
+        return this.lazyKeys;
+    }
+
+    /**
+     * Path to a static token file, written by
+     * {@link ca.islandora.syn.token.StaticTokenStore}, holding tokens in
+     * addition to the token elements.
+     *
+     * @param staticTokens the path, relative paths being under catalina.base
+     */
+    public void setStaticTokens(final String staticTokens) {
+        this.staticTokens = staticTokens;
+    }
+
+    public String getStaticTokens() {
+        return this.staticTokens;
+    }
+
+    /**
+     * Path to save the verified token cache to when Tomcat stops, and load it
+     * from when it starts.
+     *
+     * @param cacheFile the path, relative paths being under catalina.base
+     */
+    public void setCacheFile(final String cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public String getCacheFile() {
+        return this.cacheFile;
+    }
+
+    /**
+     * Copy every setting but the sites and tokens.
+     *
+     * @return a config with the same settings and no sites or tokens
+     */
+    Config copySettings() {
+        final Config copy = new Config();
+        copy.version = version;
+        copy.header = header;
+        copy.disabled = disabled;
+        copy.cacheSize = cacheSize;
+        copy.cacheTtl = cacheTtl;
+        copy.negativeCacheSize = negativeCacheSize;
+        copy.negativeCacheTtl = negativeCacheTtl;
+        copy.verifyWait = verifyWait;
+        copy.maxTokenLength = maxTokenLength;
+        copy.maxRoles = maxRoles;
+        copy.leeway = leeway;
+        copy.maxKeyAttempts = maxKeyAttempts;
+        copy.jwksRefresh = jwksRefresh;
+        copy.jwksMinRefresh = jwksMinRefresh;
+        copy.lazyKeys = lazyKeys;
+        copy.keyLoadThreads = keyLoadThreads;
+        copy.staticTokens = staticTokens;
+        copy.cacheFile = cacheFile;
+        return copy;
+    }
 }
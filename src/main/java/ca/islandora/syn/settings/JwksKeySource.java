@@ -0,0 +1,238 @@
+package ca.islandora.syn.settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.islandora.syn.token.CryptoContext;
+import ca.islandora.syn.token.KeySet;
+import ca.islandora.syn.token.KeySource;
+
+/**
+ * A site's keys taken from a JSON Web Key Set, read from a URL or a file.
+ *
+ * The set is read once when the source is created and then again in the
+ * background every refresh interval, so request threads only ever read the
+ * keys already loaded. If a read fails the previous keys are kept. A token
+ * naming a key that is not in the set asks for an early background refresh,
+ * at most one per minimum refresh interval however many such tokens arrive.
+ */
+final class JwksKeySource implements KeySource {
+
+    private static final Log log = LogFactory.getLog(JwksKeySource.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int timeoutMillis = 5000;
+    private static final int maxBytes = 1024 * 1024;
+
+    private final String location;
+    private final String algorithm;
+    private final int maxKeyAttempts;
+    private final long minRefreshNanos;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong lastRefresh = new AtomicLong();
+    private final ScheduledFuture<?> schedule;
+    private volatile KeySet keys = new KeySet(Collections.emptyMap(), Collections.emptyList());
+    // Digest of the last set read, so an unchanged set keeps its parsed keys; only used by refresh.
+    private byte[] digest = null;
+
+    /**
+     * Read the key set and schedule its refreshes.
+     *
+     * @param location
+     *        URL or absolute path of the key set
+     * @param algorithm
+     *        the site's algorithm; keys for other algorithms are ignored
+     * @param maxKeyAttempts
+     *        number of keys to try for a token without a known kid
+     * @param refreshSeconds
+     *        seconds between background refreshes
+     * @param minRefreshSeconds
+     *        minimum seconds between refreshes asked for by unknown key ids
+     * @param executor
+     *        runs the refreshes
+     */
+    JwksKeySource(final String location, final String algorithm, final int maxKeyAttempts,
+            final long refreshSeconds, final long minRefreshSeconds, final ScheduledExecutorService executor) {
+        this.location = location;
+        this.algorithm = algorithm.toUpperCase();
+        this.maxKeyAttempts = Math.max(1, maxKeyAttempts);
+        this.minRefreshNanos = TimeUnit.SECONDS.toNanos(minRefreshSeconds);
+        this.executor = executor;
+        refresh();
+        final long period = Math.max(1, refreshSeconds);
+        this.schedule = executor.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public KeySet getKeys() {
+        return keys;
+    }
+
+    @Override
+    public boolean keyNotFound(final String keyId) {
+        final long now = System.nanoTime();
+        final long last = lastRefresh.get();
+        if (now - last >= minRefreshNanos && lastRefresh.compareAndSet(last, now)) {
+            log.debug("Key " + keyId + " not in " + location + ", refreshing.");
+            try {
+                executor.execute(this::refresh);
+            } catch (final RejectedExecutionException e) {
+                log.debug("Key set refresh not scheduled, the valve is stopping.");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isRefreshed() {
+        return true;
+    }
+
+    /**
+     * Stop refreshing the key set.
+     */
+    void close() {
+        schedule.cancel(false);
+    }
+
+    /**
+     * Read the key set and, if it changed, replace the keys.
+     */
+    synchronized void refresh() {
+        lastRefresh.set(System.nanoTime());
+        try {
+            final byte[] body = read();
+            final byte[] bodyDigest = MessageDigest.getInstance("SHA-256").digest(body);
+            if (Arrays.equals(bodyDigest, digest)) {
+                return;
+            }
+            keys = parse(body);
+            digest = bodyDigest;
+            log.info("Loaded JSON Web Key Set from " + location + ".");
+        } catch (final IOException e) {
+            log.error("Unable to load JSON Web Key Set from " + location + ", keeping the current keys.", e);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] read() throws IOException {
+        try (final InputStream stream = open()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                if (out.size() > maxBytes) {
+                    throw new IOException("Key set is larger than " + maxBytes + " bytes.");
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private InputStream open() throws IOException {
+        if (!location.contains("://")) {
+            return new FileInputStream(new File(location));
+        }
+        final URLConnection connection = new URL(location).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        return connection.getInputStream();
+    }
+
+    private KeySet parse(final byte[] body) throws IOException {
+        final JsonNode set = mapper.readTree(body);
+        final JsonNode list = set == null ? null : set.get("keys");
+        if (list == null || !list.isArray()) {
+            throw new IOException("Key set has no keys array.");
+        }
+        final Map<String, CryptoContext> keysById = new HashMap<>();
+        final List<CryptoContext> fallbackKeys = new ArrayList<>();
+        for (final JsonNode jwk : list) {
+            final CryptoContext context = getCryptoContext(jwk);
+            if (context == null) {
+                continue;
+            }
+            final String kid = getText(jwk, "kid");
+            if (kid != null) {
+                keysById.putIfAbsent(kid, context);
+            }
+            if (fallbackKeys.size() < maxKeyAttempts) {
+                fallbackKeys.add(context);
+            }
+        }
+        return new KeySet(keysById, fallbackKeys);
+    }
+
+    /**
+     * Build the crypto context for a key, or return null if it is not a
+     * signing key for the site's algorithm.
+     */
+    private CryptoContext getCryptoContext(final JsonNode jwk) {
+        final String use = getText(jwk, "use");
+        final String alg = getText(jwk, "alg");
+        if ((use != null && !use.equals("sig")) || (alg != null && !alg.equalsIgnoreCase(algorithm))) {
+            return null;
+        }
+        final String kty = getText(jwk, "kty");
+        try {
+            if ("RSA".equals(kty) && algorithm.startsWith("RS")) {
+                final RSAPublicKeySpec spec = new RSAPublicKeySpec(getNumber(jwk, "n"), getNumber(jwk, "e"));
+                return CryptoContext.rsa(algorithm,
+                    (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(spec));
+            } else if ("oct".equals(kty) && algorithm.startsWith("HS")) {
+                return CryptoContext.hmac(algorithm, getBytes(jwk, "k"));
+            }
+        } catch (final GeneralSecurityException | IllegalArgumentException e) {
+            log.error("Unable to load key " + getText(jwk, "kid") + " from " + location + ". Key ignored.", e);
+        }
+        return null;
+    }
+
+    private static String getText(final JsonNode jwk, final String name) {
+        final JsonNode value = jwk.get(name);
+        return value == null || !value.isTextual() ? null : value.asText();
+    }
+
+    private static byte[] getBytes(final JsonNode jwk, final String name) {
+        final String value = getText(jwk, name);
+        if (value == null) {
+            throw new IllegalArgumentException("Key has no " + name + " member.");
+        }
+        return Base64.getUrlDecoder().decode(value);
+    }
+
+    private static BigInteger getNumber(final JsonNode jwk, final String name) {
+        return new BigInteger(1, getBytes(jwk, name));
+    }
+}
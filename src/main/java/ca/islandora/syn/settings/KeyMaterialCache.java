@@ -0,0 +1,145 @@
+package ca.islandora.syn.settings;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import ca.islandora.syn.token.CryptoContext;
+import ca.islandora.syn.token.SiteVerifier;
+
+/**
+ * Parsed site keys and the verifiers built from them, kept from one load of
+ * the settings to the next.
+ *
+ * Keys are found by a fingerprint of their algorithm, encoding and key bytes,
+ * so a reload only parses keys that changed. A site whose key, url and leeway
+ * are unchanged gets the same {@link SiteVerifier} instance back, which lets
+ * the valve keep tokens it verified with it.
+ *
+ * JSON Web Key Sets are refreshed on a background thread owned by the cache,
+ * which is started when the first key set is loaded and ends on {@link #close()}.
+ */
+public final class KeyMaterialCache {
+
+    private final Map<String, CryptoContext> contexts = new ConcurrentHashMap<>();
+    private final Map<String, SiteVerifier> verifiers = new ConcurrentHashMap<>();
+    private final Map<String, JwksKeySource> keySources = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor = null;
+    // Fingerprints used by the latest load, dropped from the maps only once that load is published.
+    private Set<String> usedContexts = null;
+    private Set<String> usedVerifiers = null;
+
+    /**
+     * Get a parsed key, parsing it if it is not cached.
+     *
+     * @param fingerprint
+     *        fingerprint of the key
+     * @param loader
+     *        parses the key, returning null if it can not be used
+     * @return the key, or null
+     */
+    CryptoContext getContext(final String fingerprint, final Supplier<CryptoContext> loader) {
+        return contexts.computeIfAbsent(fingerprint, f -> loader.get());
+    }
+
+    /**
+     * Get a site verifier, building it if it is not cached.
+     *
+     * @param fingerprint
+     *        fingerprint of the site url, leeway and key
+     * @param loader
+     *        builds the verifier
+     * @return the verifier
+     */
+    SiteVerifier getVerifier(final String fingerprint, final Supplier<SiteVerifier> loader) {
+        return verifiers.computeIfAbsent(fingerprint, f -> loader.get());
+    }
+
+    /**
+     * Get a site's JSON Web Key Set, loading it if it is not cached.
+     *
+     * @param fingerprint
+     *        fingerprint of the site url, leeway and key set settings
+     * @param loader
+     *        loads the key set, refreshing it with the given executor
+     * @return the key set
+     */
+    JwksKeySource getKeySource(final String fingerprint,
+            final Function<ScheduledExecutorService, JwksKeySource> loader) {
+        return keySources.computeIfAbsent(fingerprint, f -> loader.apply(getExecutor()));
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "SynValve-jwks-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Record what a load of the settings used, to be kept by {@link #retainLatest()}.
+     *
+     * @param contextFingerprints
+     *        keys the load used
+     * @param verifierFingerprints
+     *        verifiers the load used
+     */
+    synchronized void used(final Set<String> contextFingerprints, final Set<String> verifierFingerprints) {
+        usedContexts = contextFingerprints;
+        usedVerifiers = verifierFingerprints;
+    }
+
+    /**
+     * Drop everything not used by the latest load, and stop refreshing the key
+     * sets it no longer uses. Call this once the settings from that load are in
+     * use: a load that fails part way leaves the current settings' keys alone.
+     */
+    public synchronized void retainLatest() {
+        if (usedContexts == null) {
+            return;
+        }
+        final Set<String> verifierFingerprints = usedVerifiers;
+        contexts.keySet().retainAll(usedContexts);
+        verifiers.keySet().retainAll(verifierFingerprints);
+        keySources.entrySet().removeIf(e -> {
+            if (verifierFingerprints.contains(e.getKey())) {
+                return false;
+            }
+            e.getValue().close();
+            return true;
+        });
+        usedContexts = null;
+        usedVerifiers = null;
+    }
+
+    /**
+     * Drop everything and stop refreshing key sets.
+     */
+    public synchronized void close() {
+        keySources.values().forEach(JwksKeySource::close);
+        keySources.clear();
+        verifiers.clear();
+        contexts.clear();
+        usedContexts = null;
+        usedVerifiers = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the number of parsed keys held
+     */
+    int size() {
+        return contexts.size();
+    }
+}
@@ -0,0 +1,54 @@
+package ca.islandora.syn.settings;
+
+import java.util.function.Supplier;
+
+import ca.islandora.syn.token.KeySet;
+import ca.islandora.syn.token.KeySource;
+
+/**
+ * A site's keys, read and parsed the first time a token for the site arrives.
+ *
+ * The first caller loads the keys while holding the source's lock, so they
+ * are loaded once however many requests arrive together; every later caller
+ * only reads a volatile field. Keys that fail to load are remembered as an
+ * empty set rather than tried again on every request.
+ */
+final class LazyKeySource implements KeySource {
+
+    private final Supplier<KeySet> loader;
+    private volatile KeySet keys = null;
+
+    /**
+     * @param loader
+     *        reads and parses the site's keys, called at most once
+     */
+    LazyKeySource(final Supplier<KeySet> loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public KeySet getKeys() {
+        final KeySet loaded = keys;
+        if (loaded != null) {
+            return loaded;
+        }
+        synchronized (this) {
+            if (keys == null) {
+                keys = loader.get();
+            }
+            return keys;
+        }
+    }
+
+    @Override
+    public boolean keyNotFound(final String keyId) {
+        return false;
+    }
+
+    /**
+     * @return whether the keys have been loaded yet
+     */
+    boolean isLoaded() {
+        return keys != null;
+    }
+}
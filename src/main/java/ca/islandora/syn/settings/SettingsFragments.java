@@ -0,0 +1,204 @@
+package ca.islandora.syn.settings;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * The settings file and a directory of settings fragments, merged into one
+ * configuration, kept from one load to the next.
+ *
+ * A fragment is a settings file of its own, so that each site can be
+ * provisioned with one file. Only its sites and tokens are used: the main
+ * settings file's attributes apply to all of them. Fragments are the *.xml
+ * files in the directory, merged in file name order after the main file, and
+ * the first definition of a site url, of the default site, or of a token wins;
+ * later ones are logged and ignored.
+ *
+ * Fragments are parsed concurrently, on up to the main file's keyLoadThreads,
+ * and a parsed file is kept until its content changes, so a reload only parses
+ * the files that changed.
+ */
+public final class SettingsFragments {
+
+    private static final Log log = LogFactory.getLog(SettingsFragments.class);
+
+    private final Map<File, ParsedFile> parsed = new ConcurrentHashMap<>();
+
+    private static final class ParsedFile {
+        private final String digest;
+        private final Config config;
+
+        private ParsedFile(final String digest, final Config config) {
+            this.digest = digest;
+            this.config = config;
+        }
+    }
+
+    /**
+     * Load the settings file and the fragments in a directory.
+     *
+     * @param settings
+     *        the settings file
+     * @param directory
+     *        the fragments directory, or null; a missing directory has no fragments
+     * @return the merged config
+     * @throws IOException if a file can not be read or parsed
+     */
+    public Config load(final File settings, final File directory) throws IOException {
+        final Config main = parse(settings);
+        final List<File> fragments = listFragments(directory);
+        final List<Config> parsedFragments = parseEach(fragments, main.getKeyLoadThreads());
+
+        final List<File> files = new ArrayList<>(fragments);
+        files.add(settings);
+        parsed.keySet().retainAll(files);
+
+        final Config merged = main.copySettings();
+        final Map<String, File> siteSources = new HashMap<>();
+        final Map<String, File> tokenSources = new HashMap<>();
+        addAll(merged, main, settings, siteSources, tokenSources);
+        for (int i = 0; i < fragments.size(); i++) {
+            addAll(merged, parsedFragments.get(i), fragments.get(i), siteSources, tokenSources);
+        }
+        return merged;
+    }
+
+    /**
+     * List the fragments in a directory, in file name order.
+     *
+     * @param directory
+     *        the fragments directory, or null
+     * @return the fragment files
+     */
+    public static List<File> listFragments(final File directory) {
+        final File[] fragments = directory == null ? null
+            : directory.listFiles(f -> f.isFile() && f.getName().endsWith(".xml"));
+        if (fragments == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(fragments, (a, b) -> a.getName().compareTo(b.getName()));
+        return Arrays.asList(fragments);
+    }
+
+    private List<Config> parseEach(final List<File> fragments, final int keyLoadThreads) throws IOException {
+        final int threads = Math.min(keyLoadThreads, fragments.size());
+        if (threads <= 1) {
+            final List<Config> configs = new ArrayList<>(fragments.size());
+            for (final File fragment : fragments) {
+                configs.add(parse(fragment));
+            }
+            return configs;
+        }
+
+        final List<Callable<Config>> tasks = fragments.stream()
+            .map(fragment -> (Callable<Config>) () -> parse(fragment))
+            .collect(Collectors.toList());
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final List<Config> configs = new ArrayList<>(tasks.size());
+            for (final Future<Config> future : pool.invokeAll(tasks)) {
+                configs.add(future.get());
+            }
+            return configs;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing settings fragments.", e);
+        } catch (final ExecutionException e) {
+            // The pool wraps checked exceptions, possibly more than once.
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parse a settings file, or return it as last parsed if its content is unchanged.
+     */
+    private Config parse(final File file) throws IOException {
+        if (!file.isFile() || !file.canRead()) {
+            throw new IOException("Unable to load XML Configuration from Path: " + file);
+        }
+        final byte[] content = Files.readAllBytes(file.toPath());
+        final String digest = digest(content);
+        final ParsedFile previous = parsed.get(file);
+        if (previous != null && previous.digest.equals(digest)) {
+            return previous.config;
+        }
+        final Config config = SettingsParser.getSites(new ByteArrayInputStream(content));
+        if (config == null) {
+            throw new IOException("Error parsing XML Configuration from Path: " + file);
+        }
+        parsed.put(file, new ParsedFile(digest, config));
+        return config;
+    }
+
+    private static void addAll(final Config merged, final Config config, final File source,
+            final Map<String, File> siteSources, final Map<String, File> tokenSources) {
+        for (final Site site : config.getSites()) {
+            final String name = site.getDefault() ? "default site" : site.getUrl();
+            // Sites without a url are invalid, and reported when their keys are loaded.
+            if (name == null || name.isEmpty()) {
+                merged.addSite(site);
+                continue;
+            }
+            final File first = siteSources.putIfAbsent(name, source);
+            if (first == null) {
+                merged.addSite(site);
+            } else {
+                log.error("Site " + name + " in " + source + " is already defined in " + first + ". Site ignored.");
+            }
+        }
+        for (final Token token : config.getTokens()) {
+            final File first = token.getToken().isEmpty() ? null : tokenSources.putIfAbsent(token.getToken(), source);
+            if (first == null) {
+                merged.addToken(token);
+            } else {
+                log.error("Token for " + token.getUser() + " in " + source + " is already defined in " + first
+                    + ". Token ignored.");
+            }
+        }
+    }
+
+    private static String digest(final byte[] content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of parsed files held
+     */
+    int size() {
+        return parsed.size();
+    }
+}
@@ -1,56 +1,101 @@
 package ca.islandora.syn.settings;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Reader;
-import java.io.StringReader;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
-import org.apache.tomcat.util.digester.Digester;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemReader;
-import org.xml.sax.SAXException;
 
 import com.auth0.jwt.algorithms.Algorithm;
 
+import ca.islandora.syn.token.CryptoContext;
+import ca.islandora.syn.token.KeySet;
+import ca.islandora.syn.token.SiteVerifier;
+
 public final class SettingsParser {
-    private static Digester digester = null;
     private static Log log = LogFactory.getLog(Site.class);
     private enum AlgorithmType {INVALID, RSA, HMAC}
 
-    private SettingsParser() { }
+    @FunctionalInterface
+    private interface SiteLoader<T> {
+        T load(Site site, List<SiteKey> keys, AlgorithmType algorithmType, SiteLog siteLog);
+    }
+
+    /**
+     * Errors found while loading one site, held back until the sites before
+     * it have logged theirs.
+     */
+    private static final class SiteLog {
+        private final List<String> messages = new ArrayList<>();
+        private final List<Throwable> causes = new ArrayList<>();
+
+        void error(final String message) {
+            error(message, null);
+        }
 
-    private static Digester getDigester() {
-        if (digester == null) {
-            digester = new Digester();
-            digester.setValidating(false);
-            digester.addObjectCreate("config", "ca.islandora.syn.settings.Config");
-            digester.addSetProperties("config");
-            digester.addObjectCreate("config/site", "ca.islandora.syn.settings.Site");
-            digester.addSetProperties("config/site");
-            digester.addCallMethod("config/site", "setKey", 0);
-            digester.addSetNext("config/site", "addSite", "ca.islandora.syn.settings.Site");
-            digester.addObjectCreate("config/token", "ca.islandora.syn.settings.Token");
-            digester.addSetProperties("config/token");
-            digester.addCallMethod("config/token", "setToken", 0);
-            digester.addSetNext("config/token", "addToken", "ca.islandora.syn.settings.Token");
-        }
-        return digester;
+        void error(final String message, final Throwable cause) {
+            messages.add(message);
+            causes.add(cause);
+        }
+
+        void flush() {
+            for (int i = 0; i < messages.size(); i++) {
+                if (causes.get(i) == null) {
+                    log.error(messages.get(i));
+                } else {
+                    log.error(messages.get(i), causes.get(i));
+                }
+            }
+        }
     }
 
+    /**
+     * A site after validation and loading its keys.
+     */
+    private static final class LoadedSite<T> {
+        private final Site site;
+        private final SiteLog siteLog;
+        private final boolean valid;
+        private final T value;
+
+        LoadedSite(final Site site, final SiteLog siteLog, final boolean valid, final T value) {
+            this.site = site;
+            this.siteLog = siteLog;
+            this.valid = valid;
+            this.value = value;
+        }
+    }
+
+    private SettingsParser() { }
 
     private static AlgorithmType getSiteAlgorithmType(final String algorithm) {
         if (algorithm.equalsIgnoreCase("RS256")) {
@@ -72,52 +117,113 @@ public final class SettingsParser {
         }
     }
 
-    private static boolean validateExpandPath(final Site site) {
-        File file = new File(site.getPath());
+    private static boolean validateExpandPath(final SiteKey key, final SiteLog siteLog) {
+        File file = new File(key.getPath());
         if (!file.isAbsolute()) {
-            file = new File(System.getProperty("catalina.base"), site.getPath());
+            file = new File(System.getProperty("catalina.base"), key.getPath());
         }
         if (!file.exists() || !file.canRead()) {
-            log.error("Path does not exist:" + site.getPath() + ". Site ignored.");
+            siteLog.error("Path does not exist:" + key.getPath() + ". Site ignored.");
             return false;
         }
-        site.setPath(file.getAbsolutePath());
+        key.setPath(file.getAbsolutePath());
         return true;
     }
 
-    private static Algorithm getRsaAlgorithm(final Site site) {
-        Reader publicKeyReader = null;
-        RSAPublicKey publicKey = null;
+    /**
+     * Check that each key has one of a path or an inline key, expanding paths,
+     * and that key ids are unique.
+     */
+    private static boolean validateKeys(final List<SiteKey> keys, final SiteLog siteLog) {
+        final Set<String> kids = new HashSet<>();
+        for (final SiteKey key : keys) {
+            final boolean pathDefined = key.getPath() != null && !key.getPath().equalsIgnoreCase("");
+            final boolean keyDefined = key.getKey() != null && !key.getKey().equalsIgnoreCase("");
 
-        if (!site.getKey().equalsIgnoreCase("")) {
-            publicKeyReader = new StringReader(site.getKey());
-        } else if (site.getPath() != null) {
-            try {
-                publicKeyReader = new FileReader(site.getPath());
-            } catch (final FileNotFoundException e) {
-                log.error("Private key file not found.");
+            // Check that we don't have both a key and a path defined
+            if (pathDefined == keyDefined) {
+                siteLog.error("Only one of path or key must be defined.");
+                return false;
+            }
+
+            if (pathDefined && !validateExpandPath(key, siteLog)) {
+                return false;
+            }
+
+            if (key.getKid() != null && !kids.add(key.getKid())) {
+                siteLog.error("Duplicate key id " + key.getKid() + ". Site ignored.");
+                return false;
             }
         }
+        return true;
+    }
 
-        if (publicKeyReader == null) {
-            return null;
+    /**
+     * Get a site's keys: those in its key elements, or else the one given by
+     * the site's own key or path.
+     */
+    private static List<SiteKey> getSiteKeys(final Site site) {
+        if (isJwksSite(site)) {
+            return Collections.emptyList();
+        }
+        if (!site.getKeys().isEmpty()) {
+            return site.getKeys();
         }
+        final SiteKey key = new SiteKey();
+        key.setKey(site.getKey());
+        key.setPath(site.getPath());
+        return Collections.singletonList(key);
+    }
+
+    private static boolean isJwksSite(final Site site) {
+        return site.getJwks() != null && !site.getJwks().equalsIgnoreCase("");
+    }
 
-        if (site.getEncoding().equalsIgnoreCase("pem")) {
+    /**
+     * Resolve a key set location: URLs are used as they are, relative paths
+     * are under catalina.base.
+     */
+    private static String getJwksLocation(final Site site) {
+        if (site.getJwks().contains("://")) {
+            return site.getJwks();
+        }
+        final File file = new File(site.getJwks());
+        return file.isAbsolute() ? file.getPath() : new File(System.getProperty("catalina.base"), site.getJwks())
+            .getAbsolutePath();
+    }
+
+    private static byte[] getKeyBytes(final SiteKey siteKey, final SiteLog siteLog) {
+        if (siteKey.getKey() != null && !siteKey.getKey().equalsIgnoreCase("")) {
+            return siteKey.getKey().trim().getBytes();
+        } else if (siteKey.getPath() != null) {
             try {
-                final PemReader pemReader = new PemReader(publicKeyReader);
-                final KeyFactory factory = KeyFactory.getInstance("RSA");
-                final PemObject pemObject = pemReader.readPemObject();
-                final X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(pemObject.getContent());
-                publicKey = (RSAPublicKey) factory.generatePublic(pubKeySpec);
-                pemReader.close();
-                publicKeyReader.close();
-            } catch (final Exception e) {
-                log.error("Error loading public key.");
-                return null;
+                return Files.readAllBytes(Paths.get(siteKey.getPath()));
+            } catch (final IOException e) {
+                siteLog.error("Unable to read key from file.", e);
             }
         }
+        return null;
+    }
+
+    private static RSAPublicKey getRsaPublicKey(final Site site, final byte[] key, final SiteLog siteLog) {
+        if (!site.getEncoding().equalsIgnoreCase("pem")) {
+            return null;
+        }
+
+        try (final PemReader pemReader = new PemReader(new InputStreamReader(new ByteArrayInputStream(key)))) {
+            final KeyFactory factory = KeyFactory.getInstance("RSA");
+            final PemObject pemObject = pemReader.readPemObject();
+            final X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(pemObject.getContent());
+            return (RSAPublicKey) factory.generatePublic(pubKeySpec);
+        } catch (final Exception e) {
+            siteLog.error("Error loading public key.");
+            return null;
+        }
+    }
 
+    private static Algorithm getRsaAlgorithm(final Site site, final SiteKey siteKey, final SiteLog siteLog) {
+        final byte[] key = getKeyBytes(siteKey, siteLog);
+        final RSAPublicKey publicKey = key == null ? null : getRsaPublicKey(site, key, siteLog);
         if (publicKey == null) {
             return null;
         }
@@ -133,36 +239,27 @@ public final class SettingsParser {
         }
     }
 
-    private static Algorithm getHmacAlgorithm(final Site site) {
-        final byte[] secret;
-        byte[] secretRaw = null;
-
-        if (!site.getKey().equalsIgnoreCase("")) {
-            secretRaw = site.getKey().trim().getBytes();
-        } else if (site.getPath() != null) {
-            try {
-                secretRaw = Files.readAllBytes(Paths.get(site.getPath()));
-            } catch (final IOException e) {
-                log.error("Unable to get secret from file.", e);
-            }
-        }
-
-        if (secretRaw == null) {
-            return null;
-        }
-
+    private static byte[] getHmacSecret(final Site site, final byte[] key, final SiteLog siteLog) {
         if (site.getEncoding().equalsIgnoreCase("base64")) {
             try {
-                secret = Base64.getDecoder().decode(secretRaw);
+                return Base64.getDecoder().decode(key);
             } catch (final Exception e) {
-                log.error("Base64 decode error. Skipping site.", e);
+                siteLog.error("Base64 decode error. Skipping site.", e);
                 return null;
             }
         } else if (site.getEncoding().equalsIgnoreCase("plain")) {
-            secret = secretRaw;
+            return key;
         } else {
             return null;
         }
+    }
+
+    private static Algorithm getHmacAlgorithm(final Site site, final SiteKey siteKey, final SiteLog siteLog) {
+        final byte[] key = getKeyBytes(siteKey, siteLog);
+        final byte[] secret = key == null ? null : getHmacSecret(site, key, siteLog);
+        if (secret == null) {
+            return null;
+        }
 
         if (site.getAlgorithm().equalsIgnoreCase("HS256")) {
             return Algorithm.HMAC256(secret);
@@ -175,6 +272,35 @@ public final class SettingsParser {
         }
     }
 
+    private static CryptoContext getCryptoContext(final Site site, final AlgorithmType algorithmType,
+            final byte[] key, final SiteLog siteLog) {
+        try {
+            if (algorithmType == AlgorithmType.HMAC) {
+                final byte[] secret = getHmacSecret(site, key, siteLog);
+                return secret == null ? null : CryptoContext.hmac(site.getAlgorithm(), secret);
+            } else {
+                final RSAPublicKey publicKey = getRsaPublicKey(site, key, siteLog);
+                return publicKey == null ? null : CryptoContext.rsa(site.getAlgorithm(), publicKey);
+            }
+        } catch (final GeneralSecurityException | IllegalArgumentException e) {
+            siteLog.error("Unable to initialise key for site " + site.getUrl() + ". Site ignored.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Fingerprint a site key by everything that goes into parsing it.
+     */
+    private static String getKeyFingerprint(final Site site, final AlgorithmType algorithmType, final byte[] key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(key);
+            return algorithmType + ":" + site.getAlgorithm().toUpperCase() + ":" + site.getEncoding().toLowerCase()
+                + ":" + Base64.getEncoder().encodeToString(digest);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Parse a configuration file and return a Config object
      *
@@ -208,63 +334,271 @@ public final class SettingsParser {
      * @return map of site url (or null for default) and algorithm
      */
     public static Map<String, Algorithm> getSiteAlgorithms(final Config sites) {
-        final Map<String, Algorithm> algorithms = new HashMap<>();
-        if (sites == null) {
-            return algorithms;
-        }
-
-        boolean defaultSet = false;
+        // One algorithm per site, so only a site's first key is used; sites
+        // using a key set have no fixed key and are left out.
+        return loadSites(sites, (site, keys, algorithmType, siteLog) -> {
+            if (keys.isEmpty()) {
+                return null;
+            }
+            return algorithmType == AlgorithmType.HMAC ?
+                getHmacAlgorithm(site, keys.get(0), siteLog) : getRsaAlgorithm(site, keys.get(0), siteLog);
+        });
+    }
 
-        for (final Site site : sites.getSites()) {
-            final boolean pathDefined = site.getPath() != null && !site.getPath().equalsIgnoreCase("");
-            final boolean keyDefined = site.getKey() != null && !site.getKey().equalsIgnoreCase("");
+    /**
+     * Get precompiled verifiers for sites
+     *
+     * @param sites
+     *        configuration with sites
+     * @return map of site url (or null for default) and verifier
+     */
+    public static Map<String, SiteVerifier> getSiteVerifiers(final Config sites) {
+        return getSiteVerifiers(sites, new KeyMaterialCache());
+    }
 
-            // Check that we don't have both a key and a path defined
-            if (pathDefined == keyDefined) {
-                log.error("Only one of path or key must be defined.");
-                continue;
+    /**
+     * Get precompiled verifiers for sites, reusing keys and verifiers from an
+     * earlier load that have not changed
+     *
+     * @param sites
+     *        configuration with sites
+     * @param keys
+     *        keys and verifiers from the previous load, which keeps the ones this
+     *        load does not use until {@link KeyMaterialCache#retainLatest()}
+     * @return map of site url (or null for default) and verifier
+     */
+    public static Map<String, SiteVerifier> getSiteVerifiers(final Config sites, final KeyMaterialCache keys) {
+        final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+        final Set<String> usedVerifiers = ConcurrentHashMap.newKeySet();
+        final Map<String, SiteVerifier> verifiers = loadSites(sites, (site, siteKeys, algorithmType, siteLog) -> {
+            final String issuer = site.getDefault() ? null : site.getUrl();
+            if (isJwksSite(site)) {
+                final String location = getJwksLocation(site);
+                final String fingerprint = "jwks\n" + issuer + '\n' + location + '\n'
+                    + site.getAlgorithm().toUpperCase() + '\n' + sites.getLeeway() + '\n' + sites.getMaxKeyAttempts()
+                    + '\n' + sites.getJwksRefresh() + '\n' + sites.getJwksMinRefresh();
+                usedVerifiers.add(fingerprint);
+                final JwksKeySource source = keys.getKeySource(fingerprint, executor -> new JwksKeySource(location,
+                    site.getAlgorithm(), sites.getMaxKeyAttempts(), sites.getJwksRefresh(),
+                    sites.getJwksMinRefresh(), executor));
+                return keys.getVerifier(fingerprint,
+                    () -> new SiteVerifier(issuer, site.getAlgorithm(), source, sites.getLeeway()));
             }
-
-            if (site.getPath() != null) {
-                if (!validateExpandPath(site)) {
+            if (sites.getLazyKeys()) {
+                final String fingerprint = getLazyFingerprint(site, siteKeys, issuer, sites);
+                usedVerifiers.add(fingerprint);
+                return keys.getVerifier(fingerprint, () -> new SiteVerifier(issuer, site.getAlgorithm(),
+                    new LazyKeySource(() -> loadKeySet(site, siteKeys, algorithmType, sites.getMaxKeyAttempts())),
+                    sites.getLeeway()));
+            }
+            final Map<String, CryptoContext> keysById = new HashMap<>();
+            final List<CryptoContext> fallbackKeys = new ArrayList<>();
+            final StringBuilder verifierFingerprint = new StringBuilder()
+                .append(issuer).append('\n').append(sites.getLeeway()).append('\n').append(sites.getMaxKeyAttempts());
+            for (final SiteKey siteKey : siteKeys) {
+                final byte[] key = getKeyBytes(siteKey, siteLog);
+                if (key == null) {
                     continue;
                 }
+                final String keyFingerprint = getKeyFingerprint(site, algorithmType, key);
+                usedKeys.add(keyFingerprint);
+                final CryptoContext context = keys.getContext(keyFingerprint,
+                    () -> getCryptoContext(site, algorithmType, key, siteLog));
+                if (context == null) {
+                    continue;
+                }
+                if (siteKey.getKid() != null) {
+                    keysById.put(siteKey.getKid(), context);
+                }
+                if (fallbackKeys.size() < Math.max(1, sites.getMaxKeyAttempts())) {
+                    fallbackKeys.add(context);
+                }
+                verifierFingerprint.append('\n').append(siteKey.getKid()).append(':').append(keyFingerprint);
+            }
+            if (fallbackKeys.isEmpty()) {
+                return null;
             }
+            final String fingerprint = verifierFingerprint.toString();
+            usedVerifiers.add(fingerprint);
+            return keys.getVerifier(fingerprint,
+                () -> new SiteVerifier(issuer, keysById, fallbackKeys, sites.getLeeway()));
+        });
+        keys.used(usedKeys, usedVerifiers);
+        return verifiers;
+    }
 
-            // Check that the algorithm type is valid.
-            final AlgorithmType algorithmType = getSiteAlgorithmType(site.getAlgorithm());
-            final Algorithm algorithm;
-            if (algorithmType == AlgorithmType.HMAC) {
-                algorithm = getHmacAlgorithm(site);
-            } else if (algorithmType == AlgorithmType.RSA) {
-                algorithm = getRsaAlgorithm(site);
-            } else {
-                log.error("Invalid algorithm selection: " + site.getAlgorithm() + ". Site ignored." );
+    /**
+     * Identify a site whose keys are loaded on first use without reading them:
+     * key files by path, size and modification time, so that a key file that
+     * is replaced gets a new verifier.
+     */
+    private static String getLazyFingerprint(final Site site, final List<SiteKey> siteKeys, final String issuer,
+            final Config sites) {
+        final StringBuilder fingerprint = new StringBuilder("lazy\n").append(issuer).append('\n')
+            .append(site.getAlgorithm().toUpperCase()).append('\n').append(site.getEncoding().toLowerCase())
+            .append('\n').append(sites.getLeeway()).append('\n').append(sites.getMaxKeyAttempts());
+        for (final SiteKey siteKey : siteKeys) {
+            fingerprint.append('\n').append(siteKey.getKid()).append(':');
+            if (siteKey.getKey() != null && !siteKey.getKey().equalsIgnoreCase("")) {
+                fingerprint.append("key:").append(siteKey.getKey().trim());
+            } else if (siteKey.getPath() != null) {
+                final File file = new File(siteKey.getPath());
+                fingerprint.append("path:").append(file.getAbsolutePath()).append(':').append(file.length())
+                    .append(':').append(file.lastModified());
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Read and parse a site's keys when they are first needed, logging any
+     * errors straight away.
+     */
+    private static KeySet loadKeySet(final Site site, final List<SiteKey> siteKeys,
+            final AlgorithmType algorithmType, final int maxKeyAttempts) {
+        final SiteLog siteLog = new SiteLog();
+        final Map<String, CryptoContext> keysById = new HashMap<>();
+        final List<CryptoContext> fallbackKeys = new ArrayList<>();
+        for (final SiteKey siteKey : siteKeys) {
+            final byte[] key = getKeyBytes(siteKey, siteLog);
+            final CryptoContext context = key == null ? null : getCryptoContext(site, algorithmType, key, siteLog);
+            if (context == null) {
                 continue;
             }
+            if (siteKey.getKid() != null) {
+                keysById.put(siteKey.getKid(), context);
+            }
+            if (fallbackKeys.size() < Math.max(1, maxKeyAttempts)) {
+                fallbackKeys.add(context);
+            }
+        }
+        siteLog.flush();
+        log.debug("Loaded keys for site " + site.getUrl() + " on first use.");
+        return new KeySet(keysById, fallbackKeys);
+    }
+
+    /**
+     * Validate sites and load their keys
+     *
+     * Sites are loaded in parallel, as reading and parsing many key files is
+     * slow, and then merged in configuration order, so the result and the
+     * order of logged errors are the same as loading them one by one.
+     *
+     * @param sites
+     *        configuration with sites
+     * @param loader
+     *        builds the value for a valid site from its keys, or returns null;
+     *        called from several threads at once
+     * @return map of site url (or null for default) and loaded value
+     */
+    private static <T> Map<String, T> loadSites(final Config sites, final SiteLoader<T> loader) {
+        final Map<String, T> algorithms = new HashMap<>();
+        if (sites == null) {
+            return algorithms;
+        }
+
+        boolean defaultSet = false;
+        final Set<String> urls = new HashSet<>();
 
-            if ((site.getUrl() == null || site.getUrl().equalsIgnoreCase("")) && !site.getDefault()) {
-                log.error("Site URL must be defined for non-default sites.");
+        for (final LoadedSite<T> loaded : loadEachSite(sites, loader)) {
+            loaded.siteLog.flush();
+            if (!loaded.valid) {
                 continue;
             }
 
+            final Site site = loaded.site;
             if (site.getDefault()) {
                 if (defaultSet) {
                     log.error("Multiple default sites specified in configuration.");
                     continue;
                 }
                 defaultSet = true;
+            } else if (!urls.add(site.getUrl())) {
+                log.error("Site " + site.getUrl() + " is defined more than once. Site ignored.");
+                continue;
             }
 
-            if (algorithm != null) {
+            if (loaded.value != null) {
                 final String name = site.getDefault() ? null : site.getUrl();
-                algorithms.put(name, algorithm);
+                algorithms.put(name, loaded.value);
             }
         }
 
         return algorithms;
     }
 
+    /**
+     * Load every site on a bounded fork-join pool, returning them in
+     * configuration order.
+     */
+    private static <T> List<LoadedSite<T>> loadEachSite(final Config sites, final SiteLoader<T> loader) {
+        final int threads = Math.min(sites.getKeyLoadThreads(), sites.getSites().size());
+        if (threads <= 1) {
+            return sites.getSites().stream().map(site -> loadSite(site, loader)).collect(Collectors.toList());
+        }
+
+        final List<Callable<LoadedSite<T>>> tasks = sites.getSites().stream()
+            .map(site -> (Callable<LoadedSite<T>>) () -> loadSite(site, loader))
+            .collect(Collectors.toList());
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final List<LoadedSite<T>> loaded = new ArrayList<>(tasks.size());
+            for (final Future<LoadedSite<T>> future : pool.invokeAll(tasks)) {
+                loaded.add(future.get());
+            }
+            return loaded;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading site keys.", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Validate one site and load its keys, holding back its log messages.
+     */
+    private static <T> LoadedSite<T> loadSite(final Site site, final SiteLoader<T> loader) {
+        final SiteLog siteLog = new SiteLog();
+        final boolean sitePathDefined = site.getPath() != null && !site.getPath().equalsIgnoreCase("");
+        final boolean siteKeyDefined = site.getKey() != null && !site.getKey().equalsIgnoreCase("");
+        if (!site.getKeys().isEmpty() && (sitePathDefined || siteKeyDefined)) {
+            siteLog.error("Keys must be defined either on the site or in its key elements. Site ignored.");
+            return new LoadedSite<>(site, siteLog, false, null);
+        }
+        if (isJwksSite(site) && (!site.getKeys().isEmpty() || sitePathDefined || siteKeyDefined)) {
+            siteLog.error("A site with a jwks key set can not also define keys. Site ignored.");
+            return new LoadedSite<>(site, siteLog, false, null);
+        }
+
+        final List<SiteKey> siteKeys = getSiteKeys(site);
+        if (!validateKeys(siteKeys, siteLog)) {
+            return new LoadedSite<>(site, siteLog, false, null);
+        }
+
+        // Check that the algorithm type is valid.
+        final AlgorithmType algorithmType = getSiteAlgorithmType(site.getAlgorithm());
+        final T algorithm;
+        if (algorithmType == AlgorithmType.HMAC || algorithmType == AlgorithmType.RSA) {
+            algorithm = loader.load(site, siteKeys, algorithmType, siteLog);
+        } else {
+            siteLog.error("Invalid algorithm selection: " + site.getAlgorithm() + ". Site ignored." );
+            return new LoadedSite<>(site, siteLog, false, null);
+        }
+
+        if ((site.getUrl() == null || site.getUrl().equalsIgnoreCase("")) && !site.getDefault()) {
+            siteLog.error("Site URL must be defined for non-default sites.");
+            return new LoadedSite<>(site, siteLog, false, null);
+        }
+
+        return new LoadedSite<>(site, siteLog, true, algorithm);
+    }
+
     /**
      * Get the site static tokens from a set of sites in the configuration
      *
@@ -277,8 +611,13 @@ public final class SettingsParser {
             return new HashMap<String, Token>();
         }
 
-        final Map<String, Token> tokens = sites.getTokens().stream().filter(x -> !x.getToken().isEmpty())
-            .collect(Collectors.toMap(Token::getToken, t -> t));
+        // The first definition of a token wins, as for sites.
+        final Map<String, Token> tokens = new HashMap<>();
+        for (final Token token : sites.getTokens()) {
+            if (!token.getToken().isEmpty() && tokens.putIfAbsent(token.getToken(), token) != null) {
+                log.error("Token for " + token.getUser() + " is defined more than once. Token ignored.");
+            }
+        }
 
         return tokens;
     }
@@ -295,16 +634,50 @@ public final class SettingsParser {
             return new HashMap<String, Boolean>();
         }
 
-        final Map<String, Boolean> anonymousAllowed = sites.getSites().stream().filter(s -> !s.getDefault())
-            .collect(Collectors.toMap(Site::getUrl, Site::getAnonymous));
+        // The first definition of a site wins, as when loading keys.
+        final Map<String, Boolean> anonymousAllowed = new HashMap<>();
+        sites.getSites().stream().filter(s -> !s.getDefault())
+            .forEach(s -> anonymousAllowed.putIfAbsent(s.getUrl(), s.getAnonymous()));
         sites.getSites().stream().filter(Site::getDefault).findFirst()
             .ifPresent(s -> anonymousAllowed.put("default", s.getAnonymous()));
 
         return anonymousAllowed;
     }
 
-    static Config getSitesObject(final InputStream settings)
-            throws IOException, SAXException {
-        return (Config) getDigester().parse(settings);
+    /**
+     * Build the anonymous rules of each site. A site with anonymous="true"
+     * gets a rule allowing GET and HEAD requests to every path, ahead of the
+     * rules it declares. The default site's rules are under "default".
+     *
+     * @param sites
+     *        a config object with the site information
+     * @return map of site url to its rules.
+     */
+    public static Map<String, List<AnonymousRule>> getSiteAnonymousRules(final Config sites) {
+        final Map<String, List<AnonymousRule>> anonymousRules = new HashMap<>();
+        if (sites == null) {
+            return anonymousRules;
+        }
+
+        // The first definition of a site wins, as when loading keys.
+        sites.getSites().stream().filter(s -> !s.getDefault())
+            .forEach(s -> anonymousRules.putIfAbsent(s.getUrl(), getAnonymousRules(s)));
+        sites.getSites().stream().filter(Site::getDefault).findFirst()
+            .ifPresent(s -> anonymousRules.put("default", getAnonymousRules(s)));
+
+        return anonymousRules;
+    }
+
+    private static List<AnonymousRule> getAnonymousRules(final Site site) {
+        final List<AnonymousRule> rules = new ArrayList<>();
+        if (site.getAnonymous()) {
+            rules.add(new AnonymousRule("/*", "GET,HEAD"));
+        }
+        rules.addAll(site.getAnonymousRules());
+        return rules;
+    }
+
+    static Config getSitesObject(final InputStream settings) throws XMLStreamException {
+        return SettingsReader.read(settings);
     }
 }
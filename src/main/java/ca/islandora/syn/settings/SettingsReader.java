@@ -0,0 +1,166 @@
+package ca.islandora.syn.settings;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.tomcat.util.IntrospectionUtils;
+
+/**
+ * Reads syn-settings.xml with a streaming StAX parser.
+ *
+ * Only the config, config/site, config/site/key, config/site/anonymous and
+ * config/token elements are read: attributes are set through the matching
+ * setters, an element's own text, trimmed, is its key or token, and ${name}
+ * in either is replaced by the system property. Keys and anonymous rules are
+ * added to their site. Other elements, and their text, are skipped. A
+ * document whose root is not config reads as null.
+ *
+ * Nothing is shared between reads but the parser factory, so settings may be
+ * read on any number of threads at once. DTDs and external entities are not
+ * processed.
+ */
+final class SettingsReader {
+
+    private static final XMLInputFactory factory = createFactory();
+    private static final IntrospectionUtils.PropertySource[] propertySources = { System::getProperty };
+
+    private SettingsReader() { }
+
+    private static XMLInputFactory createFactory() {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+
+    /**
+     * Read a settings file.
+     *
+     * @param settings
+     *        the settings file stream
+     * @return the config, or null if the root element is not config
+     * @throws XMLStreamException if the file is not well formed XML
+     */
+    static Config read(final InputStream settings) throws XMLStreamException {
+        final XMLStreamReader reader = factory.createXMLStreamReader(settings);
+        try {
+            Config config = null;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if (getName(reader).equals("config")) {
+                        config = readConfig(reader);
+                    } else {
+                        skip(reader);
+                    }
+                }
+            }
+            return config;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Config readConfig(final XMLStreamReader reader) throws XMLStreamException {
+        final Config config = new Config();
+        setProperties(reader, config);
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return config;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                final String name = getName(reader);
+                if (name.equals("site")) {
+                    final Site site = new Site();
+                    setProperties(reader, site);
+                    site.setKey(readText(reader, site));
+                    config.addSite(site);
+                } else if (name.equals("token")) {
+                    final Token token = new Token();
+                    setProperties(reader, token);
+                    token.setToken(readText(reader, null));
+                    config.addToken(token);
+                } else {
+                    skip(reader);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the rest of an element, returning its own text. Key and anonymous
+     * elements are added to the site, if there is one; other child elements
+     * are skipped.
+     */
+    private static String readText(final XMLStreamReader reader, final Site site) throws XMLStreamException {
+        StringBuilder text = null;
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.END_ELEMENT:
+                    return text == null ? "" : replaceProperties(text.toString()).trim();
+                case XMLStreamConstants.START_ELEMENT:
+                    if (site != null && getName(reader).equals("key")) {
+                        final SiteKey key = new SiteKey();
+                        setProperties(reader, key);
+                        key.setKey(readText(reader, null));
+                        site.addKey(key);
+                    } else if (site != null && getName(reader).equals("anonymous")) {
+                        final AnonymousRule rule = new AnonymousRule();
+                        setProperties(reader, rule);
+                        skip(reader);
+                        site.addAnonymousRule(rule);
+                    } else {
+                        skip(reader);
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (text == null) {
+                        text = new StringBuilder(reader.getTextLength());
+                    }
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Skip the rest of the current element and everything in it.
+     */
+    private static void skip(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static void setProperties(final XMLStreamReader reader, final Object target) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final String prefix = reader.getAttributePrefix(i);
+            final String name = reader.getAttributeLocalName(i);
+            IntrospectionUtils.setProperty(target, prefix == null || prefix.isEmpty() ? name : prefix + ":" + name,
+                replaceProperties(reader.getAttributeValue(i)));
+        }
+    }
+
+    private static String getName(final XMLStreamReader reader) {
+        final String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static String replaceProperties(final String value) {
+        return value.indexOf("${") < 0 ? value : IntrospectionUtils.replaceProperties(value, null, propertySources);
+    }
+}
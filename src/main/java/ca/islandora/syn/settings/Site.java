@@ -1,5 +1,8 @@
 package ca.islandora.syn.settings;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Site {
     private String url = null;
     private String algorithm = null;
@@ -8,6 +11,9 @@ public class Site {
     private String encoding = null;
     private boolean defaultItem = false;
     private boolean allowAnonymous = false;
+    private String jwks = null;
+    private final List<SiteKey> keys = new ArrayList<>();
+    private final List<AnonymousRule> anonymousRules = new ArrayList<>();
 
     public String getUrl() {
         return this.url;
@@ -68,4 +74,44 @@ public class Site {
     public void setAnonymous(final boolean allowAnonGet) {
         this.allowAnonymous = allowAnonGet;
     }
+
+    /**
+     * Location of a JSON Web Key Set to take the site's keys from, either a URL
+     * or a file path.
+     *
+     * @return the location, or null if the site's keys are configured here
+     */
+    public String getJwks() {
+        return this.jwks;
+    }
+    public void setJwks(final String jwks) {
+        this.jwks = jwks;
+    }
+
+    /**
+     * Add a key declared with a key element, for sites with several keys.
+     *
+     * @param key the key
+     */
+    public void addKey(final SiteKey key) {
+        this.keys.add(key);
+    }
+
+    public List<SiteKey> getKeys() {
+        return this.keys;
+    }
+
+    /**
+     * Add a rule declared with an anonymous element, for requests to let
+     * through without a token.
+     *
+     * @param rule the rule
+     */
+    public void addAnonymousRule(final AnonymousRule rule) {
+        this.anonymousRules.add(rule);
+    }
+
+    public List<AnonymousRule> getAnonymousRules() {
+        return this.anonymousRules;
+    }
 }
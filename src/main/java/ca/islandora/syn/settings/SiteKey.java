@@ -0,0 +1,28 @@
+package ca.islandora.syn.settings;
+
+public class SiteKey {
+    private String kid = null;
+    private String key = null;
+    private String path = null;
+
+    public String getKid() {
+        return this.kid;
+    }
+    public void setKid(final String kid) {
+        this.kid = kid;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+    public void setKey(final String key) {
+        this.key = key;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+    public void setPath(final String path) {
+        this.path = path;
+    }
+}
@@ -0,0 +1,197 @@
+package ca.islandora.syn.token;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+
+/**
+ * The signature check for one site key.
+ *
+ * HMAC and RSA contexts keep a thread-confined {@link Mac} or {@link Signature}
+ * that is looked up and initialised with the key once per thread, so a check
+ * does no provider lookup or key setup. For HMAC the keyed (ipad/opad) state is
+ * computed once and cloned to each thread.
+ */
+public abstract class CryptoContext {
+
+    private final String name;
+
+    private CryptoContext(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the JWT algorithm name, e.g. HS256 or RS512
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Check a signature.
+     *
+     * @param content
+     *        buffer holding the signing input
+     * @param offset
+     *        start of the signing input
+     * @param length
+     *        length of the signing input
+     * @param signature
+     *        the decoded signature
+     * @return true if the signature matches
+     */
+    public abstract boolean verify(byte[] content, int offset, int length, byte[] signature);
+
+    /**
+     * Create an HMAC context.
+     *
+     * @param name
+     *        one of HS256, HS384 or HS512
+     * @param secret
+     *        the shared secret
+     * @return the context
+     * @throws GeneralSecurityException if the algorithm or key is not usable
+     */
+    public static CryptoContext hmac(final String name, final byte[] secret) throws GeneralSecurityException {
+        final String jcaName;
+        if (name.equalsIgnoreCase("HS256")) {
+            jcaName = "HmacSHA256";
+        } else if (name.equalsIgnoreCase("HS384")) {
+            jcaName = "HmacSHA384";
+        } else if (name.equalsIgnoreCase("HS512")) {
+            jcaName = "HmacSHA512";
+        } else {
+            throw new GeneralSecurityException("Unsupported HMAC algorithm " + name);
+        }
+        return new HmacContext(name.toUpperCase(), new SecretKeySpec(secret, jcaName));
+    }
+
+    /**
+     * Create an RSA context.
+     *
+     * @param name
+     *        one of RS256, RS384 or RS512
+     * @param publicKey
+     *        the public key
+     * @return the context
+     * @throws GeneralSecurityException if the algorithm or key is not usable
+     */
+    public static CryptoContext rsa(final String name, final RSAPublicKey publicKey)
+            throws GeneralSecurityException {
+        final String jcaName;
+        if (name.equalsIgnoreCase("RS256")) {
+            jcaName = "SHA256withRSA";
+        } else if (name.equalsIgnoreCase("RS384")) {
+            jcaName = "SHA384withRSA";
+        } else if (name.equalsIgnoreCase("RS512")) {
+            jcaName = "SHA512withRSA";
+        } else {
+            throw new GeneralSecurityException("Unsupported RSA algorithm " + name);
+        }
+        return new RsaContext(name.toUpperCase(), jcaName, publicKey);
+    }
+
+    /**
+     * Wrap a java-jwt algorithm; checks go through the library and get none of
+     * the per-thread reuse.
+     *
+     * @param algorithm
+     *        the algorithm
+     * @return the context
+     */
+    public static CryptoContext wrap(final Algorithm algorithm) {
+        return new AlgorithmContext(algorithm);
+    }
+
+    private static final class HmacContext extends CryptoContext {
+        private final ThreadLocal<Mac> mac;
+
+        private HmacContext(final String name, final SecretKeySpec key) throws GeneralSecurityException {
+            super(name);
+            final Mac prototype = Mac.getInstance(key.getAlgorithm());
+            prototype.init(key);
+            this.mac = ThreadLocal.withInitial(() -> {
+                try {
+                    return (Mac) prototype.clone();
+                } catch (final CloneNotSupportedException e) {
+                    try {
+                        final Mac instance = Mac.getInstance(key.getAlgorithm());
+                        instance.init(key);
+                        return instance;
+                    } catch (final GeneralSecurityException e2) {
+                        throw new IllegalStateException(e2);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean verify(final byte[] content, final int offset, final int length, final byte[] signature) {
+            final Mac instance = mac.get();
+            instance.update(content, offset, length);
+            return MessageDigest.isEqual(instance.doFinal(), signature);
+        }
+    }
+
+    private static final class RsaContext extends CryptoContext {
+        private final ThreadLocal<Signature> verifier;
+
+        private RsaContext(final String name, final String jcaName, final RSAPublicKey publicKey)
+                throws GeneralSecurityException {
+            super(name);
+            // Fail now rather than on the first request if the key is unusable.
+            Signature.getInstance(jcaName).initVerify(publicKey);
+            this.verifier = ThreadLocal.withInitial(() -> {
+                try {
+                    final Signature instance = Signature.getInstance(jcaName);
+                    instance.initVerify(publicKey);
+                    return instance;
+                } catch (final GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        @Override
+        public boolean verify(final byte[] content, final int offset, final int length, final byte[] signature) {
+            final Signature instance = verifier.get();
+            try {
+                instance.update(content, offset, length);
+                return instance.verify(signature);
+            } catch (final GeneralSecurityException e) {
+                // The instance state is unknown after a failure, start over next time.
+                verifier.remove();
+                return false;
+            }
+        }
+    }
+
+    private static final class AlgorithmContext extends CryptoContext {
+        private final Algorithm algorithm;
+
+        private AlgorithmContext(final Algorithm algorithm) {
+            super(algorithm.getName());
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean verify(final byte[] content, final int offset, final int length, final byte[] signature) {
+            final byte[] input = offset == 0 && length == content.length ? content
+                : Arrays.copyOfRange(content, offset, offset + length);
+            try {
+                algorithm.verify(input, signature);
+            } catch (final SignatureVerificationException exception) {
+                return false;
+            }
+            return true;
+        }
+    }
+}
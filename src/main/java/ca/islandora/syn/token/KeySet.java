@@ -0,0 +1,97 @@
+package ca.islandora.syn.token;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed set of keys for one site: those that can be picked by a token's kid
+ * header, and a short ordered list to try for tokens without a known kid.
+ *
+ * A key set is its own {@link KeySource} for sites whose keys only change when
+ * the settings are reloaded.
+ */
+public final class KeySet implements KeySource {
+
+    private final Map<String, CryptoContext> keysById;
+    private final CryptoContext[] fallbackKeys;
+    private final boolean indexed;
+    // Index into fallbackKeys of the key that last verified a token; a stale read only costs an extra check.
+    private volatile int preferredKey = 0;
+
+    /**
+     * Create a key set.
+     *
+     * @param keysById
+     *        keys to pick by a token's kid header
+     * @param fallbackKeys
+     *        keys to try in order for a token without a known kid
+     */
+    public KeySet(final Map<String, CryptoContext> keysById, final List<CryptoContext> fallbackKeys) {
+        this.keysById = new HashMap<>(keysById);
+        this.fallbackKeys = fallbackKeys.toArray(new CryptoContext[0]);
+        this.indexed = !keysById.isEmpty() && keysById.values().containsAll(fallbackKeys);
+    }
+
+    @Override
+    public KeySet getKeys() {
+        return this;
+    }
+
+    @Override
+    public boolean keyNotFound(final String keyId) {
+        return false;
+    }
+
+    /**
+     * @return true if there are no keys to try
+     */
+    public boolean isEmpty() {
+        return fallbackKeys.length == 0 && keysById.isEmpty();
+    }
+
+    /**
+     * @return true if every key has a kid, so a token naming any other kid
+     *         can not be verified by any of them
+     */
+    boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * @param keyId
+     *        a token's kid header
+     * @return the key with that id, or null
+     */
+    CryptoContext get(final String keyId) {
+        return keysById.get(keyId);
+    }
+
+    /**
+     * Try the fallback keys, starting with the one that last succeeded.
+     *
+     * @param token
+     *        the decoded token
+     * @return true if one of the keys verified the signature
+     */
+    boolean verifyFallback(final Verifier token) {
+        if (fallbackKeys.length == 0) {
+            return false;
+        }
+        final int preferred = preferredKey;
+        if (verify(fallbackKeys[preferred], token)) {
+            return true;
+        }
+        for (int i = 0; i < fallbackKeys.length; i++) {
+            if (i != preferred && verify(fallbackKeys[i], token)) {
+                preferredKey = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean verify(final CryptoContext context, final Verifier token) {
+        return context.verify(token.getBytes(), 0, token.getSigningInputLength(), token.getSignature());
+    }
+}
@@ -0,0 +1,33 @@
+package ca.islandora.syn.token;
+
+/**
+ * Supplies a site's current keys to its {@link SiteVerifier}.
+ *
+ * Both methods are called on request threads and must not block.
+ */
+public interface KeySource {
+
+    /**
+     * @return the keys to check signatures with now
+     */
+    KeySet getKeys();
+
+    /**
+     * Told when a token names a key id that is not in the current keys, or
+     * when there are no keys at all.
+     *
+     * @param keyId
+     *        the key id from the token, or null
+     * @return true if the key may turn up later, so the token should not be
+     *         remembered as rejected
+     */
+    boolean keyNotFound(String keyId);
+
+    /**
+     * @return true if the keys may be replaced from somewhere other than the
+     *         settings and key files, as a JSON Web Key Set is when refreshed
+     */
+    default boolean isRefreshed() {
+        return false;
+    }
+}
@@ -0,0 +1,102 @@
+package ca.islandora.syn.token;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Runs the work for a token digest once for everyone who asks for it at the
+ * same time.
+ *
+ * The first caller for a digest does the work; callers with the same digest
+ * that arrive before it is done wait for its result instead of doing it
+ * again. A caller that has waited too long, or whose leader failed, does the
+ * work itself, so waiting never turns into a failure of its own. Once the
+ * work is done the digest is forgotten, so the work should leave its result
+ * somewhere later callers look first, such as a {@link TokenCache}.
+ *
+ * @param <V> the result type
+ */
+public final class SingleFlight<V> {
+
+    private static final Log log = LogFactory.getLog(SingleFlight.class);
+
+    private final long waitMillis;
+    private final ConcurrentHashMap<TokenDigest, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Create a single flight.
+     *
+     * @param waitMillis
+     *        how long a caller waits for another's result, zero or less runs
+     *        the work for every caller
+     */
+    public SingleFlight(final long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Do the work for a digest, or wait for whoever is doing it already.
+     *
+     * @param digest
+     *        the token digest
+     * @param work
+     *        the work
+     * @return the result of the work
+     */
+    public V run(final TokenDigest digest, final Supplier<V> work) {
+        if (waitMillis <= 0) {
+            return work.get();
+        }
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        final CompletableFuture<V> leader = flights.putIfAbsent(digest, flight);
+        if (leader == null) {
+            try {
+                final V result = work.get();
+                flight.complete(result);
+                return result;
+            } catch (final RuntimeException | Error e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                flights.remove(digest, flight);
+            }
+        }
+
+        waiting.incrementAndGet();
+        try {
+            return leader.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            log.debug("Gave up waiting for a concurrent verification after " + waitMillis + " ms.");
+        } catch (final ExecutionException e) {
+            log.debug("Concurrent verification failed: " + e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return work.get();
+    }
+
+    /**
+     * @return the number of digests being worked on
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    /**
+     * @return the number of callers waiting for another's result
+     */
+    int getWaiting() {
+        return waiting.get();
+    }
+}
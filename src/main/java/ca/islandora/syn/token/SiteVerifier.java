@@ -0,0 +1,197 @@
+package ca.islandora.syn.token;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The verification requirements of one configured site, built once when the
+ * configuration is loaded and shared by all request threads.
+ *
+ * A site may have several keys so that its key can be rotated without a hard
+ * cut-over. A token naming a known key in its kid header is checked with that
+ * key only, and one naming an unknown key is rejected unchecked when every key
+ * has a kid. Any other token is tried against a short ordered list of keys,
+ * starting with the one that last succeeded, so a site mid-rotation normally
+ * costs one signature check per token rather than one per key.
+ *
+ * The keys come from a {@link KeySource}, which may replace them while the
+ * verifier is in use, as a JSON Web Key Set does when it is refreshed.
+ */
+public final class SiteVerifier {
+
+    private final String issuer;
+    private final KeySource keySource;
+    private final String algorithmName;
+    private final long leeway;
+
+    /**
+     * Create a site verifier.
+     *
+     * @param issuer
+     *        the site url tokens must be issued by, or null to accept any issuer
+     * @param context
+     *        the crypto context, with key, to check signatures with
+     */
+    public SiteVerifier(final String issuer, final CryptoContext context) {
+        this(issuer, context, 0);
+    }
+
+    /**
+     * Create a site verifier.
+     *
+     * @param issuer
+     *        the site url tokens must be issued by, or null to accept any issuer
+     * @param context
+     *        the crypto context, with key, to check signatures with
+     * @param leeway
+     *        seconds of clock skew to allow when checking exp, iat and nbf
+     */
+    public SiteVerifier(final String issuer, final CryptoContext context, final long leeway) {
+        this(issuer, Collections.emptyMap(), Collections.singletonList(context), leeway);
+    }
+
+    /**
+     * Create a site verifier with several keys.
+     *
+     * @param issuer
+     *        the site url tokens must be issued by, or null to accept any issuer
+     * @param keysById
+     *        keys to pick by a token's kid header
+     * @param fallbackKeys
+     *        keys to try in order for a token without a known kid, at least one;
+     *        all keys must be for the same algorithm
+     * @param leeway
+     *        seconds of clock skew to allow when checking exp, iat and nbf
+     */
+    public SiteVerifier(final String issuer, final Map<String, CryptoContext> keysById,
+            final List<CryptoContext> fallbackKeys, final long leeway) {
+        this(issuer, firstKey(fallbackKeys).getName(), new KeySet(keysById, fallbackKeys), leeway);
+    }
+
+    /**
+     * Create a site verifier whose keys may change.
+     *
+     * @param issuer
+     *        the site url tokens must be issued by, or null to accept any issuer
+     * @param algorithmName
+     *        the algorithm tokens must be signed with, e.g. RS256
+     * @param keySource
+     *        supplies the current keys, all for that algorithm
+     * @param leeway
+     *        seconds of clock skew to allow when checking exp, iat and nbf
+     */
+    public SiteVerifier(final String issuer, final String algorithmName, final KeySource keySource,
+            final long leeway) {
+        this.issuer = issuer;
+        this.algorithmName = algorithmName.toUpperCase();
+        this.keySource = keySource;
+        this.leeway = leeway;
+    }
+
+    private static CryptoContext firstKey(final List<CryptoContext> fallbackKeys) {
+        if (fallbackKeys.isEmpty()) {
+            throw new IllegalArgumentException("A site needs at least one key to fall back on.");
+        }
+        return fallbackKeys.get(0);
+    }
+
+    /**
+     * @return the site url, or null for the default site
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * @return the name of the algorithm tokens must be signed with
+     */
+    public String getAlgorithmName() {
+        return algorithmName;
+    }
+
+    /**
+     * @return true if the site's keys may be replaced while it is in use, so a
+     *         token it accepted may no longer be valid once its key is gone
+     */
+    public boolean hasRefreshedKeys() {
+        return keySource.isRefreshed();
+    }
+
+    /**
+     * Check a decoded token's issuer, algorithm, time claims and signature.
+     *
+     * @param token
+     *        the decoded token
+     * @return true if the token is valid for this site
+     */
+    public boolean verify(final Verifier token) {
+        return check(token) == null;
+    }
+
+    /**
+     * Check a decoded token's time claims, issuer, algorithm and, only if all
+     * of those pass, its signature.
+     *
+     * @param token
+     *        the decoded token
+     * @return null if the token is valid for this site, otherwise why it is not
+     */
+    public TokenFailure check(final Verifier token) {
+        return check(token, System.currentTimeMillis() / 1000, true);
+    }
+
+    /**
+     * Check a decoded token whose issuer has already been matched to this
+     * site, as a site url matches issuers that differ from it in case, default
+     * port or trailing slash, or by a wildcard host. Only its time claims,
+     * algorithm and signature are checked.
+     *
+     * @param token
+     *        the decoded token
+     * @return null if the token is valid for this site, otherwise why it is not
+     */
+    public TokenFailure checkMatched(final Verifier token) {
+        return check(token, System.currentTimeMillis() / 1000, false);
+    }
+
+    TokenFailure check(final Verifier token, final long now) {
+        return check(token, now, true);
+    }
+
+    private TokenFailure check(final Verifier token, final long now, final boolean checkIssuer) {
+        // Every claim check comes before the signature, so expired or
+        // misdirected tokens never cost an HMAC or RSA operation.
+        final TokenFailure timely = token.checkTimes(now, leeway);
+        if (timely != null) {
+            return timely;
+        }
+        if (checkIssuer && issuer != null && !issuer.equals(token.getUrl())) {
+            return TokenFailure.UNKNOWN_ISSUER;
+        }
+        if (!algorithmName.equals(token.getAlgorithmName())) {
+            return TokenFailure.WRONG_ALGORITHM;
+        }
+        return checkSignature(token);
+    }
+
+    private TokenFailure checkSignature(final Verifier token) {
+        final KeySet keys = keySource.getKeys();
+        final String keyId = token.getKeyId();
+        final CryptoContext named = keyId == null ? null : keys.get(keyId);
+        if (named != null) {
+            return KeySet.verify(named, token) ? null : TokenFailure.BAD_SIGNATURE;
+        }
+        // No key could verify it, and trying them all for every replay would be costly.
+        if (keyId != null && keys.isIndexed()) {
+            return keySource.keyNotFound(keyId) ? TokenFailure.UNKNOWN_KEY : TokenFailure.BAD_SIGNATURE;
+        }
+        if (keys.verifyFallback(token)) {
+            return null;
+        }
+        if ((keyId != null || keys.isEmpty()) && keySource.keyNotFound(keyId)) {
+            return TokenFailure.UNKNOWN_KEY;
+        }
+        return TokenFailure.BAD_SIGNATURE;
+    }
+}
@@ -0,0 +1,412 @@
+package ca.islandora.syn.token;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read only file of static tokens, memory mapped so that very large sets of
+ * service account tokens take next to no heap.
+ *
+ * The file holds the SHA-256 digest of each token, never the token itself,
+ * sorted so that a token is found by binary search, and a Bloom filter over
+ * the digests so that most unknown tokens are turned away without searching.
+ * Each digest points to the user and roles it authenticates as; tokens with
+ * the same user and roles share them.
+ *
+ * The layout, big endian, is a header of magic, version, token count, Bloom
+ * filter words and Bloom filter hashes as ints; the Bloom filter as longs; one
+ * entry per token of its 32 byte digest and the int offset of its record; and
+ * the records, each the user and then the number of roles and each role, as
+ * length prefixed UTF-8.
+ *
+ * Files are written with {@link #write(Path, Map)}, or from the command line
+ * with {@link #main(String[])}, and replaced by renaming a new file over the
+ * old one, as a file must not change while it is mapped.
+ */
+public final class StaticTokenStore {
+
+    private static final int magic = 0x53594e54;
+    private static final int version = 1;
+    private static final int headerSize = 20;
+    private static final int digestSize = 32;
+    private static final int entrySize = digestSize + 4;
+    private static final int bitsPerToken = 10;
+    private static final int bloomHashes = 7;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int bloomWords;
+    private final int hashes;
+    private final int entriesOffset;
+    private final int recordsOffset;
+
+    /**
+     * The user and roles a static token authenticates as.
+     */
+    public static final class Record {
+        private final String user;
+        private final List<String> roles;
+
+        /**
+         * @param user
+         *        the user name
+         * @param roles
+         *        the roles
+         */
+        public Record(final String user, final List<String> roles) {
+            this.user = user;
+            this.roles = Collections.unmodifiableList(new ArrayList<>(roles));
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public List<String> getRoles() {
+            return roles;
+        }
+    }
+
+    private StaticTokenStore(final ByteBuffer buffer, final File file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < headerSize || buffer.getInt(0) != magic) {
+            throw new IOException("Not a static token file: " + file);
+        }
+        if (buffer.getInt(4) != version) {
+            throw new IOException("Unsupported static token file version " + buffer.getInt(4) + ": " + file);
+        }
+        this.count = buffer.getInt(8);
+        this.bloomWords = buffer.getInt(12);
+        this.hashes = buffer.getInt(16);
+        final long entries = headerSize + 8L * bloomWords;
+        final long records = entries + (long) entrySize * count;
+        if (count < 0 || bloomWords <= 0 || hashes <= 0 || records > buffer.capacity()) {
+            throw new IOException("Corrupt static token file: " + file);
+        }
+        this.entriesOffset = (int) entries;
+        this.recordsOffset = (int) records;
+        // Every record and every entry's offset is checked now, so a lookup never reads past the file.
+        final int[] starts = findRecords(file);
+        for (int i = 0; i < count; i++) {
+            final int record = buffer.getInt(entriesOffset + i * entrySize + digestSize);
+            if (Arrays.binarySearch(starts, record) < 0) {
+                throw new IOException("Corrupt static token file: " + file);
+            }
+        }
+    }
+
+    /**
+     * Walk the records, which follow one another to the end of the file.
+     *
+     * @return the offset of each record, in order
+     * @throws IOException if a record runs past the end of the file
+     */
+    private int[] findRecords(final File file) throws IOException {
+        int[] starts = new int[16];
+        int found = 0;
+        int position = recordsOffset;
+        while (position < buffer.capacity()) {
+            if (found == starts.length) {
+                starts = Arrays.copyOf(starts, found * 2);
+            }
+            starts[found++] = position;
+            position = skipString(position, file);
+            if (position + 2L > buffer.capacity()) {
+                throw new IOException("Corrupt static token file: " + file);
+            }
+            final int roleCount = buffer.getShort(position) & 0xffff;
+            position += 2;
+            for (int i = 0; i < roleCount; i++) {
+                position = skipString(position, file);
+            }
+        }
+        return Arrays.copyOf(starts, found);
+    }
+
+    private int skipString(final int position, final File file) throws IOException {
+        if (position + 2L > buffer.capacity()) {
+            throw new IOException("Corrupt static token file: " + file);
+        }
+        final long end = position + 2L + (buffer.getShort(position) & 0xffff);
+        if (end > buffer.capacity()) {
+            throw new IOException("Corrupt static token file: " + file);
+        }
+        return (int) end;
+    }
+
+    /**
+     * Map a static token file.
+     *
+     * @param file
+     *        the file
+     * @return the store
+     * @throws IOException if the file can not be read or is not a static token file
+     */
+    public static StaticTokenStore open(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Static token file too large: " + file);
+            }
+            // The mapping stays valid once the channel is closed.
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StaticTokenStore(buffer, file);
+        }
+    }
+
+    /**
+     * Find a token. Safe to call from any number of threads.
+     *
+     * @param digest
+     *        the token digest
+     * @return what the token authenticates as, or null if it is not in the store
+     */
+    public Record find(final TokenDigest digest) {
+        final byte[] key = digest.bytes();
+        if (!mightContain(key)) {
+            return null;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int entry = entriesOffset + middle * entrySize;
+            final int comparison = compare(entry, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return readRecord(buffer.getInt(entry + digestSize));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of tokens in the store
+     */
+    public int size() {
+        return count;
+    }
+
+    private boolean mightContain(final byte[] key) {
+        final long bits = 64L * bloomWords;
+        final long first = getLong(key, 0);
+        final long second = getLong(key, 8) | 1;
+        for (int i = 0; i < hashes; i++) {
+            final long bit = Math.floorMod(first + i * second, bits);
+            if ((buffer.getLong(headerSize + (int) (bit >>> 6) * 8) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int compare(final int entry, final byte[] key) {
+        for (int i = 0; i < digestSize; i++) {
+            final int difference = (buffer.get(entry + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private Record readRecord(final int offset) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        final String user = readString(record);
+        final int roleCount = record.getShort() & 0xffff;
+        final List<String> roles = new ArrayList<>(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            roles.add(readString(record));
+        }
+        return new Record(user, roles);
+    }
+
+    private static String readString(final ByteBuffer record) {
+        final byte[] bytes = new byte[record.getShort() & 0xffff];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long getLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Write a static token file, replacing the file in one step once it is
+     * complete.
+     *
+     * @param file
+     *        the file to write
+     * @param tokens
+     *        the token digests and what each authenticates as
+     * @throws IOException if the file can not be written
+     */
+    public static void write(final Path file, final Map<TokenDigest, Record> tokens) throws IOException {
+        final List<TokenDigest> digests = new ArrayList<>(tokens.keySet());
+        digests.sort((a, b) -> compare(a.bytes(), b.bytes()));
+
+        final int bloomWords = (int) Math.max(1, ((long) digests.size() * bitsPerToken + 63) / 64);
+        final long[] bloom = new long[bloomWords];
+        for (final TokenDigest digest : digests) {
+            final long bits = 64L * bloomWords;
+            final long first = getLong(digest.bytes(), 0);
+            final long second = getLong(digest.bytes(), 8) | 1;
+            for (int i = 0; i < bloomHashes; i++) {
+                final long bit = Math.floorMod(first + i * second, bits);
+                bloom[(int) (bit >>> 6)] |= 1L << (bit & 63);
+            }
+        }
+
+        // Records are written after the entries, so their offsets start there.
+        final long recordsOffset = headerSize + 8L * bloomWords + (long) entrySize * digests.size();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final DataOutputStream recordData = new DataOutputStream(records);
+        final Map<List<String>, Integer> recordOffsets = new HashMap<>();
+        final int[] offsets = new int[digests.size()];
+        for (int i = 0; i < digests.size(); i++) {
+            final Record record = tokens.get(digests.get(i));
+            final List<String> key = new ArrayList<>(record.getRoles());
+            key.add(0, record.getUser());
+            Integer offset = recordOffsets.get(key);
+            if (offset == null) {
+                if (recordsOffset + records.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Too many static tokens for one file.");
+                }
+                offset = (int) (recordsOffset + records.size());
+                recordOffsets.put(key, offset);
+                writeString(recordData, record.getUser());
+                if (record.getRoles().size() > 0xffff) {
+                    throw new IOException("Too many roles for " + record.getUser() + ".");
+                }
+                recordData.writeShort(record.getRoles().size());
+                for (final String role : record.getRoles()) {
+                    writeString(recordData, role);
+                }
+            }
+            offsets[i] = offset;
+        }
+
+        final Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), ".syn-tokens", ".tmp");
+        try {
+            try (final OutputStream stream = Files.newOutputStream(temporary);
+                    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.writeInt(magic);
+                out.writeInt(version);
+                out.writeInt(digests.size());
+                out.writeInt(bloomWords);
+                out.writeInt(bloomHashes);
+                for (final long word : bloom) {
+                    out.writeLong(word);
+                }
+                for (int i = 0; i < digests.size(); i++) {
+                    out.write(digests.get(i).bytes());
+                    out.writeInt(offsets[i]);
+                }
+                records.writeTo(out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IOException("Static token user or role too long.");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int compare(final byte[] a, final byte[] b) {
+        for (int i = 0; i < digestSize; i++) {
+            final int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Read tokens from a text file, one per line, as tab separated token, user
+     * and comma separated roles, and write them to a static token file. A token
+     * may be given as sha256: and the hex SHA-256 digest of the token, so that
+     * the token itself need not be written down. Blank lines and lines starting
+     * with # are skipped; the first line for a token wins.
+     *
+     * @param args
+     *        the text file and the static token file to write
+     * @throws IOException if a file can not be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: StaticTokenStore <tokens.tsv> <tokens.bin>");
+            System.exit(2);
+        }
+        final Map<TokenDigest, Record> tokens = new LinkedHashMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] fields = line.split("\t", -1);
+                if (fields.length != 3 || fields[0].isEmpty()) {
+                    throw new IOException("Line " + number + " is not token, user and roles separated by tabs.");
+                }
+                final List<String> roles = fields[2].isEmpty() ? Collections.emptyList()
+                    : Arrays.asList(fields[2].split(","));
+                tokens.putIfAbsent(parseToken(fields[0], number), new Record(fields[1], roles));
+            }
+        }
+        write(Paths.get(args[1]), tokens);
+        System.out.println("Wrote " + tokens.size() + " tokens to " + args[1] + ".");
+    }
+
+    private static TokenDigest parseToken(final String token, final int number) throws IOException {
+        if (!token.startsWith("sha256:")) {
+            return TokenDigest.of(token);
+        }
+        final String hex = token.substring("sha256:".length());
+        if (!hex.matches("[0-9a-fA-F]{64}")) {
+            throw new IOException("Line " + number + " has an invalid sha256 digest.");
+        }
+        final byte[] digest = new byte[digestSize];
+        for (int i = 0; i < digestSize; i++) {
+            digest[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return TokenDigest.ofDigest(digest);
+    }
+}
@@ -0,0 +1,166 @@
+package ca.islandora.syn.token;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A size-bounded cache keyed by token digest. Each entry expires at its own
+ * expiry time or after the cache time-to-live, whichever comes first.
+ *
+ * Entries are also kept in a ring of as many slots as the cache holds, in the
+ * order they were put: each put takes the next slot and drops the entry that
+ * was put there a full turn earlier, if it is still cached. A full cache so
+ * costs the same per put as an empty one however many distinct tokens arrive,
+ * and the oldest entries go first. Expired entries are dropped when looked up
+ * or when their slot is taken. The ring's slots are allocated in blocks as the
+ * cache first fills, and the bound is approximate under concurrent inserts.
+ *
+ * @param <V> the cached value type
+ */
+public final class TokenCache<V> {
+
+    private static final int blockBits = 12;
+    private static final int blockSize = 1 << blockBits;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<TokenDigest, Entry<V>> entries;
+    private final AtomicReferenceArray<AtomicReferenceArray<Entry<V>>> ring;
+    private final AtomicLong puts = new AtomicLong();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize
+     *        maximum number of entries, zero or less disables the cache
+     * @param ttlSeconds
+     *        maximum lifetime of an entry in seconds
+     */
+    public TokenCache(final int maxSize, final long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.entries = new ConcurrentHashMap<>(Math.max(16, Math.min(maxSize, 1024)));
+        this.ring = new AtomicReferenceArray<>(Math.max(0, (maxSize + blockSize - 1) / blockSize));
+    }
+
+    /**
+     * Look up a live entry.
+     *
+     * @param digest
+     *        the token digest
+     * @return the cached value or null if absent or expired
+     */
+    public V get(final TokenDigest digest) {
+        return get(digest, System.currentTimeMillis());
+    }
+
+    V get(final TokenDigest digest, final long now) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        final Entry<V> entry = entries.get(digest);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= now) {
+            entries.remove(digest, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Cache a value until the given time, capped by the cache time-to-live.
+     *
+     * @param digest
+     *        the token digest
+     * @param value
+     *        the value to cache
+     * @param expiresAt
+     *        epoch milliseconds after which the value must no longer be used
+     */
+    public void put(final TokenDigest digest, final V value, final long expiresAt) {
+        put(digest, value, expiresAt, System.currentTimeMillis());
+    }
+
+    void put(final TokenDigest digest, final V value, final long expiresAt, final long now) {
+        if (maxSize <= 0) {
+            return;
+        }
+        final long expires = Math.min(expiresAt, now + ttlMillis);
+        if (expires <= now) {
+            return;
+        }
+        final Entry<V> entry = new Entry<>(digest, value, expires);
+        final Entry<V> evicted = takeSlot(entry);
+        if (evicted != null) {
+            entries.remove(evicted.digest, evicted);
+        }
+        entries.put(digest, entry);
+    }
+
+    /**
+     * Drop an entry.
+     *
+     * @param digest
+     *        the token digest
+     */
+    public void remove(final TokenDigest digest) {
+        entries.remove(digest);
+    }
+
+    /**
+     * @return the number of entries, including any not yet purged expired ones
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drop all entries.
+     */
+    public void clear() {
+        entries.clear();
+        for (int i = 0; i < ring.length(); i++) {
+            ring.set(i, null);
+        }
+    }
+
+    /**
+     * @return the entries, including any not yet purged expired ones
+     */
+    Map<TokenDigest, Entry<V>> entries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Put an entry in the next slot of the ring.
+     *
+     * @return the entry that was in the slot, or null
+     */
+    private Entry<V> takeSlot(final Entry<V> entry) {
+        final int slot = (int) (puts.getAndIncrement() % maxSize);
+        AtomicReferenceArray<Entry<V>> block = ring.get(slot >>> blockBits);
+        if (block == null) {
+            ring.compareAndSet(slot >>> blockBits, null, new AtomicReferenceArray<>(Math.min(blockSize, maxSize)));
+            block = ring.get(slot >>> blockBits);
+        }
+        return block.getAndSet(slot & (blockSize - 1), entry);
+    }
+
+    static final class Entry<V> {
+        final TokenDigest digest;
+        final V value;
+        final long expires;
+
+        private Entry(final TokenDigest digest, final V value, final long expires) {
+            this.digest = digest;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package ca.islandora.syn.token;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A token cache saved to a file, so that it can be loaded again after a
+ * restart instead of verifying every live token again.
+ *
+ * The layout, big endian, is a header of magic, version and entry count as
+ * ints; one entry per token of its 32 byte digest, its expiry as epoch
+ * milliseconds, and the length and bytes of its value; and an HMAC-SHA256 of
+ * everything before it. The HMAC key is given by the caller, so a file is only
+ * loaded with the key it was saved with and cannot be altered without it. The
+ * key should be derived with {@link #key(byte[], byte[])} from a random secret
+ * kept beside the file, which {@link #secret(Path)} creates on first use, so
+ * that it can not be worked out from the settings or keys, which may be public.
+ * Entries that have expired by the time the file is loaded are skipped.
+ *
+ * Files are written to a new file that is renamed over the old one, readable
+ * only by their owner where the file system allows it, and read memory
+ * mapped.
+ */
+public final class TokenCacheFile {
+
+    private static final int magic = 0x53594e43;
+    private static final int version = 1;
+    private static final int headerSize = 12;
+    private static final int digestSize = 32;
+    private static final int macSize = 32;
+    private static final int secretSize = 32;
+    private static final String macAlgorithm = "HmacSHA256";
+    private static final Set<PosixFilePermission> ownerOnly =
+        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+    /**
+     * Writes and reads cached values.
+     *
+     * @param <V> the cached value type
+     */
+    public interface Codec<V> {
+        /**
+         * @param out where to write the value
+         * @param value the value
+         * @return false if nothing was written, to leave the value out of the file
+         * @throws IOException if the value can not be written
+         */
+        boolean write(DataOutput out, V value) throws IOException;
+
+        /**
+         * @param in where to read the value from
+         * @return the value, or null to leave it out of the cache
+         * @throws IOException if the value can not be read
+         */
+        V read(DataInput in) throws IOException;
+    }
+
+    private TokenCacheFile() { }
+
+    /**
+     * Save the live entries of a cache.
+     *
+     * @param file
+     *        the file to write
+     * @param cache
+     *        the cache
+     * @param key
+     *        the HMAC key
+     * @param codec
+     *        how to write values
+     * @param <V> the cached value type
+     * @return the number of entries saved
+     * @throws IOException if the file can not be written
+     */
+    public static <V> int write(final Path file, final TokenCache<V> cache, final byte[] key, final Codec<V> codec)
+            throws IOException {
+        final long now = System.currentTimeMillis();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeInt(0);
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        final DataOutputStream valueOut = new DataOutputStream(value);
+        int count = 0;
+        for (final Map.Entry<TokenDigest, TokenCache.Entry<V>> entry : cache.entries().entrySet()) {
+            if (entry.getValue().expires <= now) {
+                continue;
+            }
+            value.reset();
+            if (!codec.write(valueOut, entry.getValue().value)) {
+                continue;
+            }
+            out.write(entry.getKey().bytes());
+            out.writeLong(entry.getValue().expires);
+            out.writeInt(value.size());
+            value.writeTo(out);
+            count++;
+        }
+        final byte[] bytes = content.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(8, count);
+
+        final Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), ".syn-cache", ".tmp");
+        try {
+            try (final OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                stream.write(bytes);
+                stream.write(mac(key, ByteBuffer.wrap(bytes)));
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return count;
+    }
+
+    /**
+     * Load the entries of a file into a cache, skipping those that have
+     * expired.
+     *
+     * @param file
+     *        the file to read
+     * @param cache
+     *        the cache
+     * @param key
+     *        the HMAC key the file was saved with
+     * @param codec
+     *        how to read values
+     * @param <V> the cached value type
+     * @return the number of entries loaded
+     * @throws IOException if the file can not be read, was saved with another
+     *         key, or is not a token cache file
+     */
+    public static <V> int read(final Path file, final TokenCache<V> cache, final byte[] key, final Codec<V> codec)
+            throws IOException {
+        final ByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Token cache file too large: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final int length = buffer.capacity() - macSize;
+        if (length < headerSize || buffer.getInt(0) != magic) {
+            throw new IOException("Not a token cache file: " + file);
+        }
+        if (buffer.getInt(4) != version) {
+            throw new IOException("Unsupported token cache file version " + buffer.getInt(4) + ": " + file);
+        }
+        final ByteBuffer content = buffer.duplicate();
+        content.limit(length);
+        final byte[] expected = mac(key, content);
+        final byte[] actual = new byte[macSize];
+        final ByteBuffer trailer = buffer.duplicate();
+        trailer.position(length);
+        trailer.get(actual);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new IOException("Token cache file was saved with other settings or has been altered: " + file);
+        }
+
+        final long now = System.currentTimeMillis();
+        final int count = buffer.getInt(8);
+        final ByteBuffer in = buffer.duplicate();
+        in.position(headerSize);
+        in.limit(length);
+        int loaded = 0;
+        for (int i = 0; i < count; i++) {
+            if (in.remaining() < digestSize + 12) {
+                throw new IOException("Corrupt token cache file: " + file);
+            }
+            final byte[] digest = new byte[digestSize];
+            in.get(digest);
+            final long expires = in.getLong();
+            final int size = in.getInt();
+            if (size < 0 || size > in.remaining()) {
+                throw new IOException("Corrupt token cache file: " + file);
+            }
+            final byte[] value = new byte[size];
+            in.get(value);
+            if (expires <= now) {
+                continue;
+            }
+            final V decoded = codec.read(new DataInputStream(new ByteArrayInputStream(value)));
+            if (decoded != null) {
+                cache.put(TokenDigest.ofDigest(digest), decoded, expires, now);
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Read the secret kept beside a cache file, creating it if there is none.
+     * It is readable only by its owner, and refused if others may read or
+     * write it.
+     *
+     * @param file
+     *        the secret file
+     * @return the secret
+     * @throws IOException if the secret can not be read or created
+     */
+    public static byte[] secret(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            final byte[] secret = new byte[secretSize];
+            new SecureRandom().nextBytes(secret);
+            // Temporary files are created readable only by their owner.
+            final Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), ".syn-secret", ".tmp");
+            try {
+                Files.write(temporary, secret);
+                Files.move(temporary, file);
+                return secret;
+            } catch (final FileAlreadyExistsException e) {
+                // Created by someone else meanwhile; theirs is used.
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        final PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (view != null && !ownerOnly.containsAll(view.readAttributes().permissions())) {
+            throw new IOException("Token cache secret may be used by others, it must be readable only by its owner: "
+                + file);
+        }
+        final byte[] secret = Files.readAllBytes(file);
+        if (secret.length != secretSize) {
+            throw new IOException("Not a token cache secret: " + file);
+        }
+        return secret;
+    }
+
+    /**
+     * Derive the HMAC key for a cache file from its secret and a fingerprint
+     * of what its entries depend on, so that a file saved under other settings
+     * is not loaded.
+     *
+     * @param secret
+     *        the secret kept beside the file
+     * @param fingerprint
+     *        the fingerprint
+     * @return the HMAC key
+     * @throws IOException if the key can not be derived
+     */
+    public static byte[] key(final byte[] secret, final byte[] fingerprint) throws IOException {
+        return mac(secret, ByteBuffer.wrap(fingerprint));
+    }
+
+    private static byte[] mac(final byte[] key, final ByteBuffer content) throws IOException {
+        try {
+            final Mac mac = Mac.getInstance(macAlgorithm);
+            mac.init(new SecretKeySpec(key, macAlgorithm));
+            mac.update(content);
+            return mac.doFinal();
+        } catch (final GeneralSecurityException e) {
+            throw new IOException("Unable to compute the token cache file HMAC.", e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ca.islandora.syn.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 digest of a bearer token, used as a cache key so that the raw
+ * token is never held on to once it has been verified.
+ */
+public final class TokenDigest {
+
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final byte[] digest;
+    private final int hash;
+
+    private TokenDigest(final byte[] digest) {
+        this.digest = digest;
+        this.hash = Arrays.hashCode(digest);
+    }
+
+    /**
+     * Digest a token.
+     *
+     * @param token
+     *        the token, without the bearer prefix
+     * @return the digest
+     */
+    public static TokenDigest of(final String token) {
+        return of(token.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Digest the raw bytes of a token.
+     *
+     * @param token
+     *        the token bytes, without the bearer prefix
+     * @return the digest
+     */
+    public static TokenDigest of(final byte[] token) {
+        return of(token, 0, token.length);
+    }
+
+    /**
+     * Digest a slice of a buffer holding a token.
+     *
+     * @param buffer
+     *        the buffer
+     * @param offset
+     *        start of the token
+     * @param length
+     *        length of the token
+     * @return the digest
+     */
+    public static TokenDigest of(final byte[] buffer, final int offset, final int length) {
+        final MessageDigest md = sha256.get();
+        md.reset();
+        md.update(buffer, offset, length);
+        return new TokenDigest(md.digest());
+    }
+
+    /**
+     * Wrap a digest computed elsewhere.
+     *
+     * @param digest
+     *        the 32 byte SHA-256 digest of a token, not copied
+     * @return the digest
+     */
+    static TokenDigest ofDigest(final byte[] digest) {
+        if (digest.length != 32) {
+            throw new IllegalArgumentException("A token digest is 32 bytes, not " + digest.length + ".");
+        }
+        return new TokenDigest(digest);
+    }
+
+    /**
+     * @return the digest bytes, which must not be changed
+     */
+    byte[] bytes() {
+        return digest;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof TokenDigest)) {
+            return false;
+        }
+        final TokenDigest that = (TokenDigest) other;
+        return this.hash == that.hash && Arrays.equals(this.digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
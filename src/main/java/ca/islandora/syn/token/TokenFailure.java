@@ -0,0 +1,41 @@
+package ca.islandora.syn.token;
+
+/**
+ * Why a token was rejected.
+ */
+public enum TokenFailure {
+    TOO_LARGE("Token is too large", false),
+    MALFORMED("Token was malformed", false),
+    TOO_MANY_ROLES("Token has too many roles", true),
+    MISSING_CLAIMS("Token rejected for not containing correct claims", true),
+    UNKNOWN_ISSUER("No key found for site", true),
+    WRONG_ALGORITHM("Token signed with an unexpected algorithm", true),
+    EXPIRED("Token has expired", true),
+    NOT_YET_VALID("Token is not valid yet", false),
+    BAD_SIGNATURE("Token failed signature verification", true),
+    UNKNOWN_KEY("Token signed with a key that is not known yet", false);
+
+    private final String message;
+    private final boolean cacheable;
+
+    TokenFailure(final String message, final boolean cacheable) {
+        this.message = message;
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * @return a description for the log
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * A failure is cacheable if presenting the same token again can not succeed.
+     *
+     * @return whether to remember this failure
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+}
@@ -0,0 +1,63 @@
+package ca.islandora.syn.token;
+
+/**
+ * Cheap structural checks run on a raw token before any decoding.
+ */
+public final class TokenFormat {
+
+    private static final boolean[] base64Url = new boolean[128];
+
+    static {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            base64Url[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            base64Url[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            base64Url[c] = true;
+        }
+        base64Url['-'] = true;
+        base64Url['_'] = true;
+    }
+
+    private TokenFormat() { }
+
+    /**
+     * Check in one pass that a token is no longer than the limit and is three
+     * non-empty, dot separated, unpadded base64url segments.
+     *
+     * @param buffer
+     *        buffer holding the token
+     * @param offset
+     *        start of the token
+     * @param length
+     *        length of the token
+     * @param maxLength
+     *        maximum token length in bytes
+     * @return null if the token may be a JWT, otherwise TOO_LARGE or MALFORMED
+     */
+    public static TokenFailure check(final byte[] buffer, final int offset, final int length, final int maxLength) {
+        if (length > maxLength) {
+            return TokenFailure.TOO_LARGE;
+        }
+        final int end = offset + length;
+        int dots = 0;
+        int segmentStart = offset;
+        for (int i = offset; i < end; i++) {
+            final byte b = buffer[i];
+            if (b == '.') {
+                if (i == segmentStart || ++dots > 2) {
+                    return TokenFailure.MALFORMED;
+                }
+                segmentStart = i + 1;
+            } else if (b < 0 || !base64Url[b]) {
+                return TokenFailure.MALFORMED;
+            }
+        }
+        if (dots != 2 || segmentStart == end) {
+            return TokenFailure.MALFORMED;
+        }
+        return null;
+    }
+}
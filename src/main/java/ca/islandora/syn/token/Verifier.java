@@ -1,71 +1,208 @@
 package ca.islandora.syn.token;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.JWTDecodeException;
-import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.auth0.jwt.interfaces.Claim;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
+/**
+ * Decodes a JWT once and verifies it against a site algorithm.
+ *
+ * The header and payload are base64url-decoded and parsed a single time in
+ * {@link #create(String)}; {@link #verify(Algorithm)} then checks the signature
+ * over the signing input bytes already held and the time claims already parsed.
+ * Request paths should verify through a precompiled {@link SiteVerifier}.
+ */
 public class Verifier {
 
     private static final Log log = LogFactory.getLog(Verifier.class);
-    private String token;
-    private JWT jwt;
+    private static final List<String> requiredClaims = Arrays.asList("sub", "iss", "webid", "roles", "exp", "iat");
+    private static final ObjectReader reader = new ObjectMapper().readerFor(JsonNode.class);
+    private static final List<String> notBeforeClaims = Arrays.asList("iat", "nbf");
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    private byte[] bytes;
+    private int signingInputLength;
+    private byte[] signature;
+    private JsonNode header;
+    private JsonNode payload;
 
     private Verifier() { }
 
     public static Verifier create(final String token) {
+        return create(token.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Decode a token held in a slice of a buffer, such as a request header.
+     *
+     * @param buffer
+     *        the buffer
+     * @param offset
+     *        start of the token
+     * @param length
+     *        length of the token
+     * @return the verifier, or null if the token can not be decoded or lacks a required claim
+     */
+    public static Verifier create(final byte[] buffer, final int offset, final int length) {
+        return create(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    private static Verifier create(final byte[] bytes) {
+        final int headerEnd = indexOf(bytes, 0);
+        final int payloadEnd = headerEnd < 0 ? -1 : indexOf(bytes, headerEnd + 1);
+        if (payloadEnd < 0 || indexOf(bytes, payloadEnd + 1) >= 0) {
+            log.debug("Token does not have three parts.");
+            return null;
+        }
+
         final Verifier verifier = new Verifier();
-        final List<String> requiredClaims = Arrays.asList("sub", "iss", "webid", "roles", "exp", "iat");
-        verifier.token = token;
         try {
-            verifier.jwt = JWT.decode(token);
-            final Map<String, Claim> claims = verifier.jwt.getClaims();
-            for (final String claim : requiredClaims) {
-                if (claims.get(claim) == null) {
-                    log.debug(String.format("Token missing required claim ({})", claim));
-                    return null;
-                }
+            verifier.header = parse(bytes, 0, headerEnd);
+            verifier.payload = parse(bytes, headerEnd + 1, payloadEnd - headerEnd - 1);
+            verifier.signature = decode(bytes, payloadEnd + 1, bytes.length - payloadEnd - 1);
+        } catch (final IOException | IllegalArgumentException exception) {
+            log.debug("Error decoding token.", exception);
+            return null;
+        }
+        if (verifier.header == null || !verifier.header.isObject()
+            || verifier.payload == null || !verifier.payload.isObject()) {
+            log.debug("Token header or payload is not a JSON object.");
+            return null;
+        }
+        for (final String claim : requiredClaims) {
+            final JsonNode node = verifier.payload.get(claim);
+            if (node == null || node.isNull()) {
+                log.debug(String.format("Token missing required claim (%s)", claim));
+                return null;
             }
-        } catch (final JWTDecodeException exception) {
-            log.error("Error decoding token: " + token, exception);
+        }
+        if (!verifier.payload.get("roles").isArray()) {
+            log.debug("Token roles claim is not a list.");
             return null;
         }
+        verifier.bytes = bytes;
+        verifier.signingInputLength = payloadEnd;
         return verifier;
     }
 
+    private static int indexOf(final byte[] bytes, final int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '.') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] decode(final byte[] bytes, final int offset, final int length) {
+        final ByteBuffer decoded = decoder.decode(ByteBuffer.wrap(bytes, offset, length));
+        if (decoded.remaining() == decoded.array().length) {
+            return decoded.array();
+        }
+        return Arrays.copyOfRange(decoded.array(), decoded.position(), decoded.limit());
+    }
+
+    private static JsonNode parse(final byte[] bytes, final int offset, final int length) throws IOException {
+        return reader.readValue(decode(bytes, offset, length));
+    }
+
+    private String getString(final String claim) {
+        final JsonNode node = this.payload.get(claim);
+        return node.isTextual() ? node.asText() : null;
+    }
+
     public int getUid() {
-        return this.jwt.getClaim("webid").asInt();
+        return this.payload.get("webid").asInt();
     }
 
     public String getUrl() {
-        return this.jwt.getClaim("iss").asString();
+        return getString("iss");
     }
 
     public String getName() {
-        return this.jwt.getClaim("sub").asString();
+        return getString("sub");
+    }
+
+    public Date getExpiresAt() {
+        return new Date(this.payload.get("exp").asLong() * 1000);
+    }
+
+    public int getRoleCount() {
+        return this.payload.get("roles").size();
     }
 
     public List<String> getRoles() {
-        return this.jwt.getClaim("roles").asList(String.class);
+        final JsonNode roles = this.payload.get("roles");
+        final List<String> list = new ArrayList<>(roles.size() + 2);
+        for (final JsonNode role : roles) {
+            list.add(role.isNull() ? null : role.asText());
+        }
+        return list;
     }
 
     public boolean verify(final Algorithm algorithm) {
-        final JWTVerifier verifier = JWT.require(algorithm).build();
-        try {
-            verifier.verify(this.token);
-        } catch (final JWTVerificationException exception) {
-            return false;
-        }
+        return new SiteVerifier(null, CryptoContext.wrap(algorithm)).verify(this);
+    }
+
+    String getAlgorithmName() {
+        final JsonNode alg = this.header.get("alg");
+        return alg == null ? null : alg.asText();
+    }
 
-        return true;
+    /**
+     * @return the kid header naming the key the token was signed with, or null
+     */
+    String getKeyId() {
+        final JsonNode kid = this.header.get("kid");
+        return kid == null || !kid.isTextual() ? null : kid.asText();
+    }
+
+    byte[] getBytes() {
+        return this.bytes;
+    }
+
+    int getSigningInputLength() {
+        return this.signingInputLength;
+    }
+
+    byte[] getSignature() {
+        return this.signature;
+    }
+
+    /**
+     * Check the exp, iat and nbf claims against the current time.
+     *
+     * @param now
+     *        current time in epoch seconds
+     * @param leeway
+     *        seconds of clock skew to allow
+     * @return null if the token is not expired and not issued in the future,
+     *         otherwise the failure
+     */
+    TokenFailure checkTimes(final long now, final long leeway) {
+        final JsonNode exp = this.payload.get("exp");
+        if (!exp.canConvertToLong() || now - leeway > exp.asLong()) {
+            return TokenFailure.EXPIRED;
+        }
+        for (final String claim : notBeforeClaims) {
+            final JsonNode node = this.payload.get(claim);
+            if (node != null && node.canConvertToLong() && now + leeway < node.asLong()) {
+                return TokenFailure.NOT_YET_VALID;
+            }
+        }
+        return null;
     }
 }
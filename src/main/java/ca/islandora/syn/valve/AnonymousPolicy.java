@@ -0,0 +1,305 @@
+package ca.islandora.syn.valve;
+
+import java.util.List;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+import ca.islandora.syn.settings.AnonymousRule;
+
+/**
+ * The requests a site lets through without a token, compiled from its
+ * anonymous rules when the settings are loaded.
+ *
+ * Rule paths are kept in a trie of their segments, each node holding a bit
+ * mask of the methods its exact rules allow and one of the methods its prefix
+ * rules allow. A lookup walks the request's path once, in place, gathering
+ * the prefix masks it passes, so deciding allocates nothing and costs the
+ * same however many rules a site has. Paths are compared case sensitively.
+ * A request path with empty, "." or ".." segments only matches a rule for
+ * every path, as does a request whose path is not known.
+ *
+ * A policy is not changed once compiled, and may be used from any number of
+ * threads.
+ */
+public final class AnonymousPolicy {
+
+    private static final Log log = LogFactory.getLog(AnonymousPolicy.class);
+    private static final ThreadLocal<ByteSequence> byteSequences = ThreadLocal.withInitial(ByteSequence::new);
+
+    private static final String[] knownMethods = { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "TRACE",
+        "CONNECT" };
+    private static final int otherMethod = 1 << knownMethods.length;
+    private static final int anyMethod = (otherMethod << 1) - 1;
+
+    /**
+     * The policy of a site without rules: every request needs a token.
+     */
+    public static final AnonymousPolicy NONE = new AnonymousPolicy();
+
+    private final Node root = new Node();
+    private int methods = 0;
+
+    /**
+     * A path segment, with its child segments in an open addressing table.
+     */
+    private static final class Node {
+        private String[] segments = new String[2];
+        private Node[] children = new Node[2];
+        private int size = 0;
+        private int exact = 0;
+        private int prefix = 0;
+
+        private Node child(final CharSequence text, final int start, final int end) {
+            final int mask = segments.length - 1;
+            for (int i = hash(text, start, end) & mask; segments[i] != null; i = (i + 1) & mask) {
+                if (equalsSegment(segments[i], text, start, end)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node addChild(final String segment) {
+            final Node existing = child(segment, 0, segment.length());
+            if (existing != null) {
+                return existing;
+            }
+            if (2 * (size + 1) > segments.length) {
+                final String[] oldSegments = segments;
+                final Node[] oldChildren = children;
+                segments = new String[oldSegments.length * 2];
+                children = new Node[segments.length];
+                for (int i = 0; i < oldSegments.length; i++) {
+                    if (oldSegments[i] != null) {
+                        put(oldSegments[i], oldChildren[i]);
+                    }
+                }
+            }
+            final Node node = new Node();
+            put(segment, node);
+            size++;
+            return node;
+        }
+
+        private void put(final String segment, final Node node) {
+            final int mask = segments.length - 1;
+            int i = hash(segment, 0, segment.length()) & mask;
+            while (segments[i] != null) {
+                i = (i + 1) & mask;
+            }
+            segments[i] = segment;
+            children[i] = node;
+        }
+    }
+
+    private AnonymousPolicy() { }
+
+    /**
+     * Compile a site's rules. Rules with a path or method that cannot be
+     * understood are logged and ignored.
+     *
+     * @param site
+     *        the site url, for logging
+     * @param rules
+     *        the site's rules
+     * @return the policy
+     */
+    public static AnonymousPolicy compile(final String site, final List<AnonymousRule> rules) {
+        if (rules == null || rules.isEmpty()) {
+            return NONE;
+        }
+        final AnonymousPolicy policy = new AnonymousPolicy();
+        for (final AnonymousRule rule : rules) {
+            final int mask = parseMethods(rule.getMethods());
+            if (mask == 0) {
+                log.error("Site " + site + " has an anonymous rule with invalid methods \"" + rule.getMethods()
+                    + "\". Rule ignored.");
+            } else if (!policy.add(rule.getPath(), mask)) {
+                log.error("Site " + site + " has an anonymous rule with invalid path \"" + rule.getPath()
+                    + "\". Rule ignored.");
+            }
+        }
+        return policy.methods == 0 ? NONE : policy;
+    }
+
+    /**
+     * Whether a request may go without a token.
+     *
+     * @param method
+     *        the request method
+     * @param path
+     *        the request's decoded and normalised path, or null if not known
+     * @return whether the request is allowed without a token
+     */
+    public boolean allows(final String method, final MessageBytes path) {
+        final int bit = methodBit(method);
+        if ((methods & bit) == 0) {
+            return false;
+        }
+        if (path == null) {
+            return (root.prefix & bit) != 0;
+        }
+        switch (path.getType()) {
+            case MessageBytes.T_BYTES:
+                final ByteChunk bytes = path.getByteChunk();
+                final ByteSequence sequence = byteSequences.get();
+                sequence.set(bytes);
+                try {
+                    return (match(sequence) & bit) != 0;
+                } finally {
+                    sequence.clear();
+                }
+            case MessageBytes.T_CHARS:
+                return (match(path.getCharChunk()) & bit) != 0;
+            case MessageBytes.T_STR:
+                return (match(path.getString()) & bit) != 0;
+            default:
+                return (root.prefix & bit) != 0;
+        }
+    }
+
+    /**
+     * The methods allowed for a path: those of every prefix rule along it,
+     * and of the exact rule at its end.
+     */
+    private int match(final CharSequence path) {
+        final int length = path.length();
+        int allowed = root.prefix;
+        if (length == 0 || path.charAt(0) != '/') {
+            return allowed;
+        }
+        if (length == 1) {
+            return allowed | root.exact;
+        }
+        Node node = root;
+        int start = 1;
+        while (true) {
+            int end = start;
+            while (end < length && path.charAt(end) != '/') {
+                end++;
+            }
+            if (end == start || isDotSegment(path, start, end)) {
+                return root.prefix;
+            }
+            if (node != null) {
+                node = node.child(path, start, end);
+                if (node != null) {
+                    allowed |= node.prefix;
+                    if (end == length) {
+                        allowed |= node.exact;
+                    }
+                }
+            }
+            // Past the last rule, segments are still checked, so a ".." cannot leave a prefix it matched.
+            if (end == length) {
+                return allowed;
+            }
+            start = end + 1;
+            if (start == length) {
+                // A trailing slash: what is below the last segment, not the segment itself.
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Add a rule's path, as a prefix if it ends in /*.
+     *
+     * @return whether the path is valid
+     */
+    private boolean add(final String path, final int mask) {
+        if (path == null) {
+            return false;
+        }
+        final boolean isPrefix = path.equals("*") || path.endsWith("/*");
+        final String segmentsPath = path.equals("*") ? "" : isPrefix ? path.substring(0, path.length() - 2) : path;
+        if (!segmentsPath.isEmpty() && !segmentsPath.startsWith("/") || segmentsPath.indexOf('*') >= 0
+                || !isPrefix && segmentsPath.isEmpty()) {
+            return false;
+        }
+        Node node = root;
+        if (!segmentsPath.isEmpty() && !segmentsPath.equals("/")) {
+            for (final String segment : segmentsPath.substring(1).split("/", -1)) {
+                if (segment.isEmpty() || isDotSegment(segment, 0, segment.length())) {
+                    return false;
+                }
+                node = node.addChild(segment);
+            }
+        }
+        if (isPrefix) {
+            node.prefix |= mask;
+        } else {
+            node.exact |= mask;
+        }
+        methods |= mask;
+        return true;
+    }
+
+    /**
+     * Parse a comma separated list of methods, or * for any.
+     *
+     * @return the methods' bits, or 0 if any is not known
+     */
+    private static int parseMethods(final String methods) {
+        if (methods == null) {
+            return 0;
+        }
+        int mask = 0;
+        for (final String method : methods.split(",", -1)) {
+            final String name = method.trim();
+            if (name.equals("*")) {
+                mask |= anyMethod;
+                continue;
+            }
+            final int bit = methodBit(name.toUpperCase());
+            if (bit == otherMethod) {
+                return 0;
+            }
+            mask |= bit;
+        }
+        return mask;
+    }
+
+    private static int methodBit(final String method) {
+        if (method != null) {
+            for (int i = 0; i < knownMethods.length; i++) {
+                if (knownMethods[i].equals(method)) {
+                    return 1 << i;
+                }
+            }
+            // GET has always been recognised in any case.
+            if (knownMethods[0].equalsIgnoreCase(method)) {
+                return 1;
+            }
+        }
+        return otherMethod;
+    }
+
+    private static boolean isDotSegment(final CharSequence text, final int start, final int end) {
+        return text.charAt(start) == '.' && (end == start + 1 || end == start + 2 && text.charAt(start + 1) == '.');
+    }
+
+    private static int hash(final CharSequence text, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equalsSegment(final String segment, final CharSequence text, final int start,
+            final int end) {
+        if (segment.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (segment.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
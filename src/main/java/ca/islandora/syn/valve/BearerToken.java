@@ -0,0 +1,141 @@
+package ca.islandora.syn.valve;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+import ca.islandora.syn.token.TokenDigest;
+import ca.islandora.syn.token.TokenFailure;
+import ca.islandora.syn.token.TokenFormat;
+import ca.islandora.syn.token.Verifier;
+
+/**
+ * A bearer token read in place from the bytes of an Authorization header.
+ *
+ * The header is matched against the Bearer scheme case-insensitively without
+ * converting it to a String, and the token is kept as a slice of the header
+ * buffer so it can be digested for cache lookups without copying.
+ */
+public final class BearerToken {
+
+    private static final byte[] scheme = "bearer".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final byte[] buffer;
+    private final int start;
+    private final int end;
+
+    private BearerToken(final byte[] buffer, final int start, final int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse an Authorization header value.
+     *
+     * @param header
+     *        the header value
+     * @return the token, or null if the header is not a single bearer token
+     */
+    public static BearerToken parse(final MessageBytes header) {
+        if (header.getType() == MessageBytes.T_BYTES) {
+            final ByteChunk chunk = header.getByteChunk();
+            return parse(chunk.getBuffer(), chunk.getStart(), chunk.getEnd());
+        }
+        final String value = header.toString();
+        if (value == null) {
+            return null;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parse an Authorization header value.
+     *
+     * @param buffer
+     *        buffer holding the header value
+     * @param start
+     *        start of the value
+     * @param end
+     *        end of the value, exclusive
+     * @return the token, or null if the value is not a single bearer token
+     */
+    static BearerToken parse(final byte[] buffer, final int start, final int end) {
+        int pos = start;
+        while (pos < end && isSpace(buffer[pos])) {
+            pos++;
+        }
+        if (end - pos <= scheme.length) {
+            return null;
+        }
+        for (int i = 0; i < scheme.length; i++) {
+            // ASCII letters only differ by the 0x20 bit between cases.
+            if ((buffer[pos + i] | 0x20) != scheme[i]) {
+                return null;
+            }
+        }
+        pos += scheme.length;
+        if (!isSpace(buffer[pos])) {
+            return null;
+        }
+        while (pos < end && isSpace(buffer[pos])) {
+            pos++;
+        }
+        int tokenEnd = end;
+        while (tokenEnd > pos && isSpace(buffer[tokenEnd - 1])) {
+            tokenEnd--;
+        }
+        if (tokenEnd == pos) {
+            return null;
+        }
+        for (int i = pos; i < tokenEnd; i++) {
+            if (isSpace(buffer[i])) {
+                return null;
+            }
+        }
+        return new BearerToken(buffer, pos, tokenEnd);
+    }
+
+    private static boolean isSpace(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * @return the length of the token in bytes
+     */
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * Check the token looks like a JWT before doing any work on it.
+     *
+     * @param maxLength
+     *        maximum token length in bytes
+     * @return null if the token may be a JWT, otherwise why it is not
+     */
+    public TokenFailure checkFormat(final int maxLength) {
+        return TokenFormat.check(buffer, start, end - start, maxLength);
+    }
+
+    /**
+     * @return the digest of the token
+     */
+    public TokenDigest digest() {
+        return TokenDigest.of(buffer, start, end - start);
+    }
+
+    /**
+     * @return the decoded token, or null if it can not be decoded
+     */
+    public Verifier decode() {
+        return Verifier.create(buffer, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,51 @@
+package ca.islandora.syn.valve;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Request bytes read as ISO-8859-1 characters, in place. A sequence is meant
+ * to be kept per thread and pointed at each request's bytes in turn, so that
+ * reading them does not allocate.
+ */
+final class ByteSequence implements CharSequence {
+    private byte[] buffer;
+    private int start;
+    private int end;
+
+    void set(final ByteChunk bytes) {
+        buffer = bytes.getBuffer();
+        start = bytes.getStart();
+        end = bytes.getEnd();
+    }
+
+    /**
+     * Let go of the request's buffer.
+     */
+    void clear() {
+        buffer = null;
+        start = 0;
+        end = 0;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        return (char) (buffer[start + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(final int from, final int to) {
+        return toString().subSequence(from, to);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,193 @@
+package ca.islandora.syn.valve;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Realm;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.realm.RealmBase;
+import org.apache.tomcat.util.descriptor.web.SecurityCollection;
+import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+
+/**
+ * Whether a request's security constraints require authentication, kept per
+ * context and method where that is all the answer depends on.
+ *
+ * A realm matches a request's path against every url pattern of its context's
+ * constraints, allocating as it goes. When every pattern of a context is the
+ * same one that matches every path, all /* or all /, the constraints found
+ * depend only on the method, so the decision is kept for each method and later requests skip
+ * the realm. Other contexts, and realms that find constraints their own way,
+ * are asked on every request.
+ *
+ * A context's decisions are dropped when its constraints change, when it
+ * starts or stops, and when a different realm is used. This may be used from
+ * any number of threads.
+ */
+public final class ConstraintDecisions {
+
+    // Requests with arbitrary methods could otherwise grow a context's entry without bound.
+    private static final int maxMethods = 16;
+
+    /**
+     * What a request's constraints require.
+     */
+    public enum Decision {
+        /** No constraint applies to the request. */
+        UNCONSTRAINED,
+        /** A constraint applies, but one of them does not require authentication. */
+        OPEN,
+        /** Every constraint that applies requires authentication. */
+        AUTHENTICATE
+    }
+
+    private final ConcurrentHashMap<Context, Entry> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * A context's decisions, valid for the realm and constraints they were
+     * made with.
+     */
+    private final class Entry implements LifecycleListener {
+        private final Context context;
+        private final Realm realm;
+        private final SecurityConstraint[] constraints;
+        private final ConcurrentHashMap<String, Decision> methods;
+
+        private Entry(final Context context, final Realm realm) {
+            this.context = context;
+            this.realm = realm;
+            this.constraints = context.findConstraints();
+            this.methods = isCacheable(realm, constraints) ? new ConcurrentHashMap<>() : null;
+        }
+
+        @Override
+        public void lifecycleEvent(final LifecycleEvent event) {
+            final String type = event.getType();
+            if (Lifecycle.BEFORE_START_EVENT.equals(type) || Lifecycle.AFTER_STOP_EVENT.equals(type)
+                    || Lifecycle.AFTER_DESTROY_EVENT.equals(type)) {
+                remove();
+            }
+        }
+
+        private void remove() {
+            contexts.remove(context, this);
+            context.removeLifecycleListener(this);
+        }
+    }
+
+    /**
+     * Decide what a request's constraints require.
+     *
+     * @param realm
+     *        the realm to find the request's constraints with
+     * @param request
+     *        the request
+     * @return the decision
+     */
+    public Decision decide(final Realm realm, final Request request) {
+        final Context context = request.getContext();
+        if (context == null) {
+            return decide(realm.findSecurityConstraints(request, null));
+        }
+        final Entry entry = getEntry(context, realm);
+        if (entry.methods == null) {
+            return decide(realm.findSecurityConstraints(request, context));
+        }
+        final String method = request.getMethod();
+        if (method == null) {
+            return decide(realm.findSecurityConstraints(request, context));
+        }
+        Decision decision = entry.methods.get(method);
+        if (decision == null) {
+            decision = decide(realm.findSecurityConstraints(request, context));
+            if (entry.methods.size() < maxMethods) {
+                entry.methods.putIfAbsent(method, decision);
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Drop every decision.
+     */
+    public void clear() {
+        for (final Entry entry : contexts.values()) {
+            entry.remove();
+        }
+    }
+
+    /**
+     * @return the number of decisions kept
+     */
+    public int size() {
+        int size = 0;
+        for (final Entry entry : contexts.values()) {
+            size += entry.methods == null ? 0 : entry.methods.size();
+        }
+        return size;
+    }
+
+    private Entry getEntry(final Context context, final Realm realm) {
+        final Entry entry = contexts.get(context);
+        if (entry != null && entry.realm == realm && entry.constraints == context.findConstraints()) {
+            return entry;
+        }
+        if (entry != null) {
+            entry.remove();
+        }
+        final Entry created = new Entry(context, realm);
+        if (contexts.putIfAbsent(context, created) == null) {
+            context.addLifecycleListener(created);
+        }
+        return created;
+    }
+
+    /**
+     * The decision for the constraints a realm found.
+     */
+    private static Decision decide(final SecurityConstraint[] constraints) {
+        if (constraints == null) {
+            return Decision.UNCONSTRAINED;
+        }
+        for (final SecurityConstraint constraint : constraints) {
+            if (!constraint.getAuthConstraint()) {
+                return Decision.OPEN;
+            }
+        }
+        return Decision.AUTHENTICATE;
+    }
+
+    /**
+     * Whether the constraints a realm finds depend only on the method: it
+     * finds them as RealmBase does, and every url pattern matches every path.
+     */
+    private static boolean isCacheable(final Realm realm, final SecurityConstraint[] constraints) {
+        try {
+            if (realm == null || realm.getClass().getMethod("findSecurityConstraints", Request.class,
+                    Context.class).getDeclaringClass() != RealmBase.class) {
+                return false;
+            }
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+        if (constraints == null) {
+            return true;
+        }
+        // A realm matches "/" exactly before "/*", so the two together depend on the path.
+        String every = null;
+        for (final SecurityConstraint constraint : constraints) {
+            for (final SecurityCollection collection : constraint.findCollections()) {
+                for (final String pattern : collection.findPatterns()) {
+                    if ((!pattern.equals("/*") && !pattern.equals("/")) || (every != null && !every.equals(pattern))) {
+                        return false;
+                    }
+                    every = pattern;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package ca.islandora.syn.valve;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.catalina.realm.GenericPrincipal;
+
+/**
+ * The result of a successful authentication: the principal handed to Tomcat
+ * and the value of the roles header handed to Fedora.
+ *
+ * Identities are immutable. Those for static tokens and anonymous access are
+ * built once when the configuration is loaded and shared by every request.
+ */
+final class Identity {
+
+    private static final String adminUserRole = "fedoraAdmin";
+
+    private final GenericPrincipal principal;
+    private final String roleHeader;
+
+    private Identity(final GenericPrincipal principal, final String roleHeader) {
+        this.principal = principal;
+        this.roleHeader = roleHeader;
+    }
+
+    /**
+     * Build an identity, setting the single principal role to either fedoraUser
+     * or fedoraAdmin based on whether any of the roles matches `adminUserRole`
+     *
+     * @param username
+     *        the username to set on the principal
+     * @param roles
+     *        the roles to set on the HTTP header
+     * @return the identity
+     */
+    static Identity create(final String username, final List<String> roles) {
+        final List<String> fedoraRole = Arrays
+                .asList(roles.stream().anyMatch(t -> t.equalsIgnoreCase(adminUserRole)) ? "fedoraAdmin" : "fedoraUser");
+        return new Identity(new GenericPrincipal(username, null, fedoraRole), String.join(",", roles));
+    }
+
+    /**
+     * Rebuild an identity saved by its principal's name and roles and its
+     * roles header.
+     *
+     * @param username
+     *        the username to set on the principal
+     * @param principalRoles
+     *        the roles to set on the principal
+     * @param roleHeader
+     *        the value of the roles header
+     * @return the identity
+     */
+    static Identity restore(final String username, final List<String> principalRoles, final String roleHeader) {
+        return new Identity(new GenericPrincipal(username, null, principalRoles), roleHeader);
+    }
+
+    GenericPrincipal getPrincipal() {
+        return principal;
+    }
+
+    String getRoleHeader() {
+        return roleHeader;
+    }
+}
@@ -0,0 +1,161 @@
+package ca.islandora.syn.valve;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Watches the settings file and the key files it references, and runs a reload
+ * once they have changed and then been quiet for a moment.
+ *
+ * Events only prompt a check: the files are compared by content against the
+ * last check, so unrelated files in the same directories, or a rewrite with the
+ * same content, do not cause a reload. The directories are watched rather than
+ * the files so that editors replacing a file, and symbolic link swaps, are seen.
+ * A directory given as one of the files is itself watched, and compared by the
+ * names in it, so that files added to it are seen.
+ */
+final class SettingsWatcher implements Runnable {
+
+    private static final Log log = LogFactory.getLog(SettingsWatcher.class);
+    private static final long quietMillis = 500;
+
+    private final Supplier<Collection<File>> files;
+    private final Runnable reload;
+    private final WatchService watchService;
+    private final Set<Path> directories = new HashSet<>();
+    private final Thread thread;
+    private Map<File, String> fingerprints;
+
+    /**
+     * @param files
+     *        the files to watch, asked again after each reload
+     * @param reload
+     *        run on the watcher thread when the files have changed
+     * @throws IOException if the file system can not be watched
+     */
+    SettingsWatcher(final Supplier<Collection<File>> files, final Runnable reload) throws IOException {
+        this.files = files;
+        this.reload = reload;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.fingerprints = fingerprint(files.get());
+        register(files.get());
+        this.thread = new Thread(this, "SynValve-settings-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop watching and wait for a reload in progress to finish.
+     */
+    void stop() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            log.debug("Error closing settings watcher.", e);
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                drain(watchService.take());
+                // Wait for writes to settle so a half written file is not loaded.
+                WatchKey key;
+                while ((key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+                check();
+            }
+        } catch (final ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Settings watcher stopped.");
+        }
+    }
+
+    private static void drain(final WatchKey key) {
+        key.pollEvents();
+        key.reset();
+    }
+
+    private void check() {
+        final Map<File, String> current = fingerprint(files.get());
+        if (current.equals(fingerprints)) {
+            return;
+        }
+        log.info("Settings changed, reloading.");
+        reload.run();
+        // The reloaded settings may reference different key files.
+        final Collection<File> watched = files.get();
+        fingerprints = fingerprint(watched);
+        register(watched);
+    }
+
+    private void register(final Collection<File> watched) {
+        for (final File file : watched) {
+            final Path directory = file.isDirectory() ? file.getAbsoluteFile().toPath()
+                : file.getAbsoluteFile().toPath().getParent();
+            if (directory == null || directories.contains(directory)) {
+                continue;
+            }
+            try {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.add(directory);
+            } catch (final IOException e) {
+                log.warn("Unable to watch " + directory + " for changes to " + file + ".", e);
+            }
+        }
+    }
+
+    private static Map<File, String> fingerprint(final Collection<File> watched) {
+        final Map<File, String> result = new HashMap<>();
+        for (final File file : watched) {
+            if (file.isDirectory()) {
+                final String[] names = file.list();
+                if (names != null) {
+                    Arrays.sort(names);
+                }
+                result.put(file, Arrays.toString(names));
+                continue;
+            }
+            try {
+                final byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+                result.put(file, Base64.getEncoder().encodeToString(digest));
+            } catch (final IOException e) {
+                result.put(file, "unreadable");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return result;
+    }
+}
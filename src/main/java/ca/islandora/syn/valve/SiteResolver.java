@@ -0,0 +1,398 @@
+package ca.islandora.syn.valve;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Finds the site configured for a request's host or a token's issuer, built
+ * once from the site urls when the settings are loaded.
+ *
+ * Urls are compared normalised: the scheme and host ignore case, a default
+ * port (80 for http, 443 for https) is the same as none, and a trailing slash
+ * or dot is ignored. A site url whose host starts with "*." matches any host
+ * one label below the rest, as https://*.example.org matches
+ * https://a.example.org but not https://example.org or https://a.b.example.org;
+ * a site's own url always wins over a wildcard. Hosts are kept in a trie of
+ * their labels, last label first, and a lookup walks the request's host in
+ * place, so finding a site allocates nothing. Urls that are not of the form
+ * scheme://host[:port][/path] only match an identical issuer.
+ *
+ * A resolver is not changed once built, and may be used from any number of
+ * threads.
+ *
+ * @param <T> what is found for a site
+ */
+public final class SiteResolver<T> {
+
+    private static final Log log = LogFactory.getLog(SiteResolver.class);
+    private static final ThreadLocal<ByteSequence> byteSequences = ThreadLocal.withInitial(ByteSequence::new);
+    private static final ThreadLocal<Url> urls = ThreadLocal.withInitial(Url::new);
+
+    private final Node<T> root = new Node<>();
+    private final Map<String, T> literals = new HashMap<>();
+    private final T defaultValue;
+
+    /**
+     * A site's scheme, port and path, under the node for its host.
+     */
+    private static final class Endpoint<T> {
+        private final String scheme;
+        private final int port;
+        private final String path;
+        private final T value;
+
+        private Endpoint(final String scheme, final int port, final String path, final T value) {
+            this.scheme = scheme;
+            this.port = port;
+            this.path = path;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A host label, with its child labels in an open addressing table keyed
+     * by lower case label.
+     */
+    private static final class Node<T> {
+        private String[] labels = new String[2];
+        private List<Node<T>> children = newChildren(2);
+        private int size = 0;
+        private final List<Endpoint<T>> exact = new ArrayList<>(1);
+        private final List<Endpoint<T>> wildcard = new ArrayList<>(1);
+
+        private static <T> List<Node<T>> newChildren(final int capacity) {
+            final List<Node<T>> children = new ArrayList<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                children.add(null);
+            }
+            return children;
+        }
+
+        private Node<T> child(final CharSequence text, final int start, final int end) {
+            final int mask = labels.length - 1;
+            for (int i = hash(text, start, end) & mask; labels[i] != null; i = (i + 1) & mask) {
+                if (equalsLabel(labels[i], text, start, end)) {
+                    return children.get(i);
+                }
+            }
+            return null;
+        }
+
+        private Node<T> addChild(final String label) {
+            final Node<T> existing = child(label, 0, label.length());
+            if (existing != null) {
+                return existing;
+            }
+            if (2 * (size + 1) > labels.length) {
+                final String[] oldLabels = labels;
+                final List<Node<T>> oldChildren = children;
+                labels = new String[oldLabels.length * 2];
+                children = newChildren(labels.length);
+                for (int i = 0; i < oldLabels.length; i++) {
+                    if (oldLabels[i] != null) {
+                        put(oldLabels[i], oldChildren.get(i));
+                    }
+                }
+            }
+            final Node<T> node = new Node<>();
+            put(label, node);
+            size++;
+            return node;
+        }
+
+        private void put(final String label, final Node<T> node) {
+            final int mask = labels.length - 1;
+            int i = hash(label, 0, label.length()) & mask;
+            while (labels[i] != null) {
+                i = (i + 1) & mask;
+            }
+            labels[i] = label;
+            children.set(i, node);
+        }
+    }
+
+    /**
+     * The parts of a url, as offsets into it.
+     */
+    private static final class Url {
+        private int schemeEnd;
+        private int hostStart;
+        private int hostEnd;
+        private int port;
+        private int pathStart;
+        private int pathEnd;
+    }
+
+    private SiteResolver(final T defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Build a resolver.
+     *
+     * @param sites
+     *        site url and value; a null url is the default site
+     * @param defaultValue
+     *        the value for urls no site matches, used if there is no null url
+     * @param <T> what is found for a site
+     * @return the resolver
+     */
+    public static <T> SiteResolver<T> build(final Map<String, T> sites, final T defaultValue) {
+        final SiteResolver<T> resolver = new SiteResolver<>(sites.containsKey(null) ? sites.get(null) : defaultValue);
+        // Sorted so that which of two urls that normalise the same is kept does not depend on map order.
+        final Map<String, T> sorted = new TreeMap<>();
+        sites.forEach((url, value) -> {
+            if (url != null) {
+                sorted.put(url, value);
+            }
+        });
+        sorted.forEach(resolver::add);
+        return resolver;
+    }
+
+    private void add(final String url, final T value) {
+        final Url parts = new Url();
+        if (!parse(url, parts)) {
+            literals.put(url, value);
+            return;
+        }
+        final boolean wildcard = url.startsWith("*.", parts.hostStart);
+        final int hostStart = wildcard ? parts.hostStart + 2 : parts.hostStart;
+        int end = parts.hostEnd;
+        if (end > hostStart && url.charAt(end - 1) == '.') {
+            end--;
+        }
+        final int star = url.indexOf('*', hostStart);
+        if ((star >= 0 && star < end) || end <= hostStart) {
+            log.error("Only a leading *. label is allowed as a wildcard in site url " + url + ". Site ignored.");
+            return;
+        }
+
+        Node<T> node = root;
+        while (end >= hostStart) {
+            final int dot = url.lastIndexOf('.', end - 1);
+            final int start = Math.max(dot + 1, hostStart);
+            node = node.addChild(url.substring(start, end).toLowerCase());
+            end = start - 1;
+        }
+
+        final List<Endpoint<T>> endpoints = wildcard ? node.wildcard : node.exact;
+        final String scheme = url.substring(0, parts.schemeEnd).toLowerCase();
+        final String path = url.substring(parts.pathStart, parts.pathEnd);
+        if (find(endpoints, scheme, 0, scheme.length(), parts.port, path, 0, path.length()) != null) {
+            log.error("Site url " + url + " is the same as another site's. Site ignored.");
+            return;
+        }
+        endpoints.add(new Endpoint<>(scheme, parts.port, path, value));
+    }
+
+    /**
+     * Find the site for a request.
+     *
+     * @param scheme
+     *        the request scheme
+     * @param host
+     *        the request's server name
+     * @param port
+     *        the request's server port
+     * @return the site's value, or the default
+     */
+    public T resolve(final String scheme, final MessageBytes host, final int port) {
+        switch (host.getType()) {
+            case MessageBytes.T_BYTES:
+                final ByteChunk bytes = host.getByteChunk();
+                final ByteSequence sequence = byteSequences.get();
+                sequence.set(bytes);
+                try {
+                    return resolveHost(scheme, sequence, port);
+                } finally {
+                    sequence.clear();
+                }
+            case MessageBytes.T_CHARS:
+                return resolveHost(scheme, host.getCharChunk(), port);
+            case MessageBytes.T_STR:
+                return resolveHost(scheme, host.getString(), port);
+            default:
+                return defaultValue;
+        }
+    }
+
+    private T resolveHost(final String scheme, final CharSequence host, final int port) {
+        final T value = find(host, 0, host.length(), scheme, 0, scheme.length(),
+            normalisePort(scheme, 0, scheme.length(), port), "", 0, 0);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Find the site for a token's issuer.
+     *
+     * @param issuer
+     *        the issuer, or null
+     * @return the site's value, or the default
+     */
+    public T resolve(final String issuer) {
+        if (issuer == null) {
+            return defaultValue;
+        }
+        T value = null;
+        if (issuer.indexOf(':') >= 0) {
+            final Url parts = urls.get();
+            if (parse(issuer, parts)) {
+                value = find(issuer, parts.hostStart, parts.hostEnd, issuer, 0, parts.schemeEnd, parts.port, issuer,
+                    parts.pathStart, parts.pathEnd);
+            }
+        }
+        if (value == null && !literals.isEmpty()) {
+            value = literals.get(issuer);
+        }
+        return value == null ? defaultValue : value;
+    }
+
+    private T find(final CharSequence host, final int hostStart, final int hostEnd, final CharSequence scheme,
+            final int schemeStart, final int schemeEnd, final int port, final CharSequence path, final int pathStart,
+            final int pathEnd) {
+        int end = hostEnd;
+        // A trailing dot names the same host.
+        if (end > hostStart && host.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == hostStart) {
+            return null;
+        }
+        Node<T> node = root;
+        while (true) {
+            int start = end;
+            while (start > hostStart && host.charAt(start - 1) != '.') {
+                start--;
+            }
+            final Node<T> child = node.child(host, start, end);
+            if (start == hostStart) {
+                final T value = child == null ? null
+                    : find(child.exact, scheme, schemeStart, schemeEnd, port, path, pathStart, pathEnd);
+                return value != null ? value
+                    : find(node.wildcard, scheme, schemeStart, schemeEnd, port, path, pathStart, pathEnd);
+            }
+            if (child == null) {
+                return null;
+            }
+            node = child;
+            end = start - 1;
+        }
+    }
+
+    private static <T> T find(final List<Endpoint<T>> endpoints, final CharSequence scheme, final int schemeStart,
+            final int schemeEnd, final int port, final CharSequence path, final int pathStart, final int pathEnd) {
+        for (int i = 0; i < endpoints.size(); i++) {
+            final Endpoint<T> endpoint = endpoints.get(i);
+            if (endpoint.port == port && equalsLabel(endpoint.scheme, scheme, schemeStart, schemeEnd)
+                    && regionEquals(endpoint.path, path, pathStart, pathEnd)) {
+                return endpoint.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Split a url into scheme, host, port and path, without allocating.
+     *
+     * @return false if the url is not of the form scheme://host[:port][/path]
+     */
+    private static boolean parse(final String url, final Url parts) {
+        final int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            return false;
+        }
+        final int hostStart = schemeEnd + 3;
+        int authorityEnd = hostStart;
+        while (authorityEnd < url.length() && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        if (url.lastIndexOf('@', authorityEnd - 1) >= hostStart) {
+            return false;
+        }
+        int hostEnd = authorityEnd;
+        int port = -1;
+        final int bracket = url.charAt(hostStart) == '[' ? url.indexOf(']', hostStart) : -1;
+        final int colon = url.lastIndexOf(':', authorityEnd - 1);
+        if (colon > Math.max(hostStart, bracket)) {
+            port = 0;
+            for (int i = colon + 1; i < authorityEnd; i++) {
+                final char c = url.charAt(i);
+                if (c < '0' || c > '9' || port > 65535) {
+                    return false;
+                }
+                port = port * 10 + (c - '0');
+            }
+            if (colon + 1 == authorityEnd) {
+                port = -1;
+            }
+            hostEnd = colon;
+        }
+        if (hostEnd == hostStart) {
+            return false;
+        }
+        int pathEnd = url.length();
+        // A trailing slash names the same site.
+        if (pathEnd > authorityEnd && url.charAt(pathEnd - 1) == '/') {
+            pathEnd--;
+        }
+        parts.schemeEnd = schemeEnd;
+        parts.hostStart = hostStart;
+        parts.hostEnd = hostEnd;
+        parts.port = normalisePort(url, 0, schemeEnd, port);
+        parts.pathStart = Math.min(authorityEnd, pathEnd);
+        parts.pathEnd = pathEnd;
+        return true;
+    }
+
+    private static int normalisePort(final CharSequence scheme, final int start, final int end, final int port) {
+        if ((port == 80 && equalsLabel("http", scheme, start, end))
+                || (port == 443 && equalsLabel("https", scheme, start, end))) {
+            return -1;
+        }
+        return port;
+    }
+
+    private static int hash(final CharSequence text, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compare a lower case label with a region of text, ignoring the text's case.
+     */
+    private static boolean equalsLabel(final String label, final CharSequence text, final int start, final int end) {
+        if (label.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < label.length(); i++) {
+            if (label.charAt(i) != Character.toLowerCase(text.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(final String value, final CharSequence text, final int start, final int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,12 +1,10 @@
 package ca.islandora.syn.valve;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
@@ -14,23 +12,22 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
-import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.MessageBytes;
-import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
 
-import com.auth0.jwt.algorithms.Algorithm;
-
-import ca.islandora.syn.settings.Config;
-import ca.islandora.syn.settings.SettingsParser;
-import ca.islandora.syn.settings.Token;
+import ca.islandora.syn.settings.KeyMaterialCache;
+import ca.islandora.syn.settings.SettingsFragments;
+import ca.islandora.syn.token.SiteVerifier;
+import ca.islandora.syn.token.TokenDigest;
+import ca.islandora.syn.token.TokenFailure;
 import ca.islandora.syn.token.Verifier;
 
 public class SynValve extends ValveBase {
 
     private String pathname = "conf/syn-settings.xml";
+    private String fragments = "syn.d";
     private static final Log log = LogFactory.getLog(SynValve.class);
     private static final List<String> adminRole = new ArrayList<>();
     private static final List<String> userRole = new ArrayList<>();
@@ -40,43 +37,50 @@ public class SynValve extends ValveBase {
         userRole.add("fedoraUser");
     }
 
-    private static final String adminUserRole = "fedoraAdmin";
+    private static final Identity anonymousIdentity = Identity.create("anonymous",
+        Arrays.asList("anonymous", "islandora"));
 
-    private Map<String, Algorithm> algorithmMap = null;
-    private Map<String, Token> staticTokenMap = null;
-    private Map<String, Boolean> anonymousGetMap = null;
-    private String roleHeader = null;
-    private boolean isDisabled = false;
+    // Replaced as a whole on reload; read once per request so a request sees one configuration.
+    private volatile ValveState state = null;
+    private boolean reloadable = false;
+    private File settingsFile = null;
+    private File fragmentsDirectory = null;
+    private final SettingsFragments settingsFragments = new SettingsFragments();
+    private final KeyMaterialCache keyCache = new KeyMaterialCache();
+    private final ConstraintDecisions constraintDecisions = new ConstraintDecisions();
+    private SettingsWatcher watcher = null;
 
     @Override
     public void invoke(final Request request, final Response response)
             throws IOException, ServletException {
 
-        final SecurityConstraint[] constraints = this.container.getRealm()
-                .findSecurityConstraints(request, request.getContext());
-
-        if (this.isDisabled || (constraints == null
-                && !request.getContext().getPreemptiveAuthentication())
-            || !hasAuthConstraint(constraints)) {
+        final ValveState state = this.state;
+        if (state.isDisabled() || !requiresAuthentication(request)) {
             this.getNext().invoke(request, response);
         } else {
-            handleAuthentication(request, response);
+            handleAuthentication(request, response, state);
         }
     }
 
     /**
-     * Does the current context have an auth-constraint
+     * Whether the request's security constraints require authentication.
+     * Without a constraint, a context with preemptive authentication still
+     * authenticates a request that carries credentials.
      *
-     * @param constraints
-     *        security constraints for the current context and request
+     * @param request
+     *        the current request
      * @return boolean if authentication is required.
      */
-    private boolean hasAuthConstraint(final SecurityConstraint[] constraints) {
-        boolean authConstraint = true;
-        for (final SecurityConstraint securityConstraint : constraints) {
-            authConstraint &= securityConstraint.getAuthConstraint();
+    private boolean requiresAuthentication(final Request request) {
+        switch (constraintDecisions.decide(this.container.getRealm(), request)) {
+            case AUTHENTICATE:
+                return true;
+            case UNCONSTRAINED:
+                return request.getContext().getPreemptiveAuthentication()
+                    && request.getCoyoteRequest().getMimeHeaders().getValue("Authorization") != null;
+            default:
+                return false;
         }
-        return authConstraint;
     }
 
     /**
@@ -86,20 +90,18 @@ public class SynValve extends ValveBase {
      *        the current request
      * @param response
      *        the current response
+     * @param state
+     *        the configuration for this request
      * @throws IOException
      * @throws ServletException
      */
-    private void handleAuthentication(final Request request, final Response response)
+    private void handleAuthentication(final Request request, final Response response, final ValveState state)
             throws IOException, ServletException {
-        final String requestHost = request.getScheme() + "://" + request.getServerName() +
-                (request.getServerPort() != 80 ? ":" + request.getServerPort() : "");
-        if ((request.getMethod().equalsIgnoreCase("GET") ||
-                request.getMethod().equals("HEAD")) &&
-                allowGetRequests(requestHost)) {
+        if (allowAnonymousRequest(request, state)) {
             // Skip authentication
-            setAnonymousRoles(request);
+            setAnonymousRoles(request, state);
             this.getNext().invoke(request, response);
-        } else if (doAuthentication(request)) {
+        } else if (doAuthentication(request, state)) {
             this.getNext().invoke(request, response);
         } else {
             response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Token authentication failed.");
@@ -111,156 +113,230 @@ public class SynValve extends ValveBase {
      *
      * @param request
      *        the incoming request
+     * @param state
+     *        the configuration for this request
      * @return true if we are authorized, false otherwise.
      */
-    private boolean doAuthentication(final Request request) {
-        String token = request.getHeader("Authorization");
-        if (token == null) {
+    private boolean doAuthentication(final Request request, final ValveState state) {
+        final MessageBytes header = request.getCoyoteRequest().getMimeHeaders().getValue("Authorization");
+        if (header == null) {
             log.info("Request did not contain any token.");
             return false;
         }
 
-        final String[] tokenParts = token.split(" ");
-        if (tokenParts.length != 2 || !tokenParts[0].equalsIgnoreCase("bearer")) {
-            log.info("Token was malformed. Token: " + token);
+        final BearerToken token = BearerToken.parse(header);
+        if (token == null) {
+            log.info("Token was malformed.");
             return false;
         }
 
-        // strip bearer off of the token
-        token = tokenParts[1];
+        // reject oversized tokens before reading them at all
+        final TokenFailure format = token.checkFormat(state.getMaxTokenLength());
+        if (format == TokenFailure.TOO_LARGE) {
+            log.debug(format.getMessage() + ": " + token.length() + " bytes.");
+            return false;
+        }
 
         // check if we have a static token that matches
-        if (this.staticTokenMap.containsKey(token)) {
+        final TokenDigest digest = token.digest();
+        final Identity staticIdentity = state.findStaticIdentity(digest);
+        if (staticIdentity != null) {
             log.info("Site verified using static token.");
-            setUserRolesFromStaticToken(request, this.staticTokenMap.get(token));
+            addToRequest(request, staticIdentity, state);
             request.setAuthType("SYN");
             return true;
         }
 
-        final Verifier verifier = Verifier.create(token);
-        if (verifier == null) {
-            log.info("Token rejected for not containing correct claims.");
+        // anything else must at least look like a JWT
+        if (format != null) {
+            log.debug(format.getMessage() + ".");
             return false;
         }
 
-        final String url = verifier.getUrl();
-        Algorithm algorithm = null;
-        if (algorithmMap.containsKey(url)) {
-            algorithm = algorithmMap.get(url);
-        } else if (algorithmMap.containsKey(null)) {
-            algorithm = algorithmMap.get(null);
+        // check if we have already verified this token with a key still configured
+        final VerifiedToken cached = findCached(digest, state);
+        if (cached != null) {
+            log.debug("Token verified from cache.");
+            addToRequest(request, cached.getIdentity(), state);
+            request.setAuthType("SYN");
+            return true;
         }
 
-        if (algorithm == null) {
-            log.info("No key found for site: " + url + ".");
+        // check if we have recently rejected this token
+        final TokenFailure knownFailure = state.getFailureCache().get(digest);
+        if (knownFailure != null) {
+            log.debug("Token rejected from cache: " + knownFailure.getMessage() + ".");
             return false;
         }
 
-        if (verifier.verify(algorithm)) {
+        // concurrent requests with the same new token share one verification
+        final VerifiedToken verified = state.getVerifications().run(digest, () -> verify(token, digest, state));
+        if (verified == null) {
+            return false;
+        }
+        addToRequest(request, verified.getIdentity(), state);
+        request.setAuthType("SYN");
+        return true;
+    }
+
+    /**
+     * Verify a JWT, remembering the outcome in the verified or rejected token
+     * cache
+     *
+     * @param token
+     *        the bearer token
+     * @param digest
+     *        the token digest
+     * @param state
+     *        the configuration for this request
+     * @return the verified token, or null if it was rejected
+     */
+    private VerifiedToken verify(final BearerToken token, final TokenDigest digest, final ValveState state) {
+        // a request that missed the caches just as another verification of the token finished leads a new one
+        final VerifiedToken cached = findCached(digest, state);
+        if (cached != null) {
+            log.debug("Token verified from cache.");
+            return cached;
+        }
+        if (state.getFailureCache().get(digest) != null) {
+            log.debug("Token rejected from cache.");
+            return null;
+        }
+
+        final Verifier verifier = token.decode();
+        if (verifier == null) {
+            return reject(state, digest, TokenFailure.MISSING_CLAIMS, null);
+        }
+
+        if (verifier.getRoleCount() > state.getMaxRoles()) {
+            return reject(state, digest, TokenFailure.TOO_MANY_ROLES, verifier.getUrl());
+        }
+
+        final String url = verifier.getUrl();
+        final SiteVerifier siteVerifier = state.findVerifier(url);
+        if (siteVerifier == null) {
+            return reject(state, digest, TokenFailure.UNKNOWN_ISSUER, url);
+        }
+
+        // The resolver found the site by the normalised issuer, which is all the issuer check needs.
+        final TokenFailure failure = siteVerifier.checkMatched(verifier);
+        if (failure == null) {
             log.info("Site verified: " + url);
-            setUserRolesFromToken(request, verifier);
-            request.setAuthType("SYN");
-            return true;
+            final VerifiedToken verified = new VerifiedToken(getIdentityFromToken(verifier), url, siteVerifier);
+            state.getTokenCache().put(digest, verified, verifier.getExpiresAt().getTime());
+            return verified;
         } else {
-            log.info("Token failed signature verification: " + url);
-            return false;
+            return reject(state, digest, failure, url);
         }
     }
 
     /**
-     * Set principal and header with roles for anoymous
+     * Get a token verified earlier, if the verifier that verified it is still
+     * the one configured for its site
      *
-     * @param request
-     *        the incoming request
+     * @param digest
+     *        the token digest
+     * @param state
+     *        the configuration for this request
+     * @return the verified token, or null
      */
-    private void setAnonymousRoles(final Request request) {
-        final List<String> roles = new ArrayList<String>();
-        roles.add("anonymous");
-        roles.add("islandora");
-        final String name = "anonymous";
-        addToRequest(request, name, roles);
+    private static VerifiedToken findCached(final TokenDigest digest, final ValveState state) {
+        final VerifiedToken cached = state.getTokenCache().get(digest);
+        if (cached == null) {
+            return null;
+        }
+        if (state.findVerifier(cached.getIssuer()) == cached.getVerifier()) {
+            return cached;
+        }
+        state.getTokenCache().remove(digest);
+        return null;
     }
 
     /**
-     * Set principal and header with roles on the request from a static configured
-     * token
+     * Log a rejected token and remember it if it can never succeed
      *
-     * @param request
-     *        the incoming request
-     * @param token
-     *        the static token
+     * @param state
+     *        the configuration for this request
+     * @param digest
+     *        the token digest
+     * @param failure
+     *        why the token was rejected
+     * @param url
+     *        the site the token claims to be from, if known
+     * @return null
      */
-    private void setUserRolesFromStaticToken(final Request request, final Token token) {
-        final List<String> roles = token.getRoles();
-        roles.add("islandora");
-        final String name = token.getUser();
-        addToRequest(request, name, roles);
+    private VerifiedToken reject(final ValveState state, final TokenDigest digest, final TokenFailure failure,
+            final String url) {
+        log.info(failure.getMessage() + (url == null ? "." : ": " + url));
+        if (failure.isCacheable()) {
+            state.getFailureCache().put(digest, failure, Long.MAX_VALUE);
+        }
+        return null;
     }
 
     /**
-     * Set principal and header with roles on the request from the JWT token
+     * Set principal and header with roles for anoymous
      *
      * @param request
      *        the incoming request
+     * @param state
+     *        the configuration for this request
+     */
+    private void setAnonymousRoles(final Request request, final ValveState state) {
+        addToRequest(request, anonymousIdentity, state);
+    }
+
+    /**
+     * Get the identity with roles from the JWT token
+     *
      * @param verifier
      *        the JWT verifier
+     * @return the identity for the token
      */
-    private void setUserRolesFromToken(final Request request, final Verifier verifier) {
+    private Identity getIdentityFromToken(final Verifier verifier) {
         final List<String> roles = verifier.getRoles();
         roles.add("islandora");
         roles.add(verifier.getUrl());
-        final String name = verifier.getName();
-        addToRequest(request, name, roles);
+        return Identity.create(verifier.getName(), roles);
     }
 
-
     /**
-     * Do the logic of allowing GET/HEAD requests.
+     * Do the logic of allowing requests without a token: the anonymous rules
+     * of the matching site, else the default site's, else not allowed.
      *
-     * @param requestURI the site being requested
-     * @return whether to allow GET requests without authentication.
+     * @param request the incoming request
+     * @param state the configuration for this request
+     * @return whether to allow the request without authentication.
      */
-    private boolean allowGetRequests(final String requestURI) {
-        // If there is a matching site URI, return its value
-        if (anonymousGetMap.containsKey(requestURI)) {
-            log.debug(
-                String.format(
-                    "Using site anonymous ({}) for GET/HEAD requests, site {}",
-                    anonymousGetMap.get(requestURI),
-                    requestURI));
-            return anonymousGetMap.get(requestURI);
-            // Else if there is a default, return its value.
-        } else if (anonymousGetMap.containsKey("default")) {
-            log.debug(
-                String.format(
-                    "Using default anonymous ({}) for GET/HEAD requests, host {}",
-                    anonymousGetMap.get("default"),
-                    requestURI));
-            return anonymousGetMap.get("default");
+    private boolean allowAnonymousRequest(final Request request, final ValveState state) {
+        final String scheme = request.getScheme();
+        final MessageBytes host = request.getCoyoteRequest().serverName();
+        final int port = request.getServerPort();
+        final String method = request.getMethod();
+        final MessageBytes path = request.getCoyoteRequest().decodedURI();
+        final boolean allowed = state.findAnonymousPolicy(scheme, host, port).allows(method, path);
+        if (log.isDebugEnabled()) {
+            log.debug("Anonymous " + method + " request " + (allowed ? "allowed" : "not allowed") + " for "
+                + scheme + "://" + host + ":" + port + path);
         }
-        // Else disallow anonymous.
-        return false;
+        return allowed;
     }
 
     /**
-     * Add all roles to a pre-configured header and set the single role to either
-     * fedoraUser or fedoraAdmin based on whether they have an existing role that
-     * matches `adminUserRole`
+     * Add the identity's roles to a pre-configured header and set its principal
+     * on the request
      *
      * @param request
      *        the incoming request
-     * @param username
-     *        the username to set on the principal
-     * @param roles
-     *        the roles to set on the HTTP header
+     * @param identity
+     *        the authenticated identity
+     * @param state
+     *        the configuration for this request
      */
-    private void addToRequest(final Request request, final String username, final List<String> roles) {
-        final MessageBytes mb = request.getCoyoteRequest().getMimeHeaders().addValue(this.roleHeader);
-        mb.setString(String.join(",", roles));
-        final List<String> fedoraRole = Arrays
-                .asList(roles.stream().anyMatch(t -> t.equalsIgnoreCase(adminUserRole)) ? "fedoraAdmin" : "fedoraUser");
-        final GenericPrincipal principal = new GenericPrincipal(username, null, fedoraRole);
-        request.setUserPrincipal(principal);
+    private void addToRequest(final Request request, final Identity identity, final ValveState state) {
+        final MessageBytes mb = request.getCoyoteRequest().getMimeHeaders().addValue(state.getRoleHeader());
+        mb.setString(identity.getRoleHeader());
+        request.setUserPrincipal(identity.getPrincipal());
     }
 
     /**
@@ -282,29 +358,121 @@ public class SynValve extends ValveBase {
         this.pathname = pathname;
     }
 
+    /**
+     * Return the directory of settings fragments.
+     *
+     * @return the path, relative to the settings file's directory
+     */
+    public String getFragments() {
+        return fragments;
+    }
+
+    /**
+     * Set with fragments="" on the Valve config. Each *.xml file in the
+     * directory adds its sites and tokens to the settings file's; a relative
+     * path is taken from the settings file's directory, and an empty one turns
+     * fragments off.
+     */
+    public void setFragments(final String fragments) {
+        this.fragments = fragments;
+    }
+
+    /**
+     * Whether changes to the settings file and the key files it references are
+     * loaded without restarting Tomcat.
+     *
+     * @return true if the settings are reloaded on change
+     */
+    public boolean getReloadable() {
+        return reloadable;
+    }
+
+    /**
+     * Set with reloadable="true" on the Valve config.
+     */
+    public void setReloadable(final boolean reloadable) {
+        this.reloadable = reloadable;
+    }
+
     @Override
     public synchronized void startInternal() throws LifecycleException {
         // Perform normal superclass initialization
         super.startInternal();
         // Validate the existence of our database file
-        File file = new File(pathname);
-        if (!file.isAbsolute()) {
-            file = new File(System.getProperty("catalina.base"), pathname);
-        }
-        if (!file.exists() || !file.canRead()) {
+        settingsFile = ValveState.resolve(pathname);
+        if (!settingsFile.exists() || !settingsFile.canRead()) {
             throw new LifecycleException("Unable to load XML Configuration from Path: " + pathname);
         }
+        fragmentsDirectory = resolveFragments(settingsFile, fragments);
 
         // Load the contents of the database file
         try {
-            final Config sites = SettingsParser.getSites(new FileInputStream(file));
-            this.algorithmMap = SettingsParser.getSiteAlgorithms(sites);
-            this.staticTokenMap = SettingsParser.getSiteStaticTokens(sites);
-            this.anonymousGetMap = SettingsParser.getSiteAllowAnonymous(sites);
-            this.roleHeader = sites.getHeader();
-            this.isDisabled = sites.getDisabled();
+            this.state = ValveState.load(settingsFile, fragmentsDirectory, settingsFragments, keyCache, null);
+            keyCache.retainLatest();
         } catch (final Exception e) {
             throw new LifecycleException("Error parsing XML Configuration", e);
         }
+        try {
+            final int loaded = this.state.loadTokenCache();
+            if (loaded > 0) {
+                log.info("Loaded " + loaded + " verified tokens from the token cache file.");
+            }
+        } catch (final IOException e) {
+            log.warn("Unable to load the token cache file, starting with an empty cache: " + e.getMessage());
+        }
+
+        if (reloadable) {
+            try {
+                watcher = new SettingsWatcher(() -> this.state.getFiles(), this::reload);
+            } catch (final IOException e) {
+                throw new LifecycleException("Unable to watch XML Configuration for changes", e);
+            }
+            watcher.start();
+        }
+    }
+
+    @Override
+    public synchronized void stopInternal() throws LifecycleException {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+        if (this.state != null) {
+            try {
+                final int saved = this.state.saveTokenCache();
+                if (saved > 0) {
+                    log.info("Saved " + saved + " verified tokens to the token cache file.");
+                }
+            } catch (final IOException e) {
+                log.error("Unable to save the token cache file.", e);
+            }
+        }
+        keyCache.close();
+        constraintDecisions.clear();
+        super.stopInternal();
+    }
+
+    /**
+     * Load the settings again and publish them, keeping the current ones if
+     * they can not be loaded. Runs on the watcher thread; requests carry on with
+     * the current settings until the new ones are complete.
+     */
+    private void reload() {
+        try {
+            this.state = ValveState.load(settingsFile, fragmentsDirectory, settingsFragments, keyCache,
+                this.state);
+            keyCache.retainLatest();
+            log.info("Reloaded XML Configuration from " + settingsFile);
+        } catch (final Exception e) {
+            log.error("Error reloading XML Configuration, keeping the current one.", e);
+        }
+    }
+
+    private static File resolveFragments(final File settings, final String fragments) {
+        if (fragments == null || fragments.isEmpty()) {
+            return null;
+        }
+        final File directory = new File(fragments);
+        return directory.isAbsolute() ? directory : new File(settings.getAbsoluteFile().getParentFile(), fragments);
     }
 }
@@ -0,0 +1,382 @@
+package ca.islandora.syn.valve;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.catalina.realm.GenericPrincipal;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+import ca.islandora.syn.settings.Config;
+import ca.islandora.syn.settings.KeyMaterialCache;
+import ca.islandora.syn.settings.SettingsFragments;
+import ca.islandora.syn.settings.SettingsParser;
+import ca.islandora.syn.settings.Site;
+import ca.islandora.syn.settings.SiteKey;
+import ca.islandora.syn.token.SingleFlight;
+import ca.islandora.syn.token.SiteVerifier;
+import ca.islandora.syn.token.StaticTokenStore;
+import ca.islandora.syn.token.TokenCache;
+import ca.islandora.syn.token.TokenCacheFile;
+import ca.islandora.syn.token.TokenDigest;
+import ca.islandora.syn.token.TokenFailure;
+
+/**
+ * Everything the valve derives from one load of syn-settings.xml and its
+ * fragments.
+ *
+ * A state is built completely before the valve publishes it and is not changed
+ * afterwards, so a request that reads it once sees a single consistent
+ * configuration.
+ *
+ * Keys that have not changed since the previous state keep their site
+ * verifiers, and the verified token cache is handed on when its settings are
+ * unchanged; its entries are bound to the verifier that accepted them. The
+ * rejected token cache starts empty, as a new key may accept what was
+ * rejected. Verifications in progress are shared only within a state, so a
+ * token is never accepted on behalf of another state's keys.
+ */
+final class ValveState {
+
+    // Static token file hits whose identities are kept, so the tokens in use are not rebuilt on every request.
+    private static final int staticIdentityCacheSize = 1024;
+
+    private final SiteResolver<SiteVerifier> verifiers;
+    private final Map<TokenDigest, Identity> staticTokenMap;
+    private final StaticTokenStore staticTokenStore;
+    private final TokenCache<Identity> staticIdentities;
+    private final SiteResolver<AnonymousPolicy> anonymousPolicies;
+    private final String roleHeader;
+    private final boolean isDisabled;
+    private final TokenCache<VerifiedToken> tokenCache;
+    private final TokenCache<TokenFailure> failureCache;
+    private final SingleFlight<VerifiedToken> verifications;
+    private final int maxTokenLength;
+    private final int maxRoles;
+    private final int cacheSize;
+    private final int cacheTtl;
+    private final Set<File> files;
+    private final File cacheFile;
+    private final byte[] fingerprint;
+
+    private ValveState(final Config sites, final File settings, final File fragmentsDirectory,
+            final KeyMaterialCache keys, final ValveState previous) throws IOException {
+        this.verifiers = SiteResolver.build(SettingsParser.getSiteVerifiers(sites, keys), null);
+        final Map<TokenDigest, Identity> staticTokens = new HashMap<>();
+        SettingsParser.getSiteStaticTokens(sites)
+            .forEach((t, v) -> staticTokens.put(TokenDigest.of(t), getStaticTokenIdentity(v.getUser(), v.getRoles())));
+        this.staticTokenMap = Collections.unmodifiableMap(staticTokens);
+        final File staticTokenFile = sites.getStaticTokens() == null || sites.getStaticTokens().isEmpty() ? null
+            : resolve(sites.getStaticTokens());
+        this.staticTokenStore = staticTokenFile == null ? null : StaticTokenStore.open(staticTokenFile);
+        this.staticIdentities = staticTokenFile == null ? null
+            : new TokenCache<>(staticIdentityCacheSize, Integer.MAX_VALUE);
+        final Map<String, AnonymousPolicy> policies = new HashMap<>();
+        SettingsParser.getSiteAnonymousRules(sites).forEach((u, r) -> policies.put(u, AnonymousPolicy.compile(u, r)));
+        final AnonymousPolicy defaultPolicy = policies.remove("default");
+        this.anonymousPolicies = SiteResolver.build(policies,
+            defaultPolicy == null ? AnonymousPolicy.NONE : defaultPolicy);
+        this.roleHeader = sites.getHeader();
+        this.isDisabled = sites.getDisabled();
+        this.failureCache = new TokenCache<>(sites.getNegativeCacheSize(), sites.getNegativeCacheTtl());
+        this.verifications = new SingleFlight<>(sites.getVerifyWait());
+        this.maxTokenLength = sites.getMaxTokenLength();
+        this.maxRoles = sites.getMaxRoles();
+        this.cacheSize = sites.getCacheSize();
+        this.cacheTtl = sites.getCacheTtl();
+        if (previous != null && previous.cacheSize == cacheSize && previous.cacheTtl == cacheTtl
+                && previous.maxRoles == maxRoles) {
+            this.tokenCache = previous.tokenCache;
+        } else {
+            this.tokenCache = new TokenCache<>(cacheSize, cacheTtl);
+        }
+
+        final Set<File> referenced = new LinkedHashSet<>();
+        referenced.add(settings);
+        if (staticTokenFile != null) {
+            referenced.add(staticTokenFile);
+        }
+        if (fragmentsDirectory != null) {
+            // Watched as a whole, so that fragments being added are seen.
+            referenced.add(fragmentsDirectory);
+            referenced.addAll(SettingsFragments.listFragments(fragmentsDirectory));
+        }
+        for (final Site site : sites.getSites()) {
+            if (site.getPath() != null && !site.getPath().isEmpty()) {
+                referenced.add(resolve(site.getPath()));
+            }
+            for (final SiteKey key : site.getKeys()) {
+                if (key.getPath() != null && !key.getPath().isEmpty()) {
+                    referenced.add(resolve(key.getPath()));
+                }
+            }
+        }
+        this.files = Collections.unmodifiableSet(referenced);
+
+        this.cacheFile = sites.getCacheFile() == null || sites.getCacheFile().isEmpty() ? null
+            : resolve(sites.getCacheFile());
+        this.fingerprint = cacheFile == null ? null : fingerprint(files);
+    }
+
+    /**
+     * A digest of the files a configuration is loaded from, so that anything
+     * saved under one is not loaded under another.
+     */
+    private static byte[] fingerprint(final Set<File> files) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final byte[] buffer = new byte[8192];
+        for (final File file : files) {
+            digest.update(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (file.isFile()) {
+                try (final InputStream in = new FileInputStream(file)) {
+                    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Load the settings file, its fragments and every key they reference.
+     *
+     * @param settings
+     *        the settings file
+     * @param fragmentsDirectory
+     *        the directory of settings fragments, or null
+     * @param fragments
+     *        files parsed by earlier loads, updated to this one
+     * @param keys
+     *        keys parsed by earlier loads; call {@link KeyMaterialCache#retainLatest()} once this state is in use
+     * @param previous
+     *        the state being replaced, or null
+     * @return the loaded state
+     * @throws IOException if the file can not be read or parsed
+     */
+    static ValveState load(final File settings, final File fragmentsDirectory, final SettingsFragments fragments,
+            final KeyMaterialCache keys, final ValveState previous) throws IOException {
+        final Config sites = fragments.load(settings, fragmentsDirectory);
+        return new ValveState(sites, settings, fragmentsDirectory, keys, previous);
+    }
+
+    /**
+     * Resolve a configured path, relative paths being under catalina.base.
+     *
+     * @param pathname
+     *        the configured path
+     * @return the file
+     */
+    static File resolve(final String pathname) {
+        final File file = new File(pathname);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(System.getProperty("catalina.base"), pathname);
+    }
+
+    /**
+     * Build the principal and header with roles for a static configured token
+     *
+     * @param user
+     *        the user the token authenticates as
+     * @param tokenRoles
+     *        the token's roles
+     * @return the identity to set on requests presenting the token
+     */
+    private static Identity getStaticTokenIdentity(final String user, final List<String> tokenRoles) {
+        final List<String> roles = new ArrayList<>(tokenRoles);
+        roles.add("islandora");
+        return Identity.create(user, roles);
+    }
+
+    /**
+     * Find the verifier for a token's issuer, falling back to the default site.
+     *
+     * @param issuer
+     *        the issuer claimed by the token
+     * @return the verifier, or null if there is none
+     */
+    SiteVerifier findVerifier(final String issuer) {
+        return verifiers.resolve(issuer);
+    }
+
+    /**
+     * Find the identity for a static token, from the settings or else the
+     * static token file. Identities found in the file are kept in a small
+     * cache, so a token in use is not rebuilt on every request.
+     *
+     * @param digest
+     *        the token digest
+     * @return the identity, or null if the token is not a static token
+     */
+    Identity findStaticIdentity(final TokenDigest digest) {
+        final Identity identity = staticTokenMap.get(digest);
+        if (identity != null || staticTokenStore == null) {
+            return identity;
+        }
+        final Identity cached = staticIdentities.get(digest);
+        if (cached != null) {
+            return cached;
+        }
+        final StaticTokenStore.Record record = staticTokenStore.find(digest);
+        if (record == null) {
+            return null;
+        }
+        final Identity created = getStaticTokenIdentity(record.getUser(), record.getRoles());
+        staticIdentities.put(digest, created, Long.MAX_VALUE);
+        return created;
+    }
+
+    /**
+     * The requests the site for a request lets through without a token,
+     * falling back to the default site.
+     *
+     * @param scheme
+     *        the request scheme
+     * @param host
+     *        the request's server name
+     * @param port
+     *        the request's server port
+     * @return the site's anonymous policy
+     */
+    AnonymousPolicy findAnonymousPolicy(final String scheme, final MessageBytes host, final int port) {
+        return anonymousPolicies.resolve(scheme, host, port);
+    }
+
+    String getRoleHeader() {
+        return roleHeader;
+    }
+
+    boolean isDisabled() {
+        return isDisabled;
+    }
+
+    TokenCache<VerifiedToken> getTokenCache() {
+        return tokenCache;
+    }
+
+    TokenCache<TokenFailure> getFailureCache() {
+        return failureCache;
+    }
+
+    SingleFlight<VerifiedToken> getVerifications() {
+        return verifications;
+    }
+
+    int getMaxTokenLength() {
+        return maxTokenLength;
+    }
+
+    int getMaxRoles() {
+        return maxRoles;
+    }
+
+    /**
+     * Save the verified token cache to the configured cache file, if there is
+     * one.
+     *
+     * @return the number of tokens saved
+     * @throws IOException if the file can not be written
+     */
+    int saveTokenCache() throws IOException {
+        if (cacheFile == null || cacheSize <= 0) {
+            return 0;
+        }
+        return TokenCacheFile.write(cacheFile.toPath(), tokenCache, getCacheFileKey(), new VerifiedTokenCodec());
+    }
+
+    /**
+     * Load the verified token cache from the configured cache file, if there
+     * is one and it was saved with the same settings and keys. Tokens from
+     * sites no longer configured are left out.
+     *
+     * @return the number of tokens loaded
+     * @throws IOException if the file can not be read or was not saved with
+     *         these settings
+     */
+    int loadTokenCache() throws IOException {
+        if (cacheFile == null || cacheSize <= 0 || !cacheFile.exists()) {
+            return 0;
+        }
+        return TokenCacheFile.read(cacheFile.toPath(), tokenCache, getCacheFileKey(), new VerifiedTokenCodec());
+    }
+
+    /**
+     * The cache file's HMAC key: its secret, kept in a .key file beside it,
+     * bound to the files this state was loaded from.
+     */
+    private byte[] getCacheFileKey() throws IOException {
+        final File secretFile = new File(cacheFile.getAbsolutePath() + ".key");
+        return TokenCacheFile.key(TokenCacheFile.secret(secretFile.toPath()), fingerprint);
+    }
+
+    /**
+     * Writes a verified token as its issuer, principal name and roles and roles
+     * header, and reads it back bound to this state's verifier for the issuer.
+     * Tokens verified with refreshed keys are left out, as their key may have
+     * been withdrawn by the time they are read back.
+     */
+    private final class VerifiedTokenCodec implements TokenCacheFile.Codec<VerifiedToken> {
+        @Override
+        public boolean write(final DataOutput out, final VerifiedToken token) throws IOException {
+            if (token.getVerifier().hasRefreshedKeys()) {
+                return false;
+            }
+            final GenericPrincipal principal = token.getIdentity().getPrincipal();
+            out.writeUTF(token.getIssuer());
+            out.writeUTF(principal.getName());
+            out.writeShort(principal.getRoles().length);
+            for (final String role : principal.getRoles()) {
+                out.writeUTF(role);
+            }
+            final byte[] header = token.getIdentity().getRoleHeader().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(header.length);
+            out.write(header);
+            return true;
+        }
+
+        @Override
+        public VerifiedToken read(final DataInput in) throws IOException {
+            final String issuer = in.readUTF();
+            final String name = in.readUTF();
+            final List<String> roles = new ArrayList<>();
+            for (int i = in.readUnsignedShort(); i > 0; i--) {
+                roles.add(in.readUTF());
+            }
+            final byte[] header = new byte[in.readInt()];
+            in.readFully(header);
+            final SiteVerifier verifier = findVerifier(issuer);
+            return verifier == null ? null : new VerifiedToken(
+                Identity.restore(name, roles, new String(header, StandardCharsets.UTF_8)), issuer, verifier);
+        }
+    }
+
+    /**
+     * @return the settings file, the fragments directory and files, the static
+     *         token file and the key files they reference
+     */
+    Set<File> getFiles() {
+        return files;
+    }
+}
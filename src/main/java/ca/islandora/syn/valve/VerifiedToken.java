@@ -0,0 +1,36 @@
+package ca.islandora.syn.valve;
+
+import ca.islandora.syn.token.SiteVerifier;
+
+/**
+ * A token the valve has verified: the identity it grants, and the site verifier
+ * that accepted it, so it is only trusted while that is still the verifier
+ * configured for its issuer.
+ */
+final class VerifiedToken {
+
+    private final Identity identity;
+    private final String issuer;
+    private final SiteVerifier verifier;
+
+    VerifiedToken(final Identity identity, final String issuer, final SiteVerifier verifier) {
+        this.identity = identity;
+        this.issuer = issuer;
+        this.verifier = verifier;
+    }
+
+    Identity getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return the issuer claimed by the token
+     */
+    String getIssuer() {
+        return issuer;
+    }
+
+    SiteVerifier getVerifier() {
+        return verifier;
+    }
+}
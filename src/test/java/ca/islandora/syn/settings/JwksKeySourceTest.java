@@ -0,0 +1,236 @@
+package ca.islandora.syn.settings;
+
+import static ca.islandora.syn.token.TestTokens.createToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.islandora.syn.token.SiteVerifier;
+import ca.islandora.syn.token.TokenFailure;
+import ca.islandora.syn.token.Verifier;
+
+public class JwksKeySourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile String body = "";
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/jwks", exchange -> {
+            requests.incrementAndGet();
+            final byte[] response = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, response.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/jwks";
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    private static String encode(final byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static String encode(final BigInteger number) {
+        final byte[] bytes = number.toByteArray();
+        // Drop the sign byte, JWK numbers are unsigned.
+        return bytes[0] == 0 ? encode(Arrays.copyOfRange(bytes, 1, bytes.length)) : encode(bytes);
+    }
+
+    private static String octKey(final String kid, final String secret) {
+        return "{\"kty\":\"oct\",\"kid\":\"" + kid + "\",\"k\":\"" + encode(secret.getBytes()) + "\"}";
+    }
+
+    private static String keySet(final String... keys) {
+        return "{\"keys\":[" + String.join(",", keys) + "]}";
+    }
+
+    private void awaitRefresh() throws Exception {
+        executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRsaKeysFromFile() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair pair = generator.generateKeyPair();
+        final RSAPublicKey publicKey = (RSAPublicKey) pair.getPublic();
+        final KeyPair encryption = generator.generateKeyPair();
+        final RSAPublicKey encryptionKey = (RSAPublicKey) encryption.getPublic();
+        final File file = temporaryFolder.newFile("jwks.json");
+        Files.write(file.toPath(), keySet(
+                octKey("hmac", "secret"),
+                "{\"kty\":\"RSA\",\"kid\":\"enc\",\"use\":\"enc\",\"n\":\"" + encode(encryptionKey.getModulus())
+                    + "\",\"e\":\"" + encode(encryptionKey.getPublicExponent()) + "\"}",
+                "{\"kty\":\"RSA\",\"kid\":\"rsa\",\"alg\":\"RS256\",\"use\":\"sig\",\"n\":\""
+                    + encode(publicKey.getModulus()) + "\",\"e\":\"" + encode(publicKey.getPublicExponent()) + "\"}")
+            .getBytes());
+
+        final Config settings = SettingsParser.getSitesObject(new ByteArrayInputStream(String.join("\n"
+                , "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='RS256' jwks='" + file.getAbsolutePath() + "'/>"
+                , "</config>").getBytes()));
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        try {
+            final SiteVerifier verifier = SettingsParser.getSiteVerifiers(settings, keys).get("http://test.com");
+            assertTrue(verifier.verify(
+                createToken("http://test.com", "rsa", Algorithm.RSA256((RSAPrivateKey) pair.getPrivate()))));
+            assertEquals(TokenFailure.UNKNOWN_KEY, verifier.check(
+                createToken("http://test.com", "enc", Algorithm.RSA256((RSAPrivateKey) encryption.getPrivate()))));
+        } finally {
+            keys.close();
+        }
+    }
+
+    @Test
+    public void testUnknownKeyRefreshesOnce() throws Exception {
+        body = keySet(octKey("2016", "old"));
+        final JwksKeySource source = new JwksKeySource(url, "HS256", 2, 300, 1, executor);
+        final SiteVerifier verifier = new SiteVerifier("http://test.com", "HS256", source, 0);
+        assertEquals(1, requests.get());
+        assertTrue(verifier.verify(createToken("http://test.com", "2016", "old")));
+
+        body = keySet(octKey("2017", "new"), octKey("2016", "old"));
+        Thread.sleep(1100);
+        for (int i = 0; i < 10; i++) {
+            verifier.check(createToken("http://test.com", "2017", "new"));
+        }
+        awaitRefresh();
+        assertEquals(2, requests.get());
+        assertTrue(verifier.verify(createToken("http://test.com", "2017", "new")));
+
+        // Within the minimum refresh interval, unknown keys do not fetch again.
+        assertEquals(TokenFailure.UNKNOWN_KEY, verifier.check(createToken("http://test.com", "2018", "newer")));
+        awaitRefresh();
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        body = keySet(octKey("2016", "old"));
+        final JwksKeySource source = new JwksKeySource(url, "HS256", 2, 1, 300, executor);
+        final SiteVerifier verifier = new SiteVerifier("http://test.com", "HS256", source, 0);
+
+        body = keySet(octKey("2017", "new"));
+        final Verifier token = createToken("http://test.com", "2017", "new");
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!verifier.verify(token) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(verifier.verify(token));
+        assertEquals(TokenFailure.UNKNOWN_KEY, verifier.check(createToken("http://test.com", "2016", "old")));
+        source.close();
+    }
+
+    @Test
+    public void testKeepsKeysWhenRefreshFails() throws Exception {
+        body = keySet(octKey("2016", "old"));
+        final JwksKeySource source = new JwksKeySource(url, "HS256", 2, 300, 0, executor);
+        final SiteVerifier verifier = new SiteVerifier("http://test.com", "HS256", source, 0);
+
+        status = 500;
+        source.refresh();
+        assertEquals(2, requests.get());
+        assertTrue(verifier.verify(createToken("http://test.com", "2016", "old")));
+
+        status = 200;
+        body = "not json";
+        source.refresh();
+        assertTrue(verifier.verify(createToken("http://test.com", "2016", "old")));
+    }
+
+    @Test
+    public void testJwksSiteWithKeys() throws Exception {
+        body = keySet(octKey("2016", "old"));
+        final Config settings = SettingsParser.getSitesObject(new ByteArrayInputStream(String.join("\n"
+                , "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain' jwks='" + url + "'>secret</site>"
+                , "  <site url='http://test2.com' algorithm='HS256' jwks='" + url + "'/>"
+                , "</config>").getBytes()));
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        try {
+            assertNull(SettingsParser.getSiteVerifiers(settings, keys).get("http://test.com"));
+            assertTrue(SettingsParser.getSiteVerifiers(settings, keys).containsKey("http://test2.com"));
+            assertTrue(SettingsParser.getSiteAlgorithms(settings).isEmpty());
+        } finally {
+            keys.close();
+        }
+    }
+
+    @Test
+    public void testUnpublishedLoadKeepsKeySet() throws Exception {
+        body = keySet(octKey("2016", "old"));
+        final Config settings = SettingsParser.getSitesObject(new ByteArrayInputStream(String.join("\n"
+                , "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' jwks='" + url + "'/>"
+                , "</config>").getBytes()));
+        final Config without = SettingsParser.getSitesObject(new ByteArrayInputStream(String.join("\n"
+                , "<config version='1'>"
+                , "  <site url='http://test2.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "</config>").getBytes()));
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        try {
+            final SiteVerifier verifier = SettingsParser.getSiteVerifiers(settings, keys).get("http://test.com");
+            keys.retainLatest();
+            assertEquals(1, requests.get());
+
+            // Loading settings without the site does not stop its key set until they are in use.
+            SettingsParser.getSiteVerifiers(without, keys);
+            assertSame(verifier, SettingsParser.getSiteVerifiers(settings, keys).get("http://test.com"));
+            assertEquals(1, requests.get());
+            keys.retainLatest();
+
+            SettingsParser.getSiteVerifiers(without, keys);
+            keys.retainLatest();
+            assertNotSame(verifier, SettingsParser.getSiteVerifiers(settings, keys).get("http://test.com"));
+            assertEquals(2, requests.get());
+        } finally {
+            keys.close();
+        }
+    }
+}
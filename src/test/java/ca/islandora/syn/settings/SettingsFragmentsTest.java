@@ -0,0 +1,138 @@
+package ca.islandora.syn.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SettingsFragmentsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File settings;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        settings = temporaryFolder.newFile("syn-settings.xml");
+        directory = temporaryFolder.newFolder("syn.d");
+        write(settings
+                , "<config version='1' header='X-Islandora' keyLoadThreads='4'>"
+                , "  <site url='http://main.com' algorithm='HS256' encoding='plain'>main</site>"
+                , "  <token user='main'>main token</token>"
+                , "</config>");
+    }
+
+    private static void write(final File file, final String... lines) throws IOException {
+        Files.write(file.toPath(), String.join("\n", lines).getBytes());
+    }
+
+    private File fragment(final String name, final String url, final boolean anonymous) throws IOException {
+        final File file = new File(directory, name);
+        write(file
+                , "<config version='1' header='ignored'>"
+                , "  <site url='" + url + "' algorithm='HS256' encoding='plain' anonymous='" + anonymous + "'>"
+                    + name + "</site>"
+                , "</config>");
+        return file;
+    }
+
+    private static List<String> urls(final Config config) {
+        return config.getSites().stream().map(Site::getUrl).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testMerged() throws Exception {
+        fragment("b.xml", "http://b.com", false);
+        fragment("a.xml", "http://a.com", true);
+        write(new File(directory, "c.xml.bak"), "not a fragment");
+        final File tokens = new File(directory, "tokens.xml");
+        write(tokens
+                , "<config version='1'>"
+                , "  <token user='service' roles='role1'>service token</token>"
+                , "</config>");
+
+        final Config config = new SettingsFragments().load(settings, directory);
+        assertEquals("X-Islandora", config.getHeader());
+        assertEquals(4, config.getKeyLoadThreads());
+        assertEquals(Arrays.asList("http://main.com", "http://a.com", "http://b.com"), urls(config));
+        assertEquals(2, config.getTokens().size());
+        assertEquals(3, SettingsParser.getSiteVerifiers(config).size());
+        assertEquals("service", SettingsParser.getSiteStaticTokens(config).get("service token").getUser());
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        fragment("a.xml", "http://dup.com", true);
+        fragment("b.xml", "http://dup.com", false);
+        fragment("c.xml", "http://main.com", true);
+        write(new File(directory, "d.xml")
+                , "<config version='1'>"
+                , "  <site algorithm='HS256' encoding='plain' default='true'>one</site>"
+                , "  <site algorithm='HS256' encoding='plain' default='true'>two</site>"
+                , "  <token user='other'>main token</token>"
+                , "</config>");
+
+        final Config config = new SettingsFragments().load(settings, directory);
+        assertEquals(Arrays.asList("http://main.com", "http://dup.com", null), urls(config));
+        assertEquals(1, config.getTokens().size());
+        final Map<String, Boolean> anonymous = SettingsParser.getSiteAllowAnonymous(config);
+        assertEquals(true, anonymous.get("http://dup.com"));
+        assertEquals(false, anonymous.get("http://main.com"));
+    }
+
+    @Test
+    public void testOnlyChangedReparsed() throws Exception {
+        fragment("a.xml", "http://a.com", false);
+        final File b = fragment("b.xml", "http://b.com", false);
+        final SettingsFragments fragments = new SettingsFragments();
+        final Config first = fragments.load(settings, directory);
+        assertEquals(3, fragments.size());
+
+        fragment("b.xml", "http://b.com", true);
+        final Config second = fragments.load(settings, directory);
+        assertSame(first.getSites().get(0), second.getSites().get(0));
+        assertSame(first.getSites().get(1), second.getSites().get(1));
+        assertNotSame(first.getSites().get(2), second.getSites().get(2));
+        assertTrue(second.getSites().get(2).getAnonymous());
+
+        Files.delete(b.toPath());
+        final Config third = fragments.load(settings, directory);
+        assertEquals(Arrays.asList("http://main.com", "http://a.com"), urls(third));
+        assertEquals(2, fragments.size());
+    }
+
+    @Test
+    public void testInvalidFragment() throws Exception {
+        fragment("a.xml", "http://a.com", false);
+        write(new File(directory, "b.xml"), "<config version='1'>");
+        try {
+            new SettingsFragments().load(settings, directory);
+            fail("Expected the invalid fragment to fail the load.");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("b.xml"));
+        }
+    }
+
+    @Test
+    public void testNoDirectory() throws Exception {
+        final Config config = new SettingsFragments().load(settings, new File(directory, "missing"));
+        assertEquals(Arrays.asList("http://main.com"), urls(config));
+        assertEquals(urls(config), urls(new SettingsFragments().load(settings, null)));
+    }
+}
@@ -15,6 +15,8 @@ import org.junit.rules.TemporaryFolder;
 
 import com.auth0.jwt.algorithms.Algorithm;
 
+import ca.islandora.syn.token.SiteVerifier;
+
 public class SettingsParserAlgorithmsTest {
     @Rule
     public TemporaryFolder temporaryFolder = new TemporaryFolder();
@@ -42,6 +44,28 @@ public class SettingsParserAlgorithmsTest {
         testOneSiteHmacInlineKey("HS512");
     }
 
+    @Test
+    public void testSiteVerifiers() throws Exception {
+        final String testXml = String.join("\n"
+                , "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS384' encoding='plain'>"
+                , "   test data"
+                , "  </site>"
+                , "  <site algorithm='HS512' encoding='plain' default='true'>"
+                , "   test data"
+                , "  </site>"
+                , "</config>"
+        );
+
+        final InputStream stream = new ByteArrayInputStream(testXml.getBytes());
+        final Map<String, SiteVerifier> verifiers = SettingsParser.getSiteVerifiers(SettingsParser.getSites(stream));
+        assertEquals(2, verifiers.size());
+        assertEquals("http://test.com", verifiers.get("http://test.com").getIssuer());
+        assertEquals("HS384", verifiers.get("http://test.com").getAlgorithmName());
+        assertEquals(null, verifiers.get(null).getIssuer());
+        assertEquals("HS512", verifiers.get(null).getAlgorithmName());
+    }
+
     @Test
     public void testInvalidSitesVersion() throws Exception {
         final String testXml = String.join("\n"
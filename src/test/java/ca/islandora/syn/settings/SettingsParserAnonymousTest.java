@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
@@ -73,4 +74,63 @@ public class SettingsParserAnonymousTest {
         assertEquals(true, anonymous.containsKey("default"));
         assertEquals(true, anonymous.get("default"));
     }
+
+    @Test
+    public void testDuplicateSiteFirstWins() throws Exception {
+        final String testXml = String.join("\n"
+            , "<config version='1'>"
+            , "  <site url='http://test.com' algorithm='HS256' encoding='plain' anonymous='true'>"
+            , "   first"
+            , "  </site>"
+            , "  <site url='http://test.com' algorithm='HS256' encoding='plain' anonymous='false'>"
+            , "   second"
+            , "  </site>"
+            , "  <token user='first'>same token</token>"
+            , "  <token user='second'>same token</token>"
+            , "</config>"
+        );
+
+        final Config settings = SettingsParser.getSites(new ByteArrayInputStream(testXml.getBytes()));
+        final Map<String, Boolean> anonymous = SettingsParser.getSiteAllowAnonymous(settings);
+        assertEquals(1, anonymous.size());
+        assertEquals(true, anonymous.get("http://test.com"));
+        assertEquals("first", SettingsParser.getSiteStaticTokens(settings).get("same token").getUser());
+        assertEquals(1, SettingsParser.getSiteVerifiers(settings).size());
+    }
+
+    @Test
+    public void testSiteAnonymousRules() throws Exception {
+        final String testXml = String.join("\n"
+            , "<config version='1'>"
+            , "  <site url='http://test.com' algorithm='HS256' encoding='plain' anonymous='true'>"
+            , "    <anonymous path='/fcrepo/rest/public/*' methods='GET,HEAD,OPTIONS'/>"
+            , "    <anonymous path='/favicon.ico'/>"
+            , "    test data"
+            , "  </site>"
+            , "  <site algorithm='HS256' encoding='plain' default='true'>"
+            , "    <anonymous path='/status' methods='*'/>"
+            , "    test data"
+            , "  </site>"
+            , "</config>"
+        );
+
+        final Config settings = SettingsParser.getSites(new ByteArrayInputStream(testXml.getBytes()));
+        assertEquals("test data", settings.getSites().get(0).getKey());
+        final Map<String, List<AnonymousRule>> rules = SettingsParser.getSiteAnonymousRules(settings);
+        assertEquals(2, rules.size());
+
+        final List<AnonymousRule> site = rules.get("http://test.com");
+        assertEquals(3, site.size());
+        assertEquals("/*", site.get(0).getPath());
+        assertEquals("GET,HEAD", site.get(0).getMethods());
+        assertEquals("/fcrepo/rest/public/*", site.get(1).getPath());
+        assertEquals("GET,HEAD,OPTIONS", site.get(1).getMethods());
+        assertEquals("/favicon.ico", site.get(2).getPath());
+        assertEquals("GET,HEAD", site.get(2).getMethods());
+
+        final List<AnonymousRule> defaultSite = rules.get("default");
+        assertEquals(1, defaultSite.size());
+        assertEquals("/status", defaultSite.get(0).getPath());
+        assertEquals("*", defaultSite.get(0).getMethods());
+    }
 }
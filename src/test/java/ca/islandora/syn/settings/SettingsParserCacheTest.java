@@ -0,0 +1,41 @@
+package ca.islandora.syn.settings;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class SettingsParserCacheTest {
+
+    @Test
+    public void testCacheDefaults() throws Exception {
+        final String testXml = String.join("\n"
+                , "<config version='1'>"
+                , "</config>"
+        );
+
+        final InputStream stream = new ByteArrayInputStream(testXml.getBytes());
+        final Config settings = SettingsParser.getSitesObject(stream);
+        assertEquals(1000, settings.getCacheSize());
+        assertEquals(300, settings.getCacheTtl());
+        assertEquals(1000, settings.getNegativeCacheSize());
+        assertEquals(30, settings.getNegativeCacheTtl());
+    }
+
+    @Test
+    public void testCacheAttributes() throws Exception {
+        final String testXml = String.join("\n"
+                , "<config version='1' cacheSize='50' cacheTtl='30' negativeCacheSize='20' negativeCacheTtl='5'>"
+                , "</config>"
+        );
+
+        final InputStream stream = new ByteArrayInputStream(testXml.getBytes());
+        final Config settings = SettingsParser.getSitesObject(stream);
+        assertEquals(50, settings.getCacheSize());
+        assertEquals(30, settings.getCacheTtl());
+        assertEquals(20, settings.getNegativeCacheSize());
+        assertEquals(5, settings.getNegativeCacheTtl());
+    }
+}
@@ -0,0 +1,147 @@
+package ca.islandora.syn.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.islandora.syn.token.SiteVerifier;
+
+public class SettingsParserKeyCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Config parse(final String... lines) throws Exception {
+        final String testXml = String.join("\n", lines);
+        return SettingsParser.getSitesObject(new ByteArrayInputStream(testXml.getBytes()));
+    }
+
+    @Test
+    public void testUnchangedKeyKeepsVerifier() throws Exception {
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        final Map<String, SiteVerifier> first = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "  <token>one</token>"
+                , "</config>"), keys);
+        final Map<String, SiteVerifier> second = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                , "secret"
+                , "  </site>"
+                , "  <token>two</token>"
+                , "</config>"), keys);
+
+        assertSame(first.get("http://test.com"), second.get("http://test.com"));
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testChangedKeyGetsNewVerifier() throws Exception {
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        final Map<String, SiteVerifier> first = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "</config>"), keys);
+        final Map<String, SiteVerifier> second = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>rotated</site>"
+                , "</config>"), keys);
+        keys.retainLatest();
+
+        assertNotSame(first.get("http://test.com"), second.get("http://test.com"));
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testChangedSettingsGetNewVerifier() throws Exception {
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        final Map<String, SiteVerifier> first = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "</config>"), keys);
+        final Map<String, SiteVerifier> algorithm = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS512' encoding='plain'>secret</site>"
+                , "</config>"), keys);
+        final Map<String, SiteVerifier> leeway = SettingsParser.getSiteVerifiers(parse(
+                "<config version='1' leeway='30'>"
+                , "  <site url='http://test.com' algorithm='HS512' encoding='plain'>secret</site>"
+                , "</config>"), keys);
+        keys.retainLatest();
+
+        assertNotSame(first.get("http://test.com"), algorithm.get("http://test.com"));
+        assertNotSame(algorithm.get("http://test.com"), leeway.get("http://test.com"));
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testChangedKeyFileGetsNewVerifier() throws Exception {
+        final File keyFile = temporaryFolder.newFile();
+        final String config = String.join("\n"
+                , "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain' path='"
+                    + keyFile.getAbsolutePath() + "'/>"
+                , "</config>");
+        final KeyMaterialCache keys = new KeyMaterialCache();
+
+        Files.write(keyFile.toPath(), "secret".getBytes());
+        final SiteVerifier first = SettingsParser.getSiteVerifiers(parse(config), keys).get("http://test.com");
+        final SiteVerifier unchanged = SettingsParser.getSiteVerifiers(parse(config), keys).get("http://test.com");
+        Files.write(keyFile.toPath(), "rotated".getBytes());
+        final SiteVerifier rotated = SettingsParser.getSiteVerifiers(parse(config), keys).get("http://test.com");
+
+        assertSame(first, unchanged);
+        assertNotSame(first, rotated);
+    }
+
+    @Test
+    public void testRemovedSiteIsDropped() throws Exception {
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "  <site url='http://test2.com' algorithm='HS256' encoding='plain'>secret2</site>"
+                , "</config>"), keys);
+        assertEquals(2, keys.size());
+
+        SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "</config>"), keys);
+        assertEquals(2, keys.size());
+        keys.retainLatest();
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testUnpublishedLoadKeepsVerifiers() throws Exception {
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        final Config current = parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>secret</site>"
+                , "</config>");
+        final SiteVerifier verifier = SettingsParser.getSiteVerifiers(current, keys).get("http://test.com");
+        keys.retainLatest();
+
+        // A reload that fails after building its verifiers never retains them.
+        SettingsParser.getSiteVerifiers(parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>rotated</site>"
+                , "</config>"), keys);
+
+        assertEquals(2, keys.size());
+        assertSame(verifier, SettingsParser.getSiteVerifiers(current, keys).get("http://test.com"));
+        keys.retainLatest();
+        assertEquals(1, keys.size());
+    }
+}
@@ -0,0 +1,117 @@
+package ca.islandora.syn.settings;
+
+import static ca.islandora.syn.token.TestTokens.createToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.auth0.jwt.algorithms.Algorithm;
+
+import ca.islandora.syn.token.SiteVerifier;
+
+public class SettingsParserKeysTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Config parse(final String... lines) throws Exception {
+        final String testXml = String.join("\n", lines);
+        return SettingsParser.getSitesObject(new ByteArrayInputStream(testXml.getBytes()));
+    }
+
+    @Test
+    public void testSiteKeys() throws Exception {
+        final File keyFile = temporaryFolder.newFile();
+        Files.write(keyFile.toPath(), "old".getBytes());
+        final Config settings = parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                , "    <key kid='2017'>"
+                , "new"
+                , "    </key>"
+                , "    <key kid='2016' path='" + keyFile.getAbsolutePath() + "'/>"
+                , "  </site>"
+                , "</config>");
+
+        final Site site = settings.getSites().get(0);
+        assertEquals(2, site.getKeys().size());
+        assertEquals("2017", site.getKeys().get(0).getKid());
+        assertEquals("new", site.getKeys().get(0).getKey());
+        assertEquals(keyFile.getAbsolutePath(), site.getKeys().get(1).getPath());
+
+        final SiteVerifier verifier = SettingsParser.getSiteVerifiers(settings).get("http://test.com");
+        assertTrue(verifier.verify(createToken("http://test.com", "2017", "new")));
+        assertTrue(verifier.verify(createToken("http://test.com", "2016", "old")));
+        assertTrue(verifier.verify(createToken("http://test.com", null, "old")));
+        assertFalse(verifier.verify(createToken("http://test.com", "2017", "old")));
+    }
+
+    @Test
+    public void testFallbackBoundedByMaxKeyAttempts() throws Exception {
+        final Config settings = parse(
+                "<config version='1' maxKeyAttempts='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                , "    <key kid='2017'>new</key>"
+                , "    <key kid='2016'>old</key>"
+                , "  </site>"
+                , "</config>");
+        assertEquals(1, settings.getMaxKeyAttempts());
+
+        final SiteVerifier verifier = SettingsParser.getSiteVerifiers(settings).get("http://test.com");
+        assertTrue(verifier.verify(createToken("http://test.com", null, "new")));
+        assertFalse(verifier.verify(createToken("http://test.com", null, "old")));
+        assertTrue(verifier.verify(createToken("http://test.com", "2016", "old")));
+    }
+
+    @Test
+    public void testMaxKeyAttemptsDefault() throws Exception {
+        assertEquals(2, parse("<config version='1'>", "</config>").getMaxKeyAttempts());
+    }
+
+    @Test
+    public void testFirstKeyForAlgorithms() throws Exception {
+        final Config settings = parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                , "    <key kid='2017'>new</key>"
+                , "    <key kid='2016'>old</key>"
+                , "  </site>"
+                , "</config>");
+
+        final Map<String, Algorithm> algorithms = SettingsParser.getSiteAlgorithms(settings);
+        assertTrue(createToken("http://test.com", null, "new").verify(algorithms.get("http://test.com")));
+    }
+
+    @Test
+    public void testInvalidSiteKeys() throws Exception {
+        final Config settings = parse(
+                "<config version='1'>"
+                , "  <site url='http://both.com' algorithm='HS256' encoding='plain' path='/tmp'>"
+                , "    <key kid='2017'>new</key>"
+                , "  </site>"
+                , "  <site url='http://duplicate.com' algorithm='HS256' encoding='plain'>"
+                , "    <key kid='2017'>new</key>"
+                , "    <key kid='2017'>old</key>"
+                , "  </site>"
+                , "  <site url='http://empty.com' algorithm='HS256' encoding='plain'>"
+                , "    <key kid='2017'/>"
+                , "  </site>"
+                , "</config>");
+
+        final Map<String, SiteVerifier> verifiers = SettingsParser.getSiteVerifiers(settings);
+        assertNull(verifiers.get("http://both.com"));
+        assertNull(verifiers.get("http://duplicate.com"));
+        assertNull(verifiers.get("http://empty.com"));
+        assertEquals(0, verifiers.size());
+    }
+}
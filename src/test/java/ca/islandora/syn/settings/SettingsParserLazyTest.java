@@ -0,0 +1,147 @@
+package ca.islandora.syn.settings;
+
+import static ca.islandora.syn.token.TestTokens.createToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.islandora.syn.token.KeySet;
+import ca.islandora.syn.token.SiteVerifier;
+
+public class SettingsParserLazyTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Config parse(final String... lines) throws Exception {
+        final String testXml = String.join("\n", lines);
+        return SettingsParser.getSitesObject(new ByteArrayInputStream(testXml.getBytes()));
+    }
+
+    @Test
+    public void testKeysReadOnFirstUse() throws Exception {
+        final File keyFile = temporaryFolder.newFile();
+        Files.write(keyFile.toPath(), "at startup".getBytes());
+        final Config settings = parse(
+                "<config version='1' lazyKeys='true'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain' path='"
+                    + keyFile.getAbsolutePath() + "'/>"
+                , "</config>");
+        assertTrue(settings.getLazyKeys());
+
+        final SiteVerifier verifier = SettingsParser.getSiteVerifiers(settings).get("http://test.com");
+        assertEquals("HS256", verifier.getAlgorithmName());
+        Files.write(keyFile.toPath(), "on first use".getBytes());
+        assertTrue(verifier.verify(createToken("http://test.com", null, "on first use")));
+
+        // Once loaded the keys are kept.
+        Files.write(keyFile.toPath(), "later".getBytes());
+        assertTrue(verifier.verify(createToken("http://test.com", null, "on first use")));
+        assertFalse(verifier.verify(createToken("http://test.com", null, "later")));
+    }
+
+    @Test
+    public void testReloadKeepsVerifiers() throws Exception {
+        final File keyFile = temporaryFolder.newFile();
+        Files.write(keyFile.toPath(), "file secret".getBytes());
+        final String site = "  <site url='http://test.com' algorithm='HS256' encoding='plain' path='"
+            + keyFile.getAbsolutePath() + "'/>";
+        final String other = "  <site url='http://other.com' algorithm='HS256' encoding='plain'>other</site>";
+        final KeyMaterialCache keys = new KeyMaterialCache();
+        try {
+            final SiteVerifier verifier = SettingsParser.getSiteVerifiers(
+                parse("<config version='1' lazyKeys='true'>", site, "</config>"), keys).get("http://test.com");
+            keys.retainLatest();
+            assertTrue(verifier.verify(createToken("http://test.com", null, "file secret")));
+
+            // Another site being added keeps the verifier, and its loaded keys.
+            final Config added = parse("<config version='1' lazyKeys='true'>", site, other, "</config>");
+            assertSame(verifier, SettingsParser.getSiteVerifiers(added, keys).get("http://test.com"));
+            keys.retainLatest();
+
+            // A replaced key file gets a new verifier.
+            Files.write(keyFile.toPath(), "new file secret".getBytes());
+            assertTrue(keyFile.setLastModified(keyFile.lastModified() + 2000));
+            final SiteVerifier replaced = SettingsParser.getSiteVerifiers(added, keys).get("http://test.com");
+            assertNotSame(verifier, replaced);
+            assertTrue(replaced.verify(createToken("http://test.com", null, "new file secret")));
+        } finally {
+            keys.close();
+        }
+    }
+
+    @Test
+    public void testUnusableKeyKeepsSite() throws Exception {
+        final Config eager = parse(
+                "<config version='1'>"
+                , "  <site url='http://test.com' algorithm='RS256' encoding='PEM'>not a key</site>"
+                , "</config>");
+        final Config lazy = parse(
+                "<config version='1' lazyKeys='true'>"
+                , "  <site url='http://test.com' algorithm='RS256' encoding='PEM'>not a key</site>"
+                , "</config>");
+
+        assertNull(SettingsParser.getSiteVerifiers(eager).get("http://test.com"));
+        final SiteVerifier verifier = SettingsParser.getSiteVerifiers(lazy).get("http://test.com");
+        assertFalse(verifier.verify(createToken("http://test.com", null, "secret")));
+    }
+
+    @Test
+    public void testLazyDefault() throws Exception {
+        final Config settings = parse(
+                "<config version='1'>"
+                , "</config>");
+        assertFalse(settings.getLazyKeys());
+    }
+
+    @Test
+    public void testLoadedOnce() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final KeySet keySet = new KeySet(Collections.emptyMap(), Collections.emptyList());
+        final LazyKeySource source = new LazyKeySource(() -> {
+            loads.incrementAndGet();
+            return keySet;
+        });
+        assertFalse(source.isLoaded());
+
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<KeySet>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return source.getKeys();
+                }));
+            }
+            start.countDown();
+            for (final Future<KeySet> result : results) {
+                assertSame(keySet, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, loads.get());
+        assertTrue(source.isLoaded());
+    }
+}
@@ -0,0 +1,39 @@
+package ca.islandora.syn.settings;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class SettingsParserLimitsTest {
+
+    @Test
+    public void testLimitDefaults() throws Exception {
+        final String testXml = String.join("\n"
+                , "<config version='1'>"
+                , "</config>"
+        );
+
+        final InputStream stream = new ByteArrayInputStream(testXml.getBytes());
+        final Config settings = SettingsParser.getSitesObject(stream);
+        assertEquals(8192, settings.getMaxTokenLength());
+        assertEquals(100, settings.getMaxRoles());
+        assertEquals(0, settings.getLeeway());
+    }
+
+    @Test
+    public void testLimitAttributes() throws Exception {
+        final String testXml = String.join("\n"
+                , "<config version='1' maxTokenLength='2048' maxRoles='10' leeway='30'>"
+                , "</config>"
+        );
+
+        final InputStream stream = new ByteArrayInputStream(testXml.getBytes());
+        final Config settings = SettingsParser.getSitesObject(stream);
+        assertEquals(2048, settings.getMaxTokenLength());
+        assertEquals(10, settings.getMaxRoles());
+        assertEquals(30, settings.getLeeway());
+    }
+}
@@ -0,0 +1,125 @@
+package ca.islandora.syn.settings;
+
+import static ca.islandora.syn.token.TestTokens.createToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.auth0.jwt.algorithms.Algorithm;
+
+import ca.islandora.syn.token.SiteVerifier;
+
+public class SettingsParserParallelTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * A mix of valid and invalid sites, including a first default site that
+     * is ignored because its key file is missing.
+     */
+    private String createSettings() throws Exception {
+        final StringBuilder xml = new StringBuilder("<config version='1'>\n");
+        xml.append("  <site algorithm='HS256' encoding='plain' default='true' path='/missing/default.key'/>\n");
+        for (int i = 0; i < 200; i++) {
+            final String url = "http://site" + i + ".com";
+            switch (i % 5) {
+                case 0:
+                    final File key = temporaryFolder.newFile();
+                    Files.write(key.toPath(), ("file secret " + i).getBytes());
+                    xml.append("  <site url='").append(url).append("' algorithm='HS256' encoding='plain' path='")
+                        .append(key.getAbsolutePath()).append("'/>\n");
+                    break;
+                case 1:
+                    xml.append("  <site url='").append(url).append("' algorithm='HS256' encoding='plain' path='")
+                        .append("/missing/").append(i).append(".key'/>\n");
+                    break;
+                case 2:
+                    xml.append("  <site url='").append(url).append("' algorithm='XS256' encoding='plain'>")
+                        .append("secret</site>\n");
+                    break;
+                default:
+                    xml.append("  <site url='").append(url).append("' algorithm='HS256' encoding='plain'>")
+                        .append("secret ").append(i).append("</site>\n");
+            }
+        }
+        xml.append("  <site algorithm='HS256' encoding='plain' default='true'>default secret</site>\n");
+        xml.append("  <site algorithm='HS256' encoding='plain' default='true'>other secret</site>\n");
+        return xml.append("</config>\n").toString();
+    }
+
+    private static Config parse(final String xml, final int threads) throws Exception {
+        final Config config = SettingsParser.getSitesObject(new ByteArrayInputStream(xml.getBytes()));
+        config.setKeyLoadThreads(threads);
+        return config;
+    }
+
+    private static List<String> loadLoggingErrors(final String xml, final int threads,
+            final Map<String, SiteVerifier> verifiers) throws Exception {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() { }
+
+            @Override
+            public void close() { }
+        };
+        final Logger logger = Logger.getLogger(Site.class.getName());
+        logger.addHandler(handler);
+        try {
+            verifiers.putAll(SettingsParser.getSiteVerifiers(parse(xml, threads)));
+        } finally {
+            logger.removeHandler(handler);
+        }
+        return messages;
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        final String xml = createSettings();
+        final Map<String, SiteVerifier> sequential = new HashMap<>();
+        final Map<String, SiteVerifier> parallel = new HashMap<>();
+        final List<String> sequentialErrors = loadLoggingErrors(xml, 1, sequential);
+        final List<String> parallelErrors = loadLoggingErrors(xml, 8, parallel);
+
+        assertEquals(sequential.keySet(), parallel.keySet());
+        assertEquals(121, parallel.size());
+        assertEquals(sequentialErrors, parallelErrors);
+        assertFalse(parallelErrors.isEmpty());
+
+        assertTrue(parallel.get("http://site0.com").verify(createToken("http://site0.com", null, "file secret 0")));
+        assertTrue(parallel.get("http://site3.com").verify(createToken("http://site3.com", null, "secret 3")));
+        assertTrue(parallel.get(null).verify(createToken("http://other.com", null, "default secret")));
+    }
+
+    @Test
+    public void testParallelAlgorithms() throws Exception {
+        final String xml = createSettings();
+        final Map<String, Algorithm> sequential = SettingsParser.getSiteAlgorithms(parse(xml, 1));
+        final Map<String, Algorithm> parallel = SettingsParser.getSiteAlgorithms(parse(xml, 8));
+
+        assertEquals(sequential.keySet(), parallel.keySet());
+        assertTrue(createToken("http://other.com", null, "default secret").verify(parallel.get(null)));
+    }
+}
@@ -0,0 +1,179 @@
+package ca.islandora.syn.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.tomcat.util.digester.Digester;
+import org.junit.Test;
+
+public class SettingsReaderTest {
+
+    /**
+     * The Digester rules the reader replaced.
+     */
+    private static Config readWithDigester(final String xml) throws Exception {
+        final Digester digester = new Digester();
+        digester.setValidating(false);
+        digester.addObjectCreate("config", "ca.islandora.syn.settings.Config");
+        digester.addSetProperties("config");
+        digester.addObjectCreate("config/site", "ca.islandora.syn.settings.Site");
+        digester.addSetProperties("config/site");
+        digester.addCallMethod("config/site", "setKey", 0);
+        digester.addSetNext("config/site", "addSite", "ca.islandora.syn.settings.Site");
+        digester.addObjectCreate("config/site/key", "ca.islandora.syn.settings.SiteKey");
+        digester.addSetProperties("config/site/key");
+        digester.addCallMethod("config/site/key", "setKey", 0);
+        digester.addSetNext("config/site/key", "addKey", "ca.islandora.syn.settings.SiteKey");
+        digester.addObjectCreate("config/token", "ca.islandora.syn.settings.Token");
+        digester.addSetProperties("config/token");
+        digester.addCallMethod("config/token", "setToken", 0);
+        digester.addSetNext("config/token", "addToken", "ca.islandora.syn.settings.Token");
+        return (Config) digester.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    private static Config read(final String xml) throws Exception {
+        return SettingsReader.read(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    private static String describe(final Config config) {
+        if (config == null) {
+            return "null";
+        }
+        final StringBuilder text = new StringBuilder()
+            .append(config.getVersion()).append('|').append(config.getHeader()).append('|')
+            .append(config.getDisabled()).append('|').append(config.getCacheSize()).append('|')
+            .append(config.getCacheTtl()).append('|').append(config.getNegativeCacheSize()).append('|')
+            .append(config.getNegativeCacheTtl()).append('|').append(config.getMaxTokenLength()).append('|')
+            .append(config.getMaxRoles()).append('|').append(config.getLeeway()).append('|')
+            .append(config.getMaxKeyAttempts()).append('|').append(config.getJwksRefresh()).append('|')
+            .append(config.getJwksMinRefresh()).append('|').append(config.getLazyKeys()).append('|')
+            .append(config.getKeyLoadThreads()).append('\n');
+        for (final Site site : config.getSites()) {
+            text.append("site ").append(site.getUrl()).append('|').append(site.getAlgorithm()).append('|')
+                .append(site.getKey()).append('|').append(site.getPath()).append('|').append(site.getEncoding())
+                .append('|').append(site.getDefault()).append('|').append(site.getAnonymous()).append('|')
+                .append(site.getJwks()).append('\n');
+            for (final SiteKey key : site.getKeys()) {
+                text.append("  key ").append(key.getKid()).append('|').append(key.getKey()).append('|')
+                    .append(key.getPath()).append('\n');
+            }
+        }
+        for (final Token token : config.getTokens()) {
+            text.append("token ").append(token.getUser()).append('|').append(token.getRoles()).append('|')
+                .append(token.getToken()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void assertSameAsDigester(final String xml) throws Exception {
+        assertEquals(xml, describe(readWithDigester(xml)), describe(read(xml)));
+    }
+
+    @Test
+    public void testSameAsDigester() throws Exception {
+        System.setProperty("syn.test.secret", "from a property");
+        final String[] documents = {
+            "<config version='1'/>",
+            "<config version='1' header='X-Islandora-Roles' disabled='true' cacheSize='5' cacheTtl='6'"
+                + " negativeCacheSize='7' negativeCacheTtl='8' maxTokenLength='9' maxRoles='10' leeway='11'"
+                + " maxKeyAttempts='3' jwksRefresh='12' jwksMinRefresh='13' lazyKeys='true' keyLoadThreads='2'/>",
+            "<config version='one' cacheSize=' 5' maxRoles='+7' disabled='yes' lazyKeys='yes' unknown='x'/>",
+            "<config Version='1' Header='X'/>",
+            "<config version='1'>\n"
+                + "  <site url='http://test.com' algorithm='HS256' encoding='plain'>\n  my secret key\n  </site>\n"
+                + "  <site url='http://test2.com' algorithm='HS256' encoding='base64' path='/some.key'/>\n"
+                + "  <site algorithm='RS256' encoding='PEM' path='/some.key' default='true' anonymous='true'/>\n"
+                + "  <site url='http://test3.com' algorithm='HS256' default='yes' key='attribute key'/>\n"
+                + "  <site url='http://test4.com' algorithm='RS256' jwks='https://test4.com/jwks'/>\n"
+                + "  <token user='test' roles='role1,role2,role3'>\n    my super secret token\n  </token>\n"
+                + "  <token roles=''>other</token>\n"
+                + "  <token token='attribute token'/>\n"
+                + "</config>",
+            "<config version='1'>"
+                + "<site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                + "  <key kid='2017'>new</key> <!-- comment --> <key kid='2016' path='/old.key'/>"
+                + "  <other>ignored<key kid='nested'>ignored</key></other>"
+                + "</site></config>",
+            "<config version='1'><site url='http://test.com'>before<key>k</key>after</site></config>",
+            "<config version='1'><site url='http://test.com'>a<!-- c -->b<![CDATA[ <c> ]]>&amp;&#65;</site>"
+                + "</config>",
+            "<config version='1'><site url='${syn.test.secret}'>${syn.test.secret} and ${syn.test.missing}"
+                + "</site><token user='${syn.test.secret}'>${syn.test.secret}</token></config>",
+            "<config version='1'><other><site url='http://nested.com'/></other><token>t</token>"
+                + "<config><site url='http://inner.com'/></config></config>",
+            "<?xml version='1.0' encoding='UTF-8'?>\n<!-- leading -->\n<config version='1'>"
+                + "<site url='http://test.com' xml:lang='en'>k</site></config>\n<!-- trailing -->",
+            "<other version='1'><config version='1'><site url='http://test.com'/></config></other>",
+            "<config version='1'><site url='http://test.com'>\u00e9\u4e2d</site></config>",
+        };
+        for (final String document : documents) {
+            assertSameAsDigester(document);
+        }
+    }
+
+    @Test
+    public void testNotConfig() throws Exception {
+        assertNull(read("<other version='1'/>"));
+        assertNotNull(read("<config/>"));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        for (final String document : new String[] { "<config version='1'>", "<config><site></config>", "",
+            "<config/><config/>" }) {
+            try {
+                read(document);
+                fail("Expected " + document + " to be rejected.");
+            } catch (final XMLStreamException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testExternalEntitiesNotRead() throws Exception {
+        final String xml = "<!DOCTYPE config [<!ENTITY secret SYSTEM 'file:///etc/passwd'>]>"
+            + "<config version='1'><token>&secret;</token></config>";
+        try {
+            final Config config = read(xml);
+            assertEquals("", config.getTokens().get(0).getToken());
+        } catch (final XMLStreamException e) {
+            // Also acceptable: the entity is refused.
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final StringBuilder xml = new StringBuilder("<config version='1'>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<site url='http://site").append(i).append(".com' algorithm='HS256'>key ").append(i)
+                .append("</site>");
+        }
+        final String document = xml.append("</config>").toString();
+        final String expected = describe(read(document));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> describe(read(document))));
+            }
+            for (final Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ca.islandora.syn.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPublicKey;
+
+import org.junit.Test;
+
+import com.auth0.jwt.algorithms.Algorithm;
+
+public class CryptoContextTest {
+
+    private static final byte[] content = "xxheader.payloadxx".getBytes();
+
+    private static byte[] signingInput() {
+        return "header.payload".getBytes();
+    }
+
+    @Test
+    public void testHmac() throws Exception {
+        final CryptoContext context = CryptoContext.hmac("hs512", "secret".getBytes());
+        assertEquals("HS512", context.getName());
+        final byte[] signature = Algorithm.HMAC512("secret").sign(signingInput());
+        assertTrue(context.verify(content, 2, 14, signature));
+        // Reusing the keyed instance must give the same answer
+        assertTrue(context.verify(content, 2, 14, signature));
+        assertFalse(context.verify(content, 2, 13, signature));
+        assertFalse(context.verify(content, 2, 14, Algorithm.HMAC512("wrong").sign(signingInput())));
+    }
+
+    @Test
+    public void testRsa() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        final KeyPair pair = keyGen.generateKeyPair();
+        final CryptoContext context = CryptoContext.rsa("RS384", (RSAPublicKey) pair.getPublic());
+        assertEquals("RS384", context.getName());
+        final byte[] signature = Algorithm.RSA384((RSAKey) pair.getPrivate()).sign(signingInput());
+        assertTrue(context.verify(content, 2, 14, signature));
+        assertFalse(context.verify(content, 2, 14, new byte[] { 1, 2, 3 }));
+        assertTrue(context.verify(content, 2, 14, signature));
+    }
+
+    @Test
+    public void testHmacAcrossThreads() throws Exception {
+        final CryptoContext context = CryptoContext.hmac("HS256", "secret".getBytes());
+        final byte[] signature = Algorithm.HMAC256("secret").sign(signingInput());
+        final boolean[] result = new boolean[1];
+        final Thread thread = new Thread(() -> result[0] = context.verify(content, 2, 14, signature));
+        thread.start();
+        thread.join();
+        assertTrue(result[0]);
+        assertTrue(context.verify(content, 2, 14, signature));
+    }
+
+    @Test
+    public void testWrapped() throws Exception {
+        final CryptoContext context = CryptoContext.wrap(Algorithm.HMAC256("secret"));
+        assertEquals("HS256", context.getName());
+        final byte[] signature = Algorithm.HMAC256("secret").sign(signingInput());
+        assertTrue(context.verify(content, 2, 14, signature));
+        assertFalse(context.verify(content, 2, 13, signature));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testUnsupportedHmac() throws Exception {
+        CryptoContext.hmac("RS256", "secret".getBytes());
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testUnsupportedRsa() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        CryptoContext.rsa("HS256", (RSAPublicKey) keyGen.generateKeyPair().getPublic());
+    }
+}
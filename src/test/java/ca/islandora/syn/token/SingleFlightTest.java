@@ -0,0 +1,157 @@
+package ca.islandora.syn.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Start callers once a first caller is busy in work that waits for the
+     * release latch, and wait until they are all waiting for it.
+     */
+    private List<Future<String>> runConcurrently(final SingleFlight<String> flight, final int callers,
+            final Supplier<String> work, final CountDownLatch started) throws Exception {
+        final List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> flight.run(TokenDigest.of("token"), work)));
+        assertEquals(true, started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < callers; i++) {
+            results.add(executor.submit(() -> flight.run(TokenDigest.of("token"), work)));
+        }
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (flight.getWaiting() < callers - 1) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Callers did not start waiting.");
+            }
+            Thread.sleep(1);
+        }
+        return results;
+    }
+
+    @Test
+    public void testCoalesced() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<>(5000);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<String> work = () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "verified";
+        };
+
+        final List<Future<String>> results = runConcurrently(flight, 32, work, started);
+        assertEquals(1, flight.size());
+        release.countDown();
+        for (final Future<String> result : results) {
+            assertEquals("verified", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+        assertEquals(0, flight.size());
+
+        // Once done, the digest is forgotten.
+        assertEquals("verified", flight.run(TokenDigest.of("token"), work));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testDistinctDigests() {
+        final SingleFlight<String> flight = new SingleFlight<>(5000);
+        assertEquals("a", flight.run(TokenDigest.of("a"), () ->
+            flight.run(TokenDigest.of("b"), () -> "b").equals("b") ? "a" : "wrong"));
+    }
+
+    @Test
+    public void testWaitBounded() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<>(50);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<String> work = () -> {
+            if (runs.incrementAndGet() == 1) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return "verified";
+        };
+
+        final Future<String> leader = executor.submit(() -> flight.run(TokenDigest.of("token"), work));
+        assertEquals(true, started.await(5, TimeUnit.SECONDS));
+        // Gives up on the leader and verifies itself.
+        assertEquals("verified", flight.run(TokenDigest.of("token"), work));
+        assertEquals(2, runs.get());
+        release.countDown();
+        assertEquals("verified", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLeaderFails() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<>(5000);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<String> work = () -> {
+            if (runs.incrementAndGet() == 1) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("failed");
+            }
+            return "verified";
+        };
+
+        final List<Future<String>> results = runConcurrently(flight, 2, work, started);
+        release.countDown();
+        try {
+            results.get(0).get(5, TimeUnit.SECONDS);
+            fail("Expected the leader's failure.");
+        } catch (final ExecutionException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        assertEquals("verified", results.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        final SingleFlight<String> flight = new SingleFlight<>(0);
+        final AtomicInteger runs = new AtomicInteger();
+        assertEquals("a", flight.run(TokenDigest.of("token"), () ->
+            flight.run(TokenDigest.of("token"), () -> runs.incrementAndGet() > 0 ? "a" : "b")));
+        assertEquals(1, runs.get());
+        assertEquals(0, flight.size());
+    }
+}
@@ -0,0 +1,183 @@
+package ca.islandora.syn.token;
+
+import static ca.islandora.syn.token.TestTokens.createToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.auth0.jwt.algorithms.Algorithm;
+
+public class SiteVerifierTest {
+
+    @Test
+    public void testSiteVerifier() throws Exception {
+        final SiteVerifier site = new SiteVerifier("http://test.com", CryptoContext.hmac("HS256", "secret".getBytes()));
+        assertEquals("http://test.com", site.getIssuer());
+        assertEquals("HS256", site.getAlgorithmName());
+        assertTrue(site.verify(createToken("http://test.com", null, Algorithm.HMAC256("secret"))));
+        assertFalse(site.verify(createToken("http://test.com", null, Algorithm.HMAC256("wrong"))));
+        assertFalse(site.verify(createToken("http://other.com", null, Algorithm.HMAC256("secret"))));
+        assertFalse(site.verify(createToken("http://test.com", null, Algorithm.HMAC384("secret"))));
+    }
+
+    @Test
+    public void testDefaultSiteVerifier() throws Exception {
+        final SiteVerifier site = new SiteVerifier(null, CryptoContext.hmac("HS256", "secret".getBytes()));
+        assertNull(site.getIssuer());
+        assertTrue(site.verify(createToken("http://other.com", null, Algorithm.HMAC256("secret"))));
+    }
+
+    @Test
+    public void testSiteVerifierExpired() throws Exception {
+        final SiteVerifier site = new SiteVerifier("http://test.com", CryptoContext.hmac("HS256", "secret".getBytes()));
+        final Verifier token = createToken("http://test.com", null, Algorithm.HMAC256("secret"));
+        final long now = System.currentTimeMillis() / 1000;
+        assertNull(site.check(token, now));
+        assertEquals(TokenFailure.EXPIRED, site.check(token, now + 3 * 3600));
+        assertEquals(TokenFailure.NOT_YET_VALID, site.check(token, now - 3600));
+    }
+
+    @Test
+    public void testSiteVerifierFailures() throws Exception {
+        final SiteVerifier site = new SiteVerifier("http://test.com", CryptoContext.hmac("HS256", "secret".getBytes()));
+        assertEquals(TokenFailure.BAD_SIGNATURE,
+            site.check(createToken("http://test.com", null, Algorithm.HMAC256("wrong"))));
+        assertEquals(TokenFailure.UNKNOWN_ISSUER,
+            site.check(createToken("http://other.com", null, Algorithm.HMAC256("secret"))));
+        assertEquals(TokenFailure.WRONG_ALGORITHM,
+            site.check(createToken("http://test.com", null, Algorithm.HMAC512("secret"))));
+        assertFalse(TokenFailure.NOT_YET_VALID.isCacheable());
+        assertTrue(TokenFailure.BAD_SIGNATURE.isCacheable());
+    }
+
+    @Test
+    public void testClaimsCheckedBeforeSignature() throws Exception {
+        final SiteVerifier site = new SiteVerifier("http://test.com", CryptoContext.hmac("HS256", "secret".getBytes()));
+        final Verifier token = createToken("http://other.com", null, Algorithm.HMAC256("wrong"));
+        final long now = System.currentTimeMillis() / 1000;
+        assertEquals(TokenFailure.EXPIRED, site.check(token, now + 3 * 3600));
+        assertEquals(TokenFailure.UNKNOWN_ISSUER, site.check(token, now));
+    }
+
+    @Test
+    public void testLeeway() throws Exception {
+        final CryptoContext context = CryptoContext.hmac("HS256", "secret".getBytes());
+        final SiteVerifier strict = new SiteVerifier("http://test.com", context);
+        final SiteVerifier lenient = new SiteVerifier("http://test.com", context, 60);
+        final Verifier token = createToken("http://test.com", null, Algorithm.HMAC256("secret"));
+        final long expires = token.getExpiresAt().getTime() / 1000;
+        assertEquals(TokenFailure.EXPIRED, strict.check(token, expires + 30));
+        assertNull(lenient.check(token, expires + 30));
+        assertEquals(TokenFailure.EXPIRED, lenient.check(token, expires + 61));
+        final long now = System.currentTimeMillis() / 1000;
+        assertEquals(TokenFailure.NOT_YET_VALID, strict.check(token, now - 30));
+        assertNull(lenient.check(token, now - 30));
+    }
+
+    /**
+     * An HS256 key that counts its signature checks.
+     */
+    private static final class CountingKey extends Algorithm {
+        private final Algorithm algorithm;
+        private int checks = 0;
+
+        private CountingKey(final String secret) throws Exception {
+            super("HS256", "HmacSHA256");
+            this.algorithm = Algorithm.HMAC256(secret);
+        }
+
+        @Override
+        public void verify(final byte[] content, final byte[] signature) {
+            checks++;
+            algorithm.verify(content, signature);
+        }
+
+        @Override
+        public byte[] sign(final byte[] content) {
+            return algorithm.sign(content);
+        }
+    }
+
+    @Test
+    public void testKeyPickedByKeyId() throws Exception {
+        final CountingKey oldKey = new CountingKey("old");
+        final CountingKey newKey = new CountingKey("new");
+        final Map<String, CryptoContext> keysById = new HashMap<>();
+        keysById.put("2016", CryptoContext.wrap(oldKey));
+        keysById.put("2017", CryptoContext.wrap(newKey));
+        final SiteVerifier site = new SiteVerifier("http://test.com", keysById,
+            Arrays.asList(keysById.get("2017"), keysById.get("2016")), 0);
+
+        assertNull(site.check(createToken("http://test.com", "2016", "old")));
+        assertNull(site.check(createToken("http://test.com", "2017", "new")));
+        assertEquals(1, oldKey.checks);
+        assertEquals(1, newKey.checks);
+
+        // A known kid is only checked against its own key.
+        assertEquals(TokenFailure.BAD_SIGNATURE, site.check(createToken("http://test.com", "2017", "old")));
+        assertEquals(2, newKey.checks);
+        assertEquals(1, oldKey.checks);
+    }
+
+    @Test
+    public void testUnknownKeyIdNotTried() throws Exception {
+        final CountingKey oldKey = new CountingKey("old");
+        final CountingKey newKey = new CountingKey("new");
+        final Map<String, CryptoContext> keysById = new HashMap<>();
+        keysById.put("2016", CryptoContext.wrap(oldKey));
+        keysById.put("2017", CryptoContext.wrap(newKey));
+        final SiteVerifier site = new SiteVerifier("http://test.com", keysById,
+            Arrays.asList(keysById.get("2017"), keysById.get("2016")), 0);
+
+        // Every key has a kid, so a token naming another is rejected without a signature check.
+        for (int i = 0; i < 10; i++) {
+            assertEquals(TokenFailure.BAD_SIGNATURE, site.check(createToken("http://test.com", "unknown", "old")));
+        }
+        assertEquals(0, oldKey.checks + newKey.checks);
+
+        // Tokens without a kid still fall back.
+        assertNull(site.check(createToken("http://test.com", null, "old")));
+    }
+
+    @Test
+    public void testFallbackWithoutKeyId() throws Exception {
+        final CountingKey oldKey = new CountingKey("old");
+        final CountingKey newKey = new CountingKey("new");
+        final SiteVerifier site = new SiteVerifier("http://test.com", Collections.emptyMap(),
+            Arrays.asList(CryptoContext.wrap(newKey), CryptoContext.wrap(oldKey)), 0);
+
+        assertNull(site.check(createToken("http://test.com", null, "new")));
+        assertEquals(1, newKey.checks);
+        assertEquals(0, oldKey.checks);
+
+        // The key that last succeeded is tried first.
+        assertNull(site.check(createToken("http://test.com", null, "old")));
+        assertNull(site.check(createToken("http://test.com", "unknown", "old")));
+        assertEquals(2, newKey.checks);
+        assertEquals(2, oldKey.checks);
+
+        assertEquals(TokenFailure.BAD_SIGNATURE, site.check(createToken("http://test.com", null, "other")));
+    }
+
+    @Test
+    public void testFallbackIsBounded() throws Exception {
+        final Map<String, CryptoContext> keysById = new HashMap<>();
+        keysById.put("a", CryptoContext.hmac("HS256", "a".getBytes()));
+        keysById.put("b", CryptoContext.hmac("HS256", "b".getBytes()));
+        keysById.put("c", CryptoContext.hmac("HS256", "c".getBytes()));
+        final SiteVerifier site = new SiteVerifier("http://test.com", keysById,
+            Arrays.asList(keysById.get("a"), keysById.get("b")), 0);
+
+        assertNull(site.check(createToken("http://test.com", null, "b")));
+        assertNull(site.check(createToken("http://test.com", "c", "c")));
+        assertEquals(TokenFailure.BAD_SIGNATURE, site.check(createToken("http://test.com", null, "c")));
+    }
+}
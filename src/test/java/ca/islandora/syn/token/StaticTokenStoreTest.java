@@ -0,0 +1,141 @@
+package ca.islandora.syn.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StaticTokenStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFind() throws Exception {
+        final int count = 20000;
+        final Map<TokenDigest, StaticTokenStore.Record> tokens = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            tokens.put(TokenDigest.of("token-" + i),
+                new StaticTokenStore.Record("service" + (i % 10), Arrays.asList("role" + (i % 3), "fedoraAdmin")));
+        }
+        final File file = temporaryFolder.newFile();
+        StaticTokenStore.write(file.toPath(), tokens);
+        // Records for the same user and roles are shared.
+        assertTrue(file.length() < 20 + count * 2 + count * 36 + 1000);
+
+        final StaticTokenStore store = StaticTokenStore.open(file);
+        assertEquals(count, store.size());
+        for (int i = 0; i < count; i++) {
+            final StaticTokenStore.Record record = store.find(TokenDigest.of("token-" + i));
+            assertEquals("service" + (i % 10), record.getUser());
+            assertEquals(Arrays.asList("role" + (i % 3), "fedoraAdmin"), record.getRoles());
+        }
+        for (int i = 0; i < count; i++) {
+            assertNull(store.find(TokenDigest.of("other-" + i)));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final File file = temporaryFolder.newFile();
+        StaticTokenStore.write(file.toPath(), Collections.emptyMap());
+        final StaticTokenStore store = StaticTokenStore.open(file);
+        assertEquals(0, store.size());
+        assertNull(store.find(TokenDigest.of("token")));
+    }
+
+    @Test
+    public void testNotAStore() throws Exception {
+        final File file = temporaryFolder.newFile();
+        for (final byte[] content : new byte[][] { new byte[0], "not a static token file".getBytes() }) {
+            Files.write(file.toPath(), content);
+            try {
+                StaticTokenStore.open(file);
+                fail("Expected the file to be rejected.");
+            } catch (final IOException e) {
+                // Expected
+            }
+        }
+
+        StaticTokenStore.write(file.toPath(), Collections.singletonMap(TokenDigest.of("token"),
+            new StaticTokenStore.Record("user", Collections.emptyList())));
+        final byte[] truncated = Arrays.copyOf(Files.readAllBytes(file.toPath()), 40);
+        Files.write(file.toPath(), truncated);
+        try {
+            StaticTokenStore.open(file);
+            fail("Expected the truncated file to be rejected.");
+        } catch (final IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCorruptRecords() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final Map<TokenDigest, StaticTokenStore.Record> tokens = new LinkedHashMap<>();
+        tokens.put(TokenDigest.of("token"), new StaticTokenStore.Record("user", Arrays.asList("role1", "role2")));
+        tokens.put(TokenDigest.of("other"), new StaticTokenStore.Record("other", Collections.emptyList()));
+        StaticTokenStore.write(file.toPath(), tokens);
+        final byte[] saved = Files.readAllBytes(file.toPath());
+        // Header, one Bloom filter word, then two entries of digest and record offset.
+        final int firstOffset = 20 + 8 + 32;
+
+        final byte[] truncated = Arrays.copyOf(saved, saved.length - 3);
+        // The other token's record, without roles, is last; claim a role it does not have.
+        final byte[] extraRole = saved.clone();
+        extraRole[saved.length - 1] = 1;
+        final byte[] midRecord = saved.clone();
+        midRecord[firstOffset + 3] += 1;
+        for (final byte[] content : new byte[][] { truncated, extraRole, midRecord }) {
+            Files.write(file.toPath(), content);
+            try {
+                StaticTokenStore.open(file);
+                fail("Expected the corrupt file to be rejected.");
+            } catch (final IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testMain() throws Exception {
+        final File text = temporaryFolder.newFile();
+        final File file = new File(temporaryFolder.getRoot(), "tokens.bin");
+        final String digest = "sha256:" + toHex(TokenDigest.of("hidden token").bytes());
+        Files.write(text.toPath(), String.join("\n"
+            , "# service accounts"
+            , "plain token\tingest\trole1,role2"
+            , ""
+            , digest + "\tmigrate\t"
+            , "plain token\tsecond\trole3"
+        ).getBytes());
+        StaticTokenStore.main(new String[] { text.getAbsolutePath(), file.getAbsolutePath() });
+
+        final StaticTokenStore store = StaticTokenStore.open(file);
+        assertEquals(2, store.size());
+        assertEquals("ingest", store.find(TokenDigest.of("plain token")).getUser());
+        assertEquals(Arrays.asList("role1", "role2"), store.find(TokenDigest.of("plain token")).getRoles());
+        assertEquals("migrate", store.find(TokenDigest.of("hidden token")).getUser());
+        assertTrue(store.find(TokenDigest.of("hidden token")).getRoles().isEmpty());
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package ca.islandora.syn.token;
+
+import java.io.UnsupportedEncodingException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Date;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+/**
+ * Signed tokens for the verifier tests, issued now for user admin with role
+ * Role1 and expiring in two hours.
+ */
+public final class TestTokens {
+
+    private TestTokens() {
+    }
+
+    /**
+     * @param issuer
+     *        the iss claim
+     * @param keyId
+     *        the kid header, or null for none
+     * @param algorithm
+     *        signs the token
+     * @return the decoded token
+     */
+    public static Verifier createToken(final String issuer, final String keyId, final Algorithm algorithm) {
+        final ZoneOffset offset = ZoneId.systemDefault().getRules().getOffset(Instant.now());
+        return Verifier.create(JWT.create()
+                .withHeader(keyId == null ? Collections.emptyMap() : Collections.singletonMap("kid", keyId))
+                .withArrayClaim("roles", new String[] { "Role1" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", issuer)
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(algorithm));
+    }
+
+    /**
+     * @param issuer
+     *        the iss claim
+     * @param keyId
+     *        the kid header, or null for none
+     * @param secret
+     *        the HS256 secret
+     * @return the decoded token
+     * @throws UnsupportedEncodingException if the secret can not be encoded
+     */
+    public static Verifier createToken(final String issuer, final String keyId, final String secret)
+            throws UnsupportedEncodingException {
+        return createToken(issuer, keyId, Algorithm.HMAC256(secret));
+    }
+}
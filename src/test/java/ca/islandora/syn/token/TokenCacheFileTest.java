@@ -0,0 +1,151 @@
+package ca.islandora.syn.token;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TokenCacheFileTest {
+
+    private static final byte[] key = "settings fingerprint".getBytes();
+
+    private static final TokenCacheFile.Codec<String> codec = new TokenCacheFile.Codec<String>() {
+        @Override
+        public boolean write(final DataOutput out, final String value) throws IOException {
+            if (value.equals("unsaved")) {
+                return false;
+            }
+            out.writeUTF(value);
+            return true;
+        }
+
+        @Override
+        public String read(final DataInput in) throws IOException {
+            final String value = in.readUTF();
+            return value.equals("dropped") ? null : value;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TokenCache<String> cache = new TokenCache<>(1000, 300);
+        for (int i = 0; i < 100; i++) {
+            cache.put(TokenDigest.of("token-" + i), "value-" + i, now + 60000, now);
+        }
+        cache.put(TokenDigest.of("short lived"), "short", now + 50, now);
+        cache.put(TokenDigest.of("dropped"), "dropped", now + 60000, now);
+        cache.put(TokenDigest.of("unsaved"), "unsaved", now + 60000, now);
+        final File file = new File(temporaryFolder.getRoot(), "cache.bin");
+        assertEquals(102, TokenCacheFile.write(file.toPath(), cache, key, codec));
+
+        Thread.sleep(100);
+        final TokenCache<String> loaded = new TokenCache<>(1000, 300);
+        assertEquals(100, TokenCacheFile.read(file.toPath(), loaded, key, codec));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value-" + i, loaded.get(TokenDigest.of("token-" + i)));
+        }
+        assertNull(loaded.get(TokenDigest.of("short lived")));
+        assertNull(loaded.get(TokenDigest.of("dropped")));
+        assertNull(loaded.get(TokenDigest.of("unsaved")));
+
+        // Entries keep their expiry, and are capped by the new cache's time-to-live.
+        final TokenCache<String> shorter = new TokenCache<>(1000, 1);
+        TokenCacheFile.read(file.toPath(), shorter, key, codec);
+        assertEquals("value-1", shorter.get(TokenDigest.of("token-1")));
+        assertNull(shorter.get(TokenDigest.of("token-1"), System.currentTimeMillis() + 1001));
+        assertEquals("value-2", loaded.get(TokenDigest.of("token-2"), now + 59999));
+        assertNull(loaded.get(TokenDigest.of("token-2"), now + 60000));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final File file = new File(temporaryFolder.getRoot(), "cache.bin");
+        assertEquals(0, TokenCacheFile.write(file.toPath(), new TokenCache<String>(1000, 300), key, codec));
+        assertEquals(0, TokenCacheFile.read(file.toPath(), new TokenCache<String>(1000, 300), key, codec));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TokenCache<String> cache = new TokenCache<>(1000, 300);
+        cache.put(TokenDigest.of("token"), "value", now + 60000, now);
+        final File file = new File(temporaryFolder.getRoot(), "cache.bin");
+        TokenCacheFile.write(file.toPath(), cache, key, codec);
+        final byte[] saved = Files.readAllBytes(file.toPath());
+
+        assertRejected(file, "other settings".getBytes());
+
+        for (final int position : new int[] { 8, 20, saved.length - 40, saved.length - 1 }) {
+            final byte[] altered = saved.clone();
+            altered[position] ^= 1;
+            Files.write(file.toPath(), altered);
+            assertRejected(file, key);
+        }
+
+        for (final byte[] content : new byte[][] { new byte[0], "not a token cache file, not at all".getBytes() }) {
+            Files.write(file.toPath(), content);
+            assertRejected(file, key);
+        }
+    }
+
+    @Test
+    public void testSecret() throws Exception {
+        final Path file = new File(temporaryFolder.getRoot(), "cache.bin.key").toPath();
+        final byte[] secret = TokenCacheFile.secret(file);
+        assertEquals(32, secret.length);
+        assertArrayEquals(secret, TokenCacheFile.secret(file));
+        assertFalse(Arrays.equals(secret,
+            TokenCacheFile.secret(new File(temporaryFolder.getRoot(), "other.key").toPath())));
+
+        // Keys differ by secret and by fingerprint.
+        final byte[] derived = TokenCacheFile.key(secret, key);
+        assertFalse(Arrays.equals(derived, TokenCacheFile.key(secret, "other settings".getBytes())));
+        assertFalse(Arrays.equals(derived, TokenCacheFile.key(new byte[32], key)));
+
+        final PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (view != null) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), view.readAttributes().permissions());
+            final Set<PosixFilePermission> shared = PosixFilePermissions.fromString("rw-r--r--");
+            view.setPermissions(shared);
+            try {
+                TokenCacheFile.secret(file);
+                fail("Expected a secret readable by others to be refused.");
+            } catch (final IOException e) {
+                assertTrue(e.getMessage().startsWith("Token cache secret may be used by others"));
+            }
+        }
+    }
+
+    private static void assertRejected(final File file, final byte[] key) {
+        final TokenCache<String> loaded = new TokenCache<>(1000, 300);
+        try {
+            TokenCacheFile.read(file.toPath(), loaded, key, codec);
+            fail("Expected the file to be rejected.");
+        } catch (final IOException e) {
+            // Expected
+        }
+        assertEquals(0, loaded.size());
+    }
+}
@@ -0,0 +1,105 @@
+package ca.islandora.syn.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenCacheTest {
+
+    @Test
+    public void testDigestEquality() {
+        assertEquals(TokenDigest.of("abc"), TokenDigest.of("abc"));
+        assertEquals(TokenDigest.of("abc").hashCode(), TokenDigest.of("abc").hashCode());
+        assertNotEquals(TokenDigest.of("abc"), TokenDigest.of("abd"));
+        assertEquals(TokenDigest.of("abc"), TokenDigest.of("abc".getBytes()));
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        final TokenCache<String> cache = new TokenCache<>(10, 60);
+        cache.put(TokenDigest.of("token"), "value", 10000L, 0L);
+        assertEquals("value", cache.get(TokenDigest.of("token"), 1L));
+        assertNull(cache.get(TokenDigest.of("other"), 1L));
+    }
+
+    @Test
+    public void testExpiresWithToken() {
+        final TokenCache<String> cache = new TokenCache<>(10, 60);
+        cache.put(TokenDigest.of("token"), "value", 5000L, 0L);
+        assertEquals("value", cache.get(TokenDigest.of("token"), 4999L));
+        assertNull(cache.get(TokenDigest.of("token"), 5000L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiresWithTtl() {
+        final TokenCache<String> cache = new TokenCache<>(10, 1);
+        cache.put(TokenDigest.of("token"), "value", 60000L, 0L);
+        assertEquals("value", cache.get(TokenDigest.of("token"), 999L));
+        assertNull(cache.get(TokenDigest.of("token"), 1000L));
+    }
+
+    @Test
+    public void testAlreadyExpiredNotCached() {
+        final TokenCache<String> cache = new TokenCache<>(10, 60);
+        cache.put(TokenDigest.of("token"), "value", 1000L, 2000L);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        final TokenCache<String> cache = new TokenCache<>(5, 60);
+        cache.put(TokenDigest.of("expired"), "value", 10L, 0L);
+        for (int i = 0; i < 20; i++) {
+            cache.put(TokenDigest.of("token" + i), "value" + i, 10000L, 100L);
+        }
+        assertTrue(cache.size() <= 5);
+        assertNull(cache.get(TokenDigest.of("expired"), 100L));
+        assertEquals("value19", cache.get(TokenDigest.of("token19"), 100L));
+    }
+
+    @Test
+    public void testOldestEvicted() {
+        final TokenCache<String> cache = new TokenCache<>(5, 60);
+        for (int i = 0; i < 5; i++) {
+            cache.put(TokenDigest.of("token" + i), "value" + i, 10000L, 0L);
+        }
+        cache.remove(TokenDigest.of("token1"));
+        cache.put(TokenDigest.of("token1"), "again", 10000L, 0L);
+        cache.put(TokenDigest.of("token5"), "value5", 10000L, 0L);
+        assertNull(cache.get(TokenDigest.of("token0"), 1L));
+        // Put again since, so its first slot no longer drops it.
+        cache.put(TokenDigest.of("token6"), "value6", 10000L, 0L);
+        assertEquals("again", cache.get(TokenDigest.of("token1"), 1L));
+        assertEquals(5, cache.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testFullCachePutsStayCheap() {
+        // Scanning a full cache on every put would take minutes here.
+        final int size = 100000;
+        final TokenCache<String> cache = new TokenCache<>(size, 60);
+        final TokenDigest[] digests = new TokenDigest[4 * size];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = TokenDigest.of("token" + i);
+        }
+        for (final TokenDigest digest : digests) {
+            cache.put(digest, "value", 10000L, 0L);
+        }
+        assertEquals(size, cache.size());
+        assertNull(cache.get(digests[3 * size - 1], 1L));
+        assertEquals("value", cache.get(digests[3 * size], 1L));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        final TokenCache<String> cache = new TokenCache<>(0, 60);
+        cache.put(TokenDigest.of("token"), "value", 10000L, 0L);
+        assertNull(cache.get(TokenDigest.of("token"), 1L));
+    }
+}
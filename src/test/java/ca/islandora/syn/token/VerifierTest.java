@@ -143,4 +143,69 @@ public class VerifierTest {
         assertEquals("Role2", roles.get(1));
         assertFalse(verifier.verify(Algorithm.HMAC256("secret")));
     }
+
+    @Test
+    public void testVerifyAlgorithmMismatch() throws Exception {
+        token = JWT.create()
+                .withArrayClaim("roles", new String[] { "Role1" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://test.com")
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final Verifier verifier = Verifier.create(token);
+        assertFalse(verifier.verify(Algorithm.HMAC512("secret")));
+    }
+
+    @Test
+    public void testVerifyIssuedInFuture() throws Exception {
+        token = JWT.create()
+                .withArrayClaim("roles", new String[] { "Role1" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://test.com")
+                .withIssuedAt(Date.from(LocalDateTime.now().plusHours(1).toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final Verifier verifier = Verifier.create(token);
+        assertFalse(verifier.verify(Algorithm.HMAC256("secret")));
+    }
+
+    @Test
+    public void testClaimsRolesNotList() {
+        token = JWT.create()
+                .withClaim("roles", "Role1")
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://test.com")
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.none());
+        assertNull(Verifier.create(token));
+    }
+
+    @Test
+    public void testClaimsBadEncoding() {
+        assertNull(Verifier.create("a.b.c"));
+        assertNull(Verifier.create("e30.e30.!!"));
+        assertNull(Verifier.create("bnVsbA.bnVsbA."));
+        assertNull(Verifier.create("e30.e30.e30.e30"));
+    }
+
+    @Test
+    public void testExpiresAt() {
+        final Date expires = Date.from(LocalDateTime.now().plusHours(2).withNano(0).toInstant(offset));
+        token = JWT.create()
+                .withArrayClaim("roles", new String[] { "Role1" })
+                .withClaim("webid", 1)
+                .withClaim("sub", "admin")
+                .withClaim("iss", "http://test.com")
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(expires)
+                .sign(Algorithm.none());
+        assertEquals(expires, Verifier.create(token).getExpiresAt());
+    }
 }
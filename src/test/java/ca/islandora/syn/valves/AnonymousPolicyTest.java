@@ -0,0 +1,131 @@
+package ca.islandora.syn.valves;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.junit.Test;
+
+import ca.islandora.syn.settings.AnonymousRule;
+import ca.islandora.syn.valve.AnonymousPolicy;
+
+public class AnonymousPolicyTest {
+
+    private static MessageBytes bytesPath(final String value) {
+        final byte[] bytes = ("xx" + value + "yy").getBytes();
+        final MessageBytes path = MessageBytes.newInstance();
+        path.setBytes(bytes, 2, bytes.length - 4);
+        return path;
+    }
+
+    private static MessageBytes charsPath(final String value) {
+        final MessageBytes path = MessageBytes.newInstance();
+        path.setChars(value.toCharArray(), 0, value.length());
+        return path;
+    }
+
+    private static MessageBytes stringPath(final String value) {
+        final MessageBytes path = MessageBytes.newInstance();
+        path.setString(value);
+        return path;
+    }
+
+    private static AnonymousPolicy policy(final String... pathsAndMethods) {
+        final List<AnonymousRule> rules = new ArrayList<>();
+        for (int i = 0; i < pathsAndMethods.length; i += 2) {
+            rules.add(new AnonymousRule(pathsAndMethods[i], pathsAndMethods[i + 1]));
+        }
+        return AnonymousPolicy.compile("http://test.com", rules);
+    }
+
+    @Test
+    public void testPaths() {
+        final AnonymousPolicy policy = policy(
+            "/fcrepo/rest/public/*", "GET,HEAD",
+            "/fcrepo/rest/public/upload", "POST",
+            "/favicon.ico", "GET",
+            "/", "GET");
+        for (final String path : new String[] { "/fcrepo/rest/public", "/fcrepo/rest/public/", "/fcrepo/rest/public/a",
+            "/fcrepo/rest/public/a/b/c", "/favicon.ico", "/" }) {
+            assertTrue(path, policy.allows("GET", bytesPath(path)));
+            assertTrue(path, policy.allows("GET", charsPath(path)));
+            assertTrue(path, policy.allows("GET", stringPath(path)));
+        }
+        assertTrue(policy.allows("HEAD", bytesPath("/fcrepo/rest/public/a")));
+        assertFalse(policy.allows("HEAD", bytesPath("/favicon.ico")));
+        assertTrue(policy.allows("POST", bytesPath("/fcrepo/rest/public/upload")));
+        assertFalse(policy.allows("POST", bytesPath("/fcrepo/rest/public/upload/a")));
+        assertFalse(policy.allows("POST", bytesPath("/fcrepo/rest/public/a")));
+        assertFalse(policy.allows("PUT", bytesPath("/fcrepo/rest/public/a")));
+
+        for (final String path : new String[] { "/fcrepo/rest/publicity", "/fcrepo/rest", "/fcrepo/rest/Public/a",
+            "/favicon.ico/a", "/favicon.ico/", "", "fcrepo/rest/public/a", "/fcrepo/rest/public/../private",
+            "/fcrepo/rest/public/a/../../private", "/fcrepo/rest/public/a//b", "/fcrepo/rest/public/./a",
+            "/fcrepo//rest/public/a", "/other" }) {
+            assertFalse(path, policy.allows("GET", bytesPath(path)));
+        }
+        assertFalse(policy.allows("GET", MessageBytes.newInstance()));
+        assertFalse(policy.allows("GET", null));
+    }
+
+    @Test
+    public void testEverything() {
+        final AnonymousPolicy policy = policy("/*", "GET,HEAD", "*", "OPTIONS");
+        for (final String path : new String[] { "/", "/a", "/a/../b", "", "//" }) {
+            assertTrue(path, policy.allows("GET", bytesPath(path)));
+            assertTrue(path, policy.allows("OPTIONS", bytesPath(path)));
+            assertFalse(path, policy.allows("POST", bytesPath(path)));
+        }
+        assertTrue(policy.allows("GET", null));
+        assertTrue(policy.allows("get", null));
+        assertFalse(policy.allows("head", null));
+    }
+
+    @Test
+    public void testMethods() {
+        final AnonymousPolicy policy = policy("/public/*", "*", "/read/*", " get , Head ");
+        for (final String method : new String[] { "GET", "POST", "DELETE", "PROPFIND" }) {
+            assertTrue(method, policy.allows(method, bytesPath("/public/a")));
+        }
+        assertTrue(policy.allows("GET", bytesPath("/read/a")));
+        assertTrue(policy.allows("HEAD", bytesPath("/read/a")));
+        assertFalse(policy.allows("PROPFIND", bytesPath("/read/a")));
+        assertFalse(policy.allows(null, bytesPath("/read/a")));
+    }
+
+    @Test
+    public void testInvalidRules() {
+        assertSame(AnonymousPolicy.NONE, policy("/a/*", "GET,PROPFIND", "/a/*", "", "/a/*", "GET,"));
+        assertSame(AnonymousPolicy.NONE, policy("a", "GET", "/a*", "GET", "/*/a", "GET", "/a/", "GET",
+            "/a//b", "GET", "/a/../b", "GET", "", "GET"));
+        assertSame(AnonymousPolicy.NONE, AnonymousPolicy.compile("http://test.com", null));
+        assertSame(AnonymousPolicy.NONE, AnonymousPolicy.compile("http://test.com", Collections.emptyList()));
+
+        final AnonymousPolicy policy = AnonymousPolicy.compile("http://test.com",
+            Arrays.asList(new AnonymousRule("/a/", "GET"), new AnonymousRule("/b", "GET")));
+        assertFalse(policy.allows("GET", bytesPath("/a/")));
+        assertTrue(policy.allows("GET", bytesPath("/b")));
+    }
+
+    @Test
+    public void testManyRules() {
+        final List<AnonymousRule> rules = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            rules.add(new AnonymousRule("/collection" + i + "/*", "GET"));
+            rules.add(new AnonymousRule("/collection" + i + "/item" + i, "POST"));
+        }
+        final AnonymousPolicy policy = AnonymousPolicy.compile("http://test.com", rules);
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(policy.allows("GET", bytesPath("/collection" + i + "/item")));
+            assertTrue(policy.allows("POST", bytesPath("/collection" + i + "/item" + i)));
+            assertFalse(policy.allows("POST", bytesPath("/collection" + i + "/item")));
+        }
+        assertFalse(policy.allows("GET", bytesPath("/collection2000/item")));
+    }
+}
@@ -0,0 +1,65 @@
+package ca.islandora.syn.valves;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.junit.Test;
+
+import ca.islandora.syn.token.TokenDigest;
+import ca.islandora.syn.valve.BearerToken;
+
+public class BearerTokenTest {
+
+    private static MessageBytes bytesHeader(final String value) {
+        // Pad the buffer so the header is a slice in the middle of it, like a request buffer.
+        final byte[] bytes = ("xx" + value + "yy").getBytes();
+        final MessageBytes header = MessageBytes.newInstance();
+        header.setBytes(bytes, 2, bytes.length - 4);
+        return header;
+    }
+
+    private static MessageBytes stringHeader(final String value) {
+        final MessageBytes header = MessageBytes.newInstance();
+        header.setString(value);
+        return header;
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals("abc.def.ghi", BearerToken.parse(bytesHeader("Bearer abc.def.ghi")).toString());
+        assertEquals("abc.def.ghi", BearerToken.parse(stringHeader("Bearer abc.def.ghi")).toString());
+    }
+
+    @Test
+    public void testSchemeCaseInsensitive() {
+        assertEquals("1337", BearerToken.parse(bytesHeader("bearer 1337")).toString());
+        assertEquals("1337", BearerToken.parse(bytesHeader("BEARER 1337")).toString());
+        assertEquals("1337", BearerToken.parse(bytesHeader("bEaReR 1337")).toString());
+    }
+
+    @Test
+    public void testWhitespace() {
+        assertEquals("1337", BearerToken.parse(bytesHeader("Bearer  1337")).toString());
+        assertEquals("1337", BearerToken.parse(bytesHeader("Bearer\t1337 ")).toString());
+        assertEquals("1337", BearerToken.parse(bytesHeader(" Bearer 1337")).toString());
+    }
+
+    @Test
+    public void testMalformed() {
+        assertNull(BearerToken.parse(bytesHeader("garbage")));
+        assertNull(BearerToken.parse(bytesHeader("killer bandit foo")));
+        assertNull(BearerToken.parse(bytesHeader("Bearer")));
+        assertNull(BearerToken.parse(bytesHeader("Bearer ")));
+        assertNull(BearerToken.parse(bytesHeader("Bearer1337")));
+        assertNull(BearerToken.parse(bytesHeader("Bearer 13 37")));
+        assertNull(BearerToken.parse(bytesHeader("Basic dXNlcjpwYXNz")));
+        assertNull(BearerToken.parse(bytesHeader("")));
+    }
+
+    @Test
+    public void testDigest() {
+        assertEquals(TokenDigest.of("1337"), BearerToken.parse(bytesHeader("Bearer 1337")).digest());
+        assertEquals(TokenDigest.of("1337"), BearerToken.parse(stringHeader("Bearer 1337")).digest());
+    }
+}
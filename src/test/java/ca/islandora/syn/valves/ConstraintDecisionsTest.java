@@ -0,0 +1,156 @@
+package ca.islandora.syn.valves;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.realm.NullRealm;
+import org.apache.tomcat.util.descriptor.web.SecurityCollection;
+import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.islandora.syn.valve.ConstraintDecisions;
+import ca.islandora.syn.valve.ConstraintDecisions.Decision;
+
+public class ConstraintDecisionsTest {
+
+    private StandardContext context;
+    private NullRealm realm;
+    private ConstraintDecisions decisions;
+
+    @Before
+    public void setUp() {
+        context = new StandardContext();
+        context.setName("/fcrepo");
+        context.setPath("/fcrepo");
+        realm = new NullRealm();
+        decisions = new ConstraintDecisions();
+    }
+
+    private static SecurityConstraint constraint(final boolean auth, final String pattern, final String method) {
+        final SecurityCollection collection = new SecurityCollection();
+        collection.addPattern(pattern);
+        if (method != null) {
+            collection.addMethod(method);
+        }
+        final SecurityConstraint constraint = new SecurityConstraint();
+        constraint.addCollection(collection);
+        constraint.setAuthConstraint(auth);
+        if (auth) {
+            constraint.addAuthRole("*");
+        }
+        return constraint;
+    }
+
+    private Request request(final String method, final String path) {
+        final org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+        coyoteRequest.method().setString(method);
+        final Request request = new Request();
+        request.setCoyoteRequest(coyoteRequest);
+        request.getMappingData().context = context;
+        request.getMappingData().requestPath.setString(path);
+        return request;
+    }
+
+    @Test
+    public void testEveryPathPatterns() {
+        context.addConstraint(constraint(true, "/*", null));
+        context.addConstraint(constraint(true, "/*", "GET"));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(1, decisions.size());
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/other")));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("POST", "/rest/object")));
+        assertEquals(2, decisions.size());
+    }
+
+    @Test
+    public void testMixedEveryPathPatterns() {
+        // "/" matches the context root exactly, before "/*", so the root must not decide for other paths.
+        context.addConstraint(constraint(false, "/", null));
+        context.addConstraint(constraint(true, "/*", null));
+        assertEquals(Decision.OPEN, decisions.decide(realm, request("GET", "/")));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(0, decisions.size());
+    }
+
+    @Test
+    public void testMethods() {
+        context.addConstraint(constraint(true, "/*", "POST"));
+        assertEquals(Decision.UNCONSTRAINED, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("POST", "/rest/object")));
+        assertEquals(Decision.UNCONSTRAINED, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(2, decisions.size());
+        for (int i = 0; i < 100; i++) {
+            decisions.decide(realm, request("METHOD" + i, "/rest/object"));
+        }
+        assertEquals(16, decisions.size());
+    }
+
+    @Test
+    public void testOtherPatterns() {
+        context.addConstraint(constraint(true, "/admin/*", null));
+        context.addConstraint(constraint(false, "/public/*", null));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/admin/object")));
+        assertEquals(Decision.OPEN, decisions.decide(realm, request("GET", "/public/object")));
+        assertEquals(Decision.UNCONSTRAINED, decisions.decide(realm, request("GET", "/other")));
+        assertEquals(0, decisions.size());
+    }
+
+    @Test
+    public void testConstraintsChange() {
+        final SecurityConstraint open = constraint(false, "/*", null);
+        context.addConstraint(constraint(true, "/*", null));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        context.addConstraint(open);
+        assertEquals(Decision.OPEN, decisions.decide(realm, request("GET", "/rest/object")));
+        context.removeConstraint(open);
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        context.addConstraint(constraint(true, "/admin/*", null));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/other")));
+        assertEquals(0, decisions.size());
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/admin/object")));
+    }
+
+    @Test
+    public void testLifecycle() {
+        context.addConstraint(constraint(true, "/*", null));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(1, context.findLifecycleListeners().length);
+        for (final LifecycleListener listener : context.findLifecycleListeners()) {
+            listener.lifecycleEvent(new LifecycleEvent(context, Lifecycle.AFTER_STOP_EVENT, null));
+        }
+        assertEquals(0, decisions.size());
+        assertEquals(0, context.findLifecycleListeners().length);
+
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(1, decisions.size());
+        decisions.clear();
+        assertEquals(0, decisions.size());
+        assertEquals(0, context.findLifecycleListeners().length);
+    }
+
+    @Test
+    public void testOtherRealms() {
+        context.addConstraint(constraint(true, "/*", null));
+        final AtomicInteger calls = new AtomicInteger();
+        final NullRealm counting = new NullRealm() {
+            @Override
+            public SecurityConstraint[] findSecurityConstraints(final Request request, final Context context) {
+                calls.incrementAndGet();
+                return super.findSecurityConstraints(request, context);
+            }
+        };
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(realm, request("GET", "/rest/object")));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(counting, request("GET", "/rest/object")));
+        assertEquals(Decision.AUTHENTICATE, decisions.decide(counting, request("GET", "/rest/object")));
+        assertEquals(2, calls.get());
+        assertEquals(0, decisions.size());
+    }
+}
@@ -0,0 +1,126 @@
+package ca.islandora.syn.valves;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.junit.Test;
+
+import ca.islandora.syn.valve.SiteResolver;
+
+public class SiteResolverTest {
+
+    private static MessageBytes bytesHost(final String value) {
+        // Pad the buffer so the host is a slice in the middle of it, like a request buffer.
+        final byte[] bytes = ("xx" + value + "yy").getBytes();
+        final MessageBytes host = MessageBytes.newInstance();
+        host.setBytes(bytes, 2, bytes.length - 4);
+        return host;
+    }
+
+    private static MessageBytes charsHost(final String value) {
+        final MessageBytes host = MessageBytes.newInstance();
+        host.setChars(value.toCharArray(), 0, value.length());
+        return host;
+    }
+
+    private static MessageBytes stringHost(final String value) {
+        final MessageBytes host = MessageBytes.newInstance();
+        host.setString(value);
+        return host;
+    }
+
+    private static SiteResolver<String> resolver(final String... urls) {
+        final Map<String, String> sites = new HashMap<>();
+        for (final String url : urls) {
+            sites.put(url, url);
+        }
+        return SiteResolver.build(sites, "none");
+    }
+
+    @Test
+    public void testHosts() {
+        final SiteResolver<String> resolver = resolver("http://test.com", "https://secure.com",
+            "http://localhost:8080", "https://*.example.org", "https://www.example.org/");
+        for (final MessageBytes host : new MessageBytes[] { bytesHost("test.com"), charsHost("test.com"),
+            stringHost("test.com"), bytesHost("TEST.com."), stringHost("Test.Com") }) {
+            assertEquals("http://test.com", resolver.resolve("http", host, 80));
+            assertEquals("http://test.com", resolver.resolve("HTTP", host, 80));
+            assertEquals("none", resolver.resolve("https", host, 443));
+            assertEquals("none", resolver.resolve("http", host, 8080));
+        }
+        assertEquals("https://secure.com", resolver.resolve("https", bytesHost("secure.com"), 443));
+        assertEquals("none", resolver.resolve("https", bytesHost("secure.com"), 8443));
+        assertEquals("http://localhost:8080", resolver.resolve("http", bytesHost("localhost"), 8080));
+        assertEquals("none", resolver.resolve("http", bytesHost("localhost"), 80));
+
+        assertEquals("https://*.example.org", resolver.resolve("https", bytesHost("a.example.org"), 443));
+        assertEquals("https://www.example.org/", resolver.resolve("https", bytesHost("www.example.org"), 443));
+        assertEquals("none", resolver.resolve("https", bytesHost("example.org"), 443));
+        assertEquals("none", resolver.resolve("https", bytesHost("a.b.example.org"), 443));
+        assertEquals("none", resolver.resolve("http", bytesHost("a.example.org"), 80));
+
+        assertEquals("none", resolver.resolve("http", bytesHost(""), 80));
+        assertEquals("none", resolver.resolve("http", bytesHost("."), 80));
+        assertEquals("none", resolver.resolve("http", bytesHost("com"), 80));
+        assertEquals("none", resolver.resolve("http", MessageBytes.newInstance(), 80));
+    }
+
+    @Test
+    public void testIssuers() {
+        final SiteResolver<String> resolver = resolver("http://test.com", "https://test.com:8443/drupal",
+            "https://*.example.org", "drupal-site", "http://[::1]:8080");
+        assertEquals("http://test.com", resolver.resolve("http://test.com"));
+        assertEquals("http://test.com", resolver.resolve("http://TEST.com:80/"));
+        assertEquals("none", resolver.resolve("http://test.com/other"));
+        assertEquals("https://test.com:8443/drupal", resolver.resolve("https://test.com:8443/drupal/"));
+        assertEquals("none", resolver.resolve("https://test.com:8443/Drupal"));
+        assertEquals("none", resolver.resolve("https://test.com/drupal"));
+        assertEquals("https://*.example.org", resolver.resolve("https://site1.example.org"));
+        assertEquals("drupal-site", resolver.resolve("drupal-site"));
+        assertEquals("http://[::1]:8080", resolver.resolve("http://[::1]:8080"));
+        assertEquals("none", resolver.resolve("http://[::1]"));
+        assertEquals("none", resolver.resolve("http://user@test.com"));
+        assertEquals("none", resolver.resolve("http://test.com:port"));
+        assertEquals("none", resolver.resolve(""));
+        assertEquals("none", resolver.resolve((String) null));
+    }
+
+    @Test
+    public void testDefault() {
+        final Map<String, String> sites = new HashMap<>();
+        sites.put("http://test.com", "site");
+        sites.put(null, "default");
+        final SiteResolver<String> resolver = SiteResolver.build(sites, "none");
+        assertEquals("site", resolver.resolve("http://test.com"));
+        assertEquals("default", resolver.resolve("http://other.com"));
+        assertEquals("default", resolver.resolve("https", bytesHost("other.com"), 443));
+
+        assertNull(SiteResolver.build(new HashMap<String, String>(), null).resolve("http://test.com"));
+    }
+
+    @Test
+    public void testInvalidWildcards() {
+        final SiteResolver<String> resolver = resolver("https://a.*.example.org", "https://*", "https://*.",
+            "https://*.*.example.org");
+        assertEquals("none", resolver.resolve("https://a.b.example.org"));
+        assertEquals("none", resolver.resolve("https://a.b.c.example.org"));
+        assertEquals("none", resolver.resolve("https://test.com"));
+    }
+
+    @Test
+    public void testManyHosts() {
+        final Map<String, Integer> sites = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            sites.put("https://site" + i + ".example.org", i);
+        }
+        final SiteResolver<Integer> resolver = SiteResolver.build(sites, -1);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(Integer.valueOf(i), resolver.resolve("https", bytesHost("site" + i + ".example.org"), 443));
+        }
+        assertEquals(Integer.valueOf(-1), resolver.resolve("https", bytesHost("site5000.example.org"), 443));
+    }
+}
@@ -2,8 +2,11 @@ package ca.islandora.syn.valves;
 
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.ArgumentMatchers.any;
@@ -15,9 +18,15 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,6 +54,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import ca.islandora.syn.token.StaticTokenStore;
+import ca.islandora.syn.token.TokenDigest;
 import ca.islandora.syn.valve.SynValve;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -107,6 +118,8 @@ public class SynValveTest {
         when(request.getCoyoteRequest()).thenReturn(coyoteRequest);
         when(coyoteRequest.getMimeHeaders()).thenReturn(mimeHeaders);
         when(mimeHeaders.addValue(any(String.class))).thenReturn(messageByte);
+        when(coyoteRequest.serverName()).thenReturn(MessageBytes.newInstance());
+        when(coyoteRequest.decodedURI()).thenReturn(MessageBytes.newInstance());
 
         offset = ZoneId.systemDefault().getRules().getOffset(Instant.now());
     }
@@ -122,6 +135,47 @@ public class SynValveTest {
         verify(nextValve).invoke(request, response);
     }
 
+    @Test
+    public void shouldInvokeNextValvePreemptiveWithoutToken() throws Exception {
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(null);
+        when(context.getPreemptiveAuthentication()).thenReturn(true);
+
+        synValve.start();
+        synValve.invoke(request, response);
+
+        verify(nextValve).invoke(request, response);
+        verify(request, times(0)).setUserPrincipal(any());
+    }
+
+    @Test
+    public void shouldPassAuthPreemptiveWithToken() throws Exception {
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+        final String host = "http://test.com";
+        final String token = "Bearer " + JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "adminuser")
+                .withClaim("iss", host)
+                .withArrayClaim("roles", new String[] {"role1"})
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(null);
+        when(context.getPreemptiveAuthentication()).thenReturn(true);
+        setAuthorizationHeader(token);
+        setRequestHost(host);
+
+        synValve.start();
+        synValve.invoke(request, response);
+
+        verify(request).setUserPrincipal(argument.capture());
+        verify(nextValve).invoke(request, response);
+        assertEquals("adminuser", argument.getValue().getName());
+    }
+
     @Test
     public void shouldPassAuth() throws Exception {
         final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
@@ -142,15 +196,14 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn(token);
+        setAuthorizationHeader(token);
         setRequestHost(host);
 
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
-        inOrder.verify(request).getHeader("Authorization");
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
+        inOrder.verify(mimeHeaders).getValue("Authorization");
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(request).setAuthType("SYN");
@@ -172,6 +225,42 @@ public class SynValveTest {
         assertNull(argument.getValue().getPassword());
     }
 
+    @Test
+    public void shouldPassAuthFromCache() throws Exception {
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+
+        final String host = "http://test.com";
+
+        final String token = "Bearer " + JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "adminuser")
+                .withClaim("iss", host)
+                .withArrayClaim("roles", new String[] {"role1"})
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader(token);
+        setRequestHost(host);
+
+        synValve.start();
+        synValve.invoke(request, response);
+        synValve.invoke(request, response);
+
+        verify(nextValve, times(2)).invoke(request, response);
+        verify(messageByte, times(2)).setString(mb_argument.capture());
+        verify(request, times(2)).setUserPrincipal(argument.capture());
+
+        assertEquals(mb_argument.getAllValues().get(0), mb_argument.getAllValues().get(1));
+        assertSame(argument.getAllValues().get(0), argument.getAllValues().get(1));
+        assertEquals("adminuser", argument.getValue().getName());
+    }
+
     @Test
     public void shouldPassAuthToken() throws Exception {
         final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
@@ -181,14 +270,13 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn(token);
+        setAuthorizationHeader(token);
 
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
-        inOrder.verify(request).getHeader("Authorization");
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
+        inOrder.verify(mimeHeaders).getValue("Authorization");
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(request).setAuthType("SYN");
@@ -207,6 +295,30 @@ public class SynValveTest {
         assertNull(argument.getValue().getPassword());
     }
 
+    @Test
+    public void shouldNotGrowStaticTokenRoles() throws Exception {
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader("Bearer 1337");
+
+        synValve.start();
+        synValve.invoke(request, response);
+        synValve.invoke(request, response);
+        synValve.invoke(request, response);
+
+        verify(nextValve, times(3)).invoke(request, response);
+        verify(messageByte, times(3)).setString(mb_argument.capture());
+        verify(request, times(3)).setUserPrincipal(argument.capture());
+        for (final String header : mb_argument.getAllValues()) {
+            assertEquals("islandora", header);
+        }
+        assertSame(argument.getAllValues().get(0), argument.getAllValues().get(2));
+    }
+
     @Test
     public void shouldFailAuthBecauseOfTokenNotSet() throws Exception {
         final SecurityConstraint securityConstraint = new SecurityConstraint();
@@ -217,7 +329,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
@@ -227,13 +339,12 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn("garbage");
+        setAuthorizationHeader("garbage");
 
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
@@ -243,13 +354,12 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn("killer bandit foo");
+        setAuthorizationHeader("killer bandit foo");
 
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
@@ -269,13 +379,12 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn("Bearer " + token);
+        setAuthorizationHeader("Bearer " + token);
 
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
@@ -298,14 +407,13 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn("Bearer " + token);
+        setAuthorizationHeader("Bearer " + token);
 
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
-        inOrder.verify(request).getHeader("Authorization");
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
+        inOrder.verify(mimeHeaders).getValue("Authorization");
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(request).setAuthType("SYN");
@@ -340,8 +448,7 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn("Bearer " + token);
+        setAuthorizationHeader("Bearer " + token);
         setRequestHost(host);
 
         final String testXml = String.join("\n"
@@ -356,10 +463,65 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
+    @Test
+    public void shouldPassAuthWildcardIssuer() throws Exception {
+        assertIssuerAccepted("https://*.example.org", "https://a.example.org");
+    }
+
+    @Test
+    public void shouldPassAuthTrailingSlashIssuer() throws Exception {
+        assertIssuerAccepted("https://plain.org", "https://plain.org/");
+    }
+
+    @Test
+    public void shouldPassAuthUpperCaseSchemeIssuer() throws Exception {
+        assertIssuerAccepted("https://plain.org", "HTTPS://plain.org");
+    }
+
+    /**
+     * Authenticate with a token from an issuer that the site url only matches
+     * normalised, twice so the second request is answered from the cache.
+     */
+    private void assertIssuerAccepted(final String siteUrl, final String issuer) throws Exception {
+        final String testXml = String.join("\n"
+                , "<config version='1' header='X-Test'>"
+                , "  <site url='" + siteUrl + "' algorithm='HS256' encoding='plain'>"
+                , "secret"
+                , "  </site>"
+                , "</config>"
+        );
+        Files.write(settings.toPath(), testXml.getBytes());
+        final String token = "Bearer " + JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "adminuser")
+                .withClaim("iss", issuer)
+                .withArrayClaim("roles", new String[] {"role1"})
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader(token);
+
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+        synValve.start();
+        synValve.invoke(request, response);
+        synValve.invoke(request, response);
+
+        verify(request, times(2)).setUserPrincipal(argument.capture());
+        verify(nextValve, times(2)).invoke(request, response);
+        verify(response, times(0)).sendError(any(Integer.class), any(String.class));
+        assertEquals("adminuser", argument.getValue().getName());
+    }
+
     @Test
     public void allowAuthWithToken() throws Exception {
         final String host = "http://anon-test.com";
@@ -377,8 +539,7 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
             .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-            .thenReturn("Bearer " + token);
+        setAuthorizationHeader("Bearer " + token);
 
         final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
 
@@ -394,8 +555,8 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
-        inOrder.verify(request).getHeader("Authorization");
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
+        inOrder.verify(mimeHeaders).getValue("Authorization");
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(request).setAuthType("SYN");
@@ -437,7 +598,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(nextValve).invoke(request, response);
@@ -479,7 +640,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(nextValve).invoke(request, response);
@@ -497,6 +658,66 @@ public class SynValveTest {
         assertNull(argument.getValue().getPassword());
     }
 
+    @Test
+    public void allowPathRuleWithoutToken() throws Exception {
+        final String host = "http://anon-test.com";
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+            .thenReturn(new SecurityConstraint[] { securityConstraint });
+        when(request.getMethod()).thenReturn("OPTIONS");
+        setRequestHost(host);
+        setRequestPath("/fcrepo/rest/public/object");
+
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+
+        final String testXml = String.join("\n"
+                , "<config version='1' header='someheader'>"
+            , "  <site url='" + host + "' algorithm='HS256' encoding='plain'>"
+            , "    <anonymous path='/fcrepo/rest/public/*' methods='GET,HEAD,OPTIONS'/>"
+            , "secretFool"
+            , "  </site>"
+            , "</config>"
+        );
+        Files.write(Paths.get(this.settings.getAbsolutePath()), testXml.getBytes());
+
+        synValve.start();
+        synValve.invoke(request, response);
+
+        verify(request).setUserPrincipal(argument.capture());
+        verify(nextValve).invoke(request, response);
+        assertEquals("anonymous", argument.getValue().getName());
+        verify(mimeHeaders, times(0)).getValue("Authorization");
+    }
+
+    @Test
+    public void disallowOtherPathWithoutToken() throws Exception {
+        final String host = "http://anon-test.com";
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+            .thenReturn(new SecurityConstraint[] { securityConstraint });
+        when(request.getMethod()).thenReturn("GET");
+        setRequestHost(host);
+        setRequestPath("/fcrepo/rest/private/object");
+
+        final String testXml = String.join("\n"
+            , "<config version='1'>"
+            , "  <site url='" + host + "' algorithm='HS256' encoding='plain'>"
+            , "    <anonymous path='/fcrepo/rest/public/*'/>"
+            , "secretFool"
+            , "  </site>"
+            , "</config>"
+        );
+        Files.write(Paths.get(this.settings.getAbsolutePath()), testXml.getBytes());
+
+        synValve.start();
+        synValve.invoke(request, response);
+
+        verify(mimeHeaders).getValue("Authorization");
+        verify(response).sendError(401, "Token authentication failed.");
+    }
+
     @Test
     public void disallowGetWithoutToken() throws Exception {
         final String host = "http://anon-test.com";
@@ -520,7 +741,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
@@ -540,8 +761,7 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
             .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-            .thenReturn("Bearer " + token);
+        setAuthorizationHeader("Bearer " + token);
         when(request.getMethod()).thenReturn("GET");
         setRequestHost(host);
 
@@ -560,7 +780,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(nextValve).invoke(request, response);
@@ -602,7 +822,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(nextValve).invoke(request, response);
@@ -641,7 +861,7 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(nextValve).invoke(request, response);
@@ -675,8 +895,7 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-            .thenReturn("Bearer " + token + "s");
+        setAuthorizationHeader("Bearer " + token + "s");
 
         final String testXml = String.join("\n"
                 , "<config version='1'>"
@@ -690,7 +909,84 @@ public class SynValveTest {
         synValve.start();
         synValve.invoke(request, response);
 
-        verify(request).getHeader("Authorization");
+        verify(mimeHeaders).getValue("Authorization");
+        verify(response).sendError(401, "Token authentication failed.");
+    }
+
+    @Test
+    public void shouldRejectRepeatedBadToken() throws Exception {
+        final String host = "http://test.com";
+        final String token = JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "normalUser")
+                .withClaim("iss", host)
+                .withArrayClaim("roles", new String[] {})
+                .withIssuedAt(Date.from(LocalDateTime.now().minusHours(3).toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().minusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader("Bearer " + token);
+
+        synValve.start();
+        synValve.invoke(request, response);
+        synValve.invoke(request, response);
+
+        verify(mimeHeaders, times(2)).getValue("Authorization");
+        verify(response, times(2)).sendError(401, "Token authentication failed.");
+    }
+
+    @Test
+    public void shouldFailTooManyRoles() throws Exception {
+        final String host = "http://test.com";
+        final String token = JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "normalUser")
+                .withClaim("iss", host)
+                .withArrayClaim("roles", new String[] { "role1", "role2", "role3" })
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader("Bearer " + token);
+
+        final String testXml = String.join("\n"
+                , "<config version='1' maxRoles='2'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                , "secret"
+                , "  </site>"
+                , "</config>"
+        );
+        Files.write(Paths.get(this.settings.getAbsolutePath()), testXml.getBytes());
+
+        synValve.start();
+        synValve.invoke(request, response);
+
+        verify(mimeHeaders).getValue("Authorization");
+        verify(response).sendError(401, "Token authentication failed.");
+    }
+
+    @Test
+    public void shouldFailTokenTooLarge() throws Exception {
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader("Bearer " + String.join("", Collections.nCopies(9000, "a")));
+
+        synValve.start();
+        synValve.invoke(request, response);
+
+        verify(mimeHeaders).getValue("Authorization");
         verify(response).sendError(401, "Token authentication failed.");
     }
 
@@ -714,15 +1010,14 @@ public class SynValveTest {
         securityConstraint.setAuthConstraint(true);
         when(realm.findSecurityConstraints(request, request.getContext()))
                 .thenReturn(new SecurityConstraint[] { securityConstraint });
-        when(request.getHeader("Authorization"))
-                .thenReturn(token);
+        setAuthorizationHeader(token);
         setRequestHost(host);
 
         synValve.start();
         synValve.invoke(request, response);
 
-        final InOrder inOrder = inOrder(request, messageByte, nextValve);
-        inOrder.verify(request).getHeader("Authorization");
+        final InOrder inOrder = inOrder(request, mimeHeaders, messageByte, nextValve);
+        inOrder.verify(mimeHeaders).getValue("Authorization");
         inOrder.verify(messageByte).setString(mb_argument.capture());
         inOrder.verify(request).setUserPrincipal(argument.capture());
         inOrder.verify(request).setAuthType("SYN");
@@ -744,6 +1039,261 @@ public class SynValveTest {
         assertNull(argument.getValue().getPassword());
     }
 
+    @Test
+    public void shouldPassAuthStaticTokenFile() throws Exception {
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+        final File tokens = temporaryFolder.newFile();
+        StaticTokenStore.write(tokens.toPath(), Collections.singletonMap(TokenDigest.of("from-file"),
+            new StaticTokenStore.Record("service", Arrays.asList("fedoraAdmin"))));
+        final String testXml = String.join("\n"
+                , "<config version='1' header='X-Test' staticTokens='" + tokens.getAbsolutePath() + "'>"
+                , "  <token user='inline'>1337</token>"
+                , "</config>"
+        );
+        Files.write(settings.toPath(), testXml.getBytes());
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader("Bearer from-file");
+
+        synValve.start();
+        synValve.invoke(request, response);
+        setAuthorizationHeader("Bearer 1337");
+        synValve.invoke(request, response);
+        setAuthorizationHeader("Bearer not-in-file");
+        synValve.invoke(request, response);
+        setAuthorizationHeader("Bearer from-file");
+        synValve.invoke(request, response);
+
+        verify(nextValve, times(3)).invoke(request, response);
+        verify(response).sendError(401, "Token authentication failed.");
+        verify(messageByte, times(3)).setString(mb_argument.capture());
+        verify(request, times(3)).setUserPrincipal(argument.capture());
+        assertEquals("service", argument.getAllValues().get(0).getName());
+        assertTrue(Arrays.asList(argument.getAllValues().get(0).getRoles()).contains("fedoraAdmin"));
+        assertEquals("fedoraAdmin,islandora", mb_argument.getAllValues().get(0));
+        assertEquals("inline", argument.getAllValues().get(1).getName());
+        // The file token's identity is kept rather than rebuilt.
+        assertSame(argument.getAllValues().get(0), argument.getAllValues().get(2));
+    }
+
+    @Test
+    public void shouldReloadChangedSettings() throws Exception {
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader("Bearer 4242");
+
+        synValve.setReloadable(true);
+        synValve.start();
+        synValve.invoke(request, response);
+        verify(response).sendError(401, "Token authentication failed.");
+
+        final String testXml = String.join("\n"
+                , "<config version='1' header='X-Test'>"
+                , "  <token>"
+                , "4242"
+                , "  </token>"
+                , "</config>"
+        );
+        Files.write(settings.toPath(), testXml.getBytes());
+
+        assertTrue(invokeUntilAuthenticated());
+        synValve.stop();
+    }
+
+    @Test
+    public void shouldReloadChangedKeyFile() throws Exception {
+        final File keyFile = temporaryFolder.newFile();
+        Files.write(keyFile.toPath(), "old-secret".getBytes());
+        final String testXml = String.join("\n"
+                , "<config version='1' header='X-Test'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain' path='"
+                    + keyFile.getAbsolutePath() + "'/>"
+                , "</config>"
+        );
+        Files.write(settings.toPath(), testXml.getBytes());
+
+        final String token = "Bearer " + JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "adminuser")
+                .withClaim("iss", "http://test.com")
+                .withArrayClaim("roles", new String[] {})
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("new-secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader(token);
+
+        synValve.setReloadable(true);
+        synValve.start();
+        synValve.invoke(request, response);
+        verify(response).sendError(401, "Token authentication failed.");
+
+        Files.write(keyFile.toPath(), "new-secret".getBytes());
+
+        assertTrue(invokeUntilAuthenticated());
+        synValve.stop();
+    }
+
+    @Test
+    public void shouldKeepVerifiedTokensAcrossRestart() throws Exception {
+        final File cacheFile = new File(temporaryFolder.getRoot(), "syn-cache.bin");
+        final String testXml = String.join("\n"
+                , "<config version='1' header='X-Test' cacheFile='" + cacheFile.getAbsolutePath() + "'>"
+                , "  <site url='http://test.com' algorithm='HS256' encoding='plain'>"
+                , "secret"
+                , "  </site>"
+                , "</config>"
+        );
+        Files.write(settings.toPath(), testXml.getBytes());
+
+        final String token = "Bearer " + JWT
+                .create()
+                .withClaim("webid", 1)
+                .withClaim("sub", "adminuser")
+                .withClaim("iss", "http://test.com")
+                .withArrayClaim("roles", new String[] {"role1", "fedoraAdmin"})
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader(token);
+        setRequestHost("http://test.com");
+
+        synValve.start();
+        synValve.invoke(request, response);
+        synValve.stop();
+        assertTrue(cacheFile.exists());
+
+        final List<String> messages = new ArrayList<>();
+        final SynValve restarted = new SynValve();
+        restarted.setPathname(settings.getAbsolutePath());
+        restarted.setContainer(container);
+        restarted.setNext(nextValve);
+        captureLog(messages, restarted);
+        assertTrue(messages.contains("Loaded 1 verified tokens from the token cache file."));
+        restarted.invoke(request, response);
+
+        final ArgumentCaptor<GenericPrincipal> argument = ArgumentCaptor.forClass(GenericPrincipal.class);
+        verify(request, times(2)).setUserPrincipal(argument.capture());
+        verify(messageByte, times(2)).setString(mb_argument.capture());
+        verify(nextValve, times(2)).invoke(request, response);
+        assertEquals("adminuser", argument.getAllValues().get(1).getName());
+        assertEquals(Arrays.asList(argument.getAllValues().get(0).getRoles()),
+            Arrays.asList(argument.getAllValues().get(1).getRoles()));
+        assertEquals(mb_argument.getAllValues().get(0), mb_argument.getAllValues().get(1));
+        restarted.stop();
+
+        // Saved with other settings, so not loaded.
+        Files.write(settings.toPath(), testXml.replace("X-Test", "X-Other").getBytes());
+        messages.clear();
+        final SynValve changed = new SynValve();
+        changed.setPathname(settings.getAbsolutePath());
+        changed.setContainer(container);
+        changed.setNext(nextValve);
+        captureLog(messages, changed);
+        assertTrue(messages.stream().anyMatch(m -> m.startsWith("Unable to load the token cache file")));
+        changed.stop();
+    }
+
+    @Test
+    public void shouldNotSaveTokensVerifiedWithJwks() throws Exception {
+        final File cacheFile = new File(temporaryFolder.getRoot(), "syn-cache.bin");
+        final File jwks = temporaryFolder.newFile();
+        Files.write(jwks.toPath(), ("{\"keys\":[{\"kty\":\"oct\",\"kid\":\"2017\",\"k\":\""
+            + Base64.getUrlEncoder().withoutPadding().encodeToString("secret".getBytes()) + "\"}]}").getBytes());
+        final String testXml = String.join("\n"
+                , "<config version='1' header='X-Test' cacheFile='" + cacheFile.getAbsolutePath() + "'>"
+                , "  <site url='http://test.com' algorithm='HS256' jwks='" + jwks.getAbsolutePath() + "'/>"
+                , "</config>"
+        );
+        Files.write(settings.toPath(), testXml.getBytes());
+
+        final String token = "Bearer " + JWT
+                .create()
+                .withHeader(Collections.singletonMap("kid", "2017"))
+                .withClaim("webid", 1)
+                .withClaim("sub", "adminuser")
+                .withClaim("iss", "http://test.com")
+                .withArrayClaim("roles", new String[] {"role1"})
+                .withIssuedAt(Date.from(LocalDateTime.now().toInstant(offset)))
+                .withExpiresAt(Date.from(LocalDateTime.now().plusHours(2).toInstant(offset)))
+                .sign(Algorithm.HMAC256("secret"));
+
+        final SecurityConstraint securityConstraint = new SecurityConstraint();
+        securityConstraint.setAuthConstraint(true);
+        when(realm.findSecurityConstraints(request, request.getContext()))
+                .thenReturn(new SecurityConstraint[] { securityConstraint });
+        setAuthorizationHeader(token);
+
+        synValve.start();
+        synValve.invoke(request, response);
+        verify(nextValve).invoke(request, response);
+        synValve.stop();
+        assertTrue(cacheFile.exists());
+        assertTrue(new File(cacheFile.getAbsolutePath() + ".key").exists());
+
+        final List<String> messages = new ArrayList<>();
+        final SynValve restarted = new SynValve();
+        restarted.setPathname(settings.getAbsolutePath());
+        restarted.setContainer(container);
+        restarted.setNext(nextValve);
+        captureLog(messages, restarted);
+        assertTrue(messages.stream().noneMatch(m -> m.startsWith("Loaded") || m.startsWith("Unable")));
+        restarted.stop();
+    }
+
+    private static void captureLog(final List<String> messages, final SynValve valve) throws Exception {
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() { }
+
+            @Override
+            public void close() { }
+        };
+        final Logger logger = Logger.getLogger(SynValve.class.getName());
+        logger.addHandler(handler);
+        try {
+            valve.start();
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    /**
+     * Invoke the valve until the request gets through to the next valve, as the
+     * settings are reloaded in the background.
+     */
+    private boolean invokeUntilAuthenticated() throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            synValve.invoke(request, response);
+            if (!mockingDetails(nextValve).getInvocations().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void createSettings(final File settingsFile) throws Exception {
         final String testXml = String.join("\n"
                 , "<config version='1' header='X-Test'>"
@@ -761,13 +1311,29 @@ public class SynValveTest {
         Files.write(Paths.get(settingsFile.getAbsolutePath()), testXml.getBytes());
     }
 
+    private void setAuthorizationHeader(final String value) {
+        final byte[] bytes = value.getBytes();
+        final MessageBytes header = MessageBytes.newInstance();
+        header.setBytes(bytes, 0, bytes.length);
+        when(mimeHeaders.getValue("Authorization")).thenReturn(header);
+    }
+
     private void setRequestHost(final String hostname) {
         final String[] parts = getHostParts(hostname);
         when(request.getScheme()).thenReturn(parts[0]);
-        when(request.getServerName()).thenReturn(parts[1]);
+        final byte[] serverName = parts[1].getBytes();
+        final MessageBytes host = MessageBytes.newInstance();
+        host.setBytes(serverName, 0, serverName.length);
+        when(coyoteRequest.serverName()).thenReturn(host);
         when(request.getServerPort()).thenReturn(Integer.valueOf(parts[2]));
     }
 
+    private void setRequestPath(final String value) {
+        final MessageBytes path = MessageBytes.newInstance();
+        path.setChars(value.toCharArray(), 0, value.length());
+        when(coyoteRequest.decodedURI()).thenReturn(path);
+    }
+
     private String[] getHostParts(final String hostname) {
         final Pattern hostPattern = Pattern.compile("^(https?)://([^:/]+)(?::([0-9]+))?");
         final Matcher matches = hostPattern.matcher(hostname);